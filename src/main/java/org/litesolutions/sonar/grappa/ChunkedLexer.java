@@ -0,0 +1,318 @@
+/*
+ * Copyright (c) 2016 Lite Solutions
+ *
+ *  This code is licensed under the Apache Software License version 2.
+ *  For more information, see the LICENSE file at the root of this package.
+ *
+ *  Should you not have the source code available, and the file above is
+ *  unavailable, you can obtain a copy of the license here:
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ */
+
+package org.litesolutions.sonar.grappa;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import javax.annotation.Nullable;
+
+import org.sonar.sslr.channel.CodeReader;
+
+import com.github.fge.grappa.rules.Rule;
+import com.github.fge.grappa.run.ParseEventListener;
+import com.github.fge.grappa.run.ParseRunner;
+import com.github.fge.grappa.run.ParsingResult;
+import com.github.fge.grappa.run.context.MatcherContext;
+import com.github.fge.grappa.run.events.MatchSuccessEvent;
+import com.sonar.sslr.api.Token;
+
+/**
+ * Lex a large input in parallel, using a {@link SplitPointStrategy}
+ *
+ * <p>The input is cut into chunks at split points; each chunk is lexed on the
+ * common fork/join pool with the main rule, using a {@link
+ * ShiftedInputBuffer} so that token lines need no fixup afterwards (since
+ * chunks start at the beginning of a line, columns need none either).</p>
+ *
+ * <p>Grappa actions share state with the parser instance which created them,
+ * which is why each worker thread gets its own rule from the supplier.</p>
+ *
+ * <p>Unless the strategy opts out, seams are then verified: each pair of
+ * adjacent chunks is lexed again as a whole, and must produce the same tokens
+ * as the two chunks separately. A split within a comment or a string literal,
+ * for instance, usually lexes differently across the seam.</p>
+ *
+ * <p>If any chunk fails to lex, does not lex fully, or any seam does not
+ * verify, nothing is added to the lexer and the caller is expected to fall
+ * back to sequential lexing.</p>
+ */
+final class ChunkedLexer
+{
+    /*
+     * Token builders need a URI to be built; tokens built for seam checks
+     * are thrown away
+     */
+    private static final URI SEAM_URI = URI.create("seam://check");
+
+    private final SplitPointStrategy strategy;
+    private final ThreadLocal<Rule> rules;
+
+    ChunkedLexer(final SplitPointStrategy strategy,
+        final Supplier<Rule> ruleSupplier)
+    {
+        this.strategy = strategy;
+        rules = ThreadLocal.withInitial(ruleSupplier);
+    }
+
+    /**
+     * Try and lex the contents of a code reader in parallel
+     *
+     * @param code the code reader
+     * @param output the lexer
+     * @return true if the input was lexed (and fully consumed from the code
+     * reader); false if it should be lexed sequentially
+     */
+    boolean consume(final CodeReader code, final GrappaSslrLexer output)
+    {
+        final int length = code.length();
+
+        if (length < 2 * strategy.getMinChunkSize())
+            return false;
+
+        final List<Chunk> chunks = split(code);
+
+        if (chunks.size() < 2)
+            return false;
+
+        final List<TokenBuilders.Collected> lexed = chunks.parallelStream()
+            .map(this::lex).collect(Collectors.toList());
+
+        if (lexed.contains(null))
+            return false;
+
+        if (strategy.verifySeams() && !seamsMatch(chunks, lexed))
+            return false;
+
+        lexed.forEach(output::addTokens);
+
+        for (int i = 0; i < length; i++)
+            code.pop();
+
+        return true;
+    }
+
+    private List<Chunk> split(final CodeReader code)
+    {
+        final CharSequence input = new CodeReaderSequence(code, 0,
+            code.length());
+        final List<Chunk> chunks = new ArrayList<>();
+        final int length = code.length();
+        final int minChunkSize = strategy.getMinChunkSize();
+
+        int chunkStart = 0;
+        int chunkLine = 1;
+        int line = 1;
+        int lineStart;
+
+        for (int index = 0; index < length; index++) {
+            if (code.charAt(index) != '\n')
+                continue;
+            line++;
+            lineStart = index + 1;
+            if (lineStart - chunkStart < minChunkSize
+                || length - lineStart < minChunkSize)
+                continue;
+            if (!strategy.isSplitPoint(input, lineStart))
+                continue;
+            chunks.add(new Chunk(extract(code, chunkStart, lineStart),
+                chunkLine));
+            chunkStart = lineStart;
+            chunkLine = line;
+        }
+
+        chunks.add(new Chunk(extract(code, chunkStart, length), chunkLine));
+        return chunks;
+    }
+
+    /*
+     * Unfortunately, CodeReader does not support subSequence()
+     */
+    private static String extract(final CodeReader code, final int start,
+        final int end)
+    {
+        final char[] chars = new char[end - start];
+        for (int i = start; i < end; i++)
+            chars[i - start] = code.charAt(i);
+        return new String(chars);
+    }
+
+    /*
+     * The builders are collected on the worker thread, since token types are
+     * recorded per thread; see TokenBuilders
+     */
+    @Nullable
+    private TokenBuilders.Collected lex(final Chunk chunk)
+    {
+        final CodeReaderInputBuffer delegate
+            = new CodeReaderInputBuffer(new CodeReader(chunk.text));
+        final ParseRunner<Token.Builder> runner
+            = new ParseRunner<>(rules.get());
+        final ConsumptionListener listener = new ConsumptionListener();
+
+        runner.registerListener(listener);
+
+        final ParsingResult<Token.Builder> result;
+
+        TokenBuilders.begin();
+
+        try {
+            result = runner.run(new ShiftedInputBuffer(delegate,
+                chunk.firstLine - 1));
+        } catch (RuntimeException ignored) {
+            TokenBuilders.end();
+            return null;
+        }
+
+        if (!result.isSuccess() || listener.consumed != chunk.text.length()) {
+            TokenBuilders.end();
+            return null;
+        }
+
+        return TokenBuilders.collect(result.getValueStack());
+    }
+
+    /*
+     * Lex each pair of adjacent chunks as one, and compare the tokens with
+     * those of the chunks lexed separately
+     */
+    private boolean seamsMatch(final List<Chunk> chunks,
+        final List<TokenBuilders.Collected> lexed)
+    {
+        final List<List<Token>> tokens = lexed.stream()
+            .map(ChunkedLexer::build).collect(Collectors.toList());
+
+        return IntStream.range(0, chunks.size() - 1).parallel()
+            .allMatch(i -> {
+                final Chunk first = chunks.get(i);
+                final TokenBuilders.Collected both = lex(new Chunk(
+                    first.text + chunks.get(i + 1).text, first.firstLine));
+                if (both == null)
+                    return false;
+                final List<Token> expected = new ArrayList<>(tokens.get(i));
+                expected.addAll(tokens.get(i + 1));
+                return sameTokens(expected, build(both));
+            });
+    }
+
+    private static List<Token> build(final TokenBuilders.Collected collected)
+    {
+        final List<Token> tokens = new ArrayList<>(collected.builders.length);
+        for (final Token.Builder builder: collected.builders)
+            tokens.add(builder.setURI(SEAM_URI).build());
+        return tokens;
+    }
+
+    private static boolean sameTokens(final List<Token> expected,
+        final List<Token> actual)
+    {
+        if (expected.size() != actual.size())
+            return false;
+
+        Token t1;
+        Token t2;
+
+        for (int i = 0; i < expected.size(); i++) {
+            t1 = expected.get(i);
+            t2 = actual.get(i);
+            if (t1.getType() != t2.getType() || t1.getLine() != t2.getLine()
+                || t1.getColumn() != t2.getColumn()
+                || !t1.getOriginalValue().equals(t2.getOriginalValue()))
+                return false;
+        }
+
+        return true;
+    }
+
+    /*
+     * A view of a range of a code reader, as a CharSequence which honours its
+     * contract; strategies get one rather than the code reader itself
+     */
+    private static final class CodeReaderSequence
+        implements CharSequence
+    {
+        private final CodeReader code;
+        private final int start;
+        private final int length;
+
+        private CodeReaderSequence(final CodeReader code, final int start,
+            final int length)
+        {
+            this.code = code;
+            this.start = start;
+            this.length = length;
+        }
+
+        @Override
+        public int length()
+        {
+            return length;
+        }
+
+        @Override
+        public char charAt(final int index)
+        {
+            if (index < 0 || index >= length)
+                throw new IndexOutOfBoundsException("invalid index " + index
+                    + " (length: " + length + ')');
+            return code.charAt(start + index);
+        }
+
+        @Override
+        public CharSequence subSequence(final int start, final int end)
+        {
+            if (start < 0 || end > length || start > end)
+                throw new IndexOutOfBoundsException("Invalid subsequence range: "
+                    + start + " to " + end);
+            return new CodeReaderSequence(code, this.start + start,
+                end - start);
+        }
+
+        @Override
+        public String toString()
+        {
+            return extract(code, start, start + length);
+        }
+    }
+
+    private static final class Chunk
+    {
+        private final String text;
+        private final int firstLine;
+
+        private Chunk(final String text, final int firstLine)
+        {
+            this.text = text;
+            this.firstLine = firstLine;
+        }
+    }
+
+    private static final class ConsumptionListener
+        extends ParseEventListener<Token.Builder>
+    {
+        private int consumed = 0;
+
+        @Override
+        public void matchSuccess(final MatchSuccessEvent<Token.Builder> event)
+        {
+            final MatcherContext<Token.Builder> context = event.getContext();
+            if (!context.inPredicate())
+                consumed = Math.max(consumed, context.getCurrentIndex());
+        }
+    }
+}
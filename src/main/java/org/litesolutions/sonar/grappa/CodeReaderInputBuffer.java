@@ -28,11 +28,9 @@
 
  import com.github.fge.grappa.buffers.CharSequenceInputBuffer;
  import com.github.fge.grappa.buffers.InputBuffer;
- import com.github.fge.grappa.buffers.LineCounter;
  import com.github.fge.grappa.support.IndexRange;
  import com.github.fge.grappa.support.Position;
  import com.google.common.base.Preconditions;
- import com.google.common.collect.Range;
  import com.google.common.util.concurrent.Futures;
  import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
@@ -59,14 +57,18 @@
 
      private final CodeReader reader;
      private final int length;
-     private final Future<LineCounter> lineCounter;
+     private final Future<LineOffsets> lineCounter;
 
 
 
      public CodeReaderInputBuffer(@Nonnull final CodeReader reader) {
          this.reader = Objects.requireNonNull(reader);
          length = reader.length();
-         lineCounter = EXECUTOR_SERVICE.submit(() -> new LineCounter(reader));
+         lineCounter = EXECUTOR_SERVICE.submit(() -> {
+             final LineOffsets offsets = new LineOffsets();
+             offsets.addLines(reader);
+             return offsets;
+         });
      }
 
      @Override
@@ -127,22 +129,19 @@
      @Override
      public Position getPosition(final int index) {
          /*
-          * A CodeReader column index starts at 0, not 1; we therefore need to
-          * substract one from the extracted position...
+          * A CodeReader column index starts at 0, which is what we compute
           */
-         final Position position
-                 = Futures.getUnchecked(lineCounter).toPosition(index);
-         return new Position(position.getLine(), position.getColumn() - 1);
+         final LineOffsets offsets = Futures.getUnchecked(lineCounter);
+         final int line = offsets.getLineNumber(index);
+         return new Position(line, index - offsets.getLineStart(line));
      }
 
-     @SuppressWarnings("AutoUnboxing")
      @Override
      public String extractLine(final int lineNumber) {
          Preconditions.checkArgument(lineNumber > 0, "line number is negative");
-         final LineCounter counter = Futures.getUnchecked(lineCounter);
-         final Range<Integer> range = counter.getLineRange(lineNumber);
-         final int start = range.lowerEndpoint();
-         int end = range.upperEndpoint();
+         final IndexRange range = getLineRange(lineNumber);
+         final int start = range.start;
+         int end = range.end;
          if (charAt(end - 1) == '\n')
              end--;
          if (charAt(end - 1) == '\r')
@@ -157,12 +156,13 @@
       * @param lineNumber the line number
       * @return the index range
       */
-     @SuppressWarnings("AutoUnboxing")
      @Override
      public IndexRange getLineRange(final int lineNumber) {
-         final Range<Integer> range
-                 = Futures.getUnchecked(lineCounter).getLineRange(lineNumber);
-         return new IndexRange(range.lowerEndpoint(), range.upperEndpoint());
+         final LineOffsets offsets = Futures.getUnchecked(lineCounter);
+         final int start = offsets.getLineStart(lineNumber);
+         final int end = lineNumber == offsets.getNrLines() ? length
+                 : offsets.getLineStart(lineNumber + 1);
+         return new IndexRange(start, end);
      }
 
      @Override
@@ -13,11 +13,13 @@
 
  package org.litesolutions.sonar.grappa;
 
- import java.net.URI;
+ import java.util.Arrays;
 
  import org.sonar.sslr.channel.Channel;
  import org.sonar.sslr.channel.CodeReader;
 
+ import com.github.fge.grappa.buffers.InputBuffer;
+ import com.github.fge.grappa.matchers.MatcherType;
  import com.github.fge.grappa.matchers.base.Matcher;
  import com.github.fge.grappa.run.ParseEventListener;
  import com.github.fge.grappa.run.ParseRunner;
@@ -27,12 +29,9 @@
  import com.github.fge.grappa.run.events.MatchSuccessEvent;
  import com.github.fge.grappa.run.events.PostParseEvent;
  import com.github.fge.grappa.run.events.PreParseEvent;
- import com.github.fge.grappa.stack.ValueStack;
  import com.github.fge.grappa.support.Position;
- import com.sonar.sslr.api.GenericTokenType;
  import com.sonar.sslr.api.RecognitionException;
  import com.sonar.sslr.api.Token;
- import com.sonar.sslr.api.Trivia;
 
  /**
   * A parsing listener associated with a Sonar {@link CodeReader} and {@link
@@ -56,89 +55,226 @@
   */
  public final class CodeReaderListener
          extends ParseEventListener<Token.Builder> {
-     private final GrappaSslrLexer lexer;
-     private final CodeReader reader;
+     /*
+      * Maximum number of expected matchers reported on failure
+      */
+     private static final int MAX_EXPECTED = 8;
+
+     private GrappaSslrLexer lexer;
+     /*
+      * Null when parsing from a WindowedInputBuffer.
+      */
+     private CodeReader reader;
+     private int length;
 
      /*
       * The root matcher. We get it from the initial root context.
       */
      private Matcher rootMatcher = null;
+     private InputBuffer inputBuffer = null;
      /*
       * The number of characters consumed by the root matcher.
       */
      private int consumed = 0;
-     private Position position = null;
+     /*
+      * Partial match mode: the root matcher need only match a prefix of the
+      * input; see GrappaChannel#setPartialMatch(boolean)
+      */
+     private boolean partial = false;
+     private int rootEnd = 0;
+     /*
+      * The farthest index at which a terminal matcher failed (outside of
+      * predicates), and a bounded set of the matchers which failed there.
+      */
+     private int farthestFailure = -1;
+     private final Matcher[] expected = new Matcher[MAX_EXPECTED];
+     private int nrExpected = 0;
 
      public CodeReaderListener(final CodeReader reader, final GrappaSslrLexer lexer) {
          this.lexer = lexer;
          this.reader = reader;
+         length = reader.length();
+     }
+
+     /*
+      * Used when the input does not come from a CodeReader; see
+      * GrappaChannel#consume(WindowedInputBuffer, GrappaSslrLexer)
+      */
+     CodeReaderListener(final int length, final GrappaSslrLexer lexer) {
+         this.lexer = lexer;
+         reader = null;
+         this.length = length;
+     }
+
+     /*
+      * Used by LexingArena; reset() must be called before each parsing run.
+      */
+     CodeReaderListener() {
+         lexer = null;
+         reader = null;
+         length = 0;
+     }
+
+     /*
+      * Prepare this listener for a new parsing run; see LexingArena
+      */
+     void reset(final CodeReader reader, final GrappaSslrLexer lexer) {
+         this.lexer = lexer;
+         this.reader = reader;
+         length = reader == null ? 0 : reader.length();
+         rootMatcher = null;
+         inputBuffer = null;
+         consumed = 0;
+         rootEnd = 0;
+         farthestFailure = -1;
+         Arrays.fill(expected, null);
+         nrExpected = 0;
      }
 
      @Override
      public void beforeParse(final PreParseEvent<Token.Builder> event) {
          final MatcherContext<Token.Builder> context = event.getContext();
          rootMatcher = context.getMatcher();
+         inputBuffer = context.getInputBuffer();
+         TokenBuilders.begin();
      }
 
      @Override
      public void matchSuccess(final MatchSuccessEvent<Token.Builder> event) {
          final MatcherContext<Token.Builder> context = event.getContext();
-         if (!context.inPredicate())
-             consumed = Math.max(consumed, context.getCurrentIndex());
-             this.position = context.getPosition();
+         if (!context.inPredicate() && context.getCurrentIndex() > consumed)
+             consumed = context.getCurrentIndex();
          if (context.getLevel() != 0)
              return;
          if (context.getMatcher() != rootMatcher)
              throw new IllegalStateException("was expecting root rule here");
+         rootEnd = context.getCurrentIndex();
      }
 
      @Override
      public void matchFailure(final MatchFailureEvent<Token.Builder> event) {
          final MatcherContext<Token.Builder> context = event.getContext();
+         if (!context.inPredicate()
+             && context.getMatcher().getType() == MatcherType.TERMINAL)
+             recordFailure(context.getMatcher(), context.getStartIndex());
          if (context.getLevel() != 0)
              return;
          if (context.getMatcher() != rootMatcher)
              throw new IllegalStateException("was expecting root rule here");
      }
 
+     private void recordFailure(final Matcher matcher, final int index) {
+         if (index < farthestFailure)
+             return;
+         if (index > farthestFailure) {
+             farthestFailure = index;
+             Arrays.fill(expected, 0, nrExpected, null);
+             nrExpected = 0;
+         }
+         if (nrExpected == MAX_EXPECTED)
+             return;
+         for (int i = 0; i < nrExpected; i++)
+             if (expected[i] == matcher)
+                 return;
+         expected[nrExpected++] = matcher;
+     }
+
      @Override
      public void afterParse(final PostParseEvent<Token.Builder> event) {
-         final int length = reader.length();
+         try {
+             checkResult(event.getResult());
+         } finally {
+             TokenBuilders.end();
+         }
+     }
 
+     private void checkResult(final ParsingResult<Token.Builder> result) {
          /*
           * We want a match
           */
 
-         final ParsingResult<Token.Builder> result = event.getResult();
+         if (partial) {
+             afterPartialParse(result);
+             return;
+         }
+
          if (!result.isSuccess())
-             throw new RecognitionException(position.getLine(), "match failure (consumed: "
-                     + consumed + " out of " + length + ')');
+             throw failure("match failure");
 
          /*
           * Check that we did consume all the text
           */
 
-         for (int i = 0; i< consumed; i++) {
-             reader.pop();
+         if (reader == null) {
+             if (consumed != length)
+                 throw failure("Parsing failure");
+         } else {
+             for (int i = 0; i< consumed; i++) {
+                 reader.pop();
+             }
+
+             if (consumed != length) {
+                 throw failure("Parsing failure");
+             }
+         }
+
+         lexer.addTokens(result.getValueStack());
+     }
+
+     /*
+      * In partial match mode, a failure or an empty match is not an error:
+      * nothing is consumed, and the lexer will try its other channels.
+      */
+     private void afterPartialParse(final ParsingResult<Token.Builder> result) {
+         if (!result.isSuccess() || rootEnd == 0) {
+             consumed = 0;
+             return;
          }
 
-         if (consumed != length) {
-             throw new RecognitionException(reader.getLinePosition(), "Parsing failure");
+         consumed = rootEnd;
+         for (int i = 0; i < consumed; i++) {
+             reader.pop();
          }
 
+         lexer.addTokens(result.getValueStack());
+     }
 
-         final ValueStack<Token.Builder> stack = result.getValueStack();
+     void setPartial(final boolean partial) {
+         this.partial = partial;
+     }
 
-         final URI uri = lexer.getURI();
-         final int size = stack.size();
-         Token token;
+     /*
+      * The number of characters consumed by the last parsing run
+      */
+     int getConsumed() {
+         return consumed;
+     }
+
+     /*
+      * Build the exception to throw on failure; this is the only place where
+      * positions are computed. The lexer rethrows it as is, so the message
+      * also names the file.
+      */
+     private RecognitionException failure(final String what) {
+         final int index = Math.max(consumed, farthestFailure);
+         final Position position = inputBuffer.getPosition(index);
+         final StringBuilder sb = new StringBuilder(what)
+             .append(" at line ").append(position.getLine())
+             .append(", column ").append(position.getColumn());
 
-         for (int index = size - 1; index >= 0; index--) {
-             token = stack.peek(index).setURI(uri).build();
-             if (token.getType() == GenericTokenType.COMMENT)
-                 lexer.addTrivia(Trivia.createComment(token));
-             else
-                 lexer.addToken(token);
+         if (farthestFailure == index && nrExpected > 0) {
+             sb.append(": expected ");
+             if (nrExpected > 1)
+                 sb.append("one of ");
+             for (int i = 0; i < nrExpected; i++) {
+                 if (i > 0)
+                     sb.append(", ");
+                 sb.append(expected[i].getLabel());
+             }
          }
+
+         sb.append(" (consumed: ").append(consumed).append(" out of ")
+             .append(length).append(") in file : ").append(lexer.getURI());
+         return new RecognitionException(position.getLine(), sb.toString());
      }
  }
@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2016 Lite Solutions
+ *
+ *  This code is licensed under the Apache Software License version 2.
+ *  For more information, see the LICENSE file at the root of this package.
+ *
+ *  Should you not have the source code available, and the file above is
+ *  unavailable, you can obtain a copy of the license here:
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ */
+
+
+package org.litesolutions.sonar.grappa;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Supplier;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import org.litesolutions.sonar.grappa.listeners.ListenerSupplier;
+import org.sonar.sslr.channel.CodeReader;
+
+import com.github.fge.grappa.run.ParseEventListener;
+import com.github.fge.grappa.run.ParsingResult;
+import com.github.fge.grappa.run.context.MatcherContext;
+import com.github.fge.grappa.run.events.MatchFailureEvent;
+import com.github.fge.grappa.run.events.MatchSuccessEvent;
+import com.github.fge.grappa.run.events.PostParseEvent;
+import com.github.fge.grappa.run.events.PreMatchEvent;
+import com.github.fge.grappa.run.events.PreParseEvent;
+import com.sonar.sslr.api.Token;
+
+/**
+ * The only listener a {@link GrappaChannel} registers with a parse runner
+ *
+ * <p>This listener forwards events to the listeners created by {@link
+ * ListenerSupplier}s, in the order of the suppliers, then to the {@link
+ * CodeReaderListener}. Since the latter throws from {@code afterParse()} when
+ * a parse fails, all delegates are called at the end of a parse, even if one
+ * of them throws; the first exception is then rethrown, with the others
+ * suppressed.</p>
+ *
+ * <p>A parse may also abort with an exception thrown by a matcher or an
+ * action (or with a stack overflow), in which case the parse runner posts no
+ * end of parse event at all. Parses are therefore run through {@link
+ * #run(Supplier)}, which then posts a failed result to the supplied listeners
+ * (but not to the {@link CodeReaderListener}, which would only throw) before
+ * rethrowing. Supplied listeners therefore always see the end of a parse,
+ * which is precisely when the parse fails that they matter most.</p>
+ */
+@NotThreadSafe
+final class ForwardingListener
+    extends ParseEventListener<Token.Builder>
+{
+    private final List<ParseEventListener<Token.Builder>> delegates
+        = new ArrayList<>();
+
+    /*
+     * The context of the parse in progress, if any; set by beforeParse(),
+     * reset by afterParse()
+     */
+    @Nullable
+    private MatcherContext<Token.Builder> context = null;
+
+    /**
+     * Set the delegates for the next parse
+     *
+     * @param reader the code reader, or null if there is none
+     * @param lexer the lexer
+     * @param suppliers the listener suppliers
+     * @param listener the listener feeding the lexer
+     */
+    void setDelegates(final CodeReader reader, final GrappaSslrLexer lexer,
+        final Collection<ListenerSupplier> suppliers,
+        final CodeReaderListener listener)
+    {
+        delegates.clear();
+        for (final ListenerSupplier supplier: suppliers)
+            delegates.add(supplier.create(reader, lexer));
+        delegates.add(listener);
+    }
+
+    void clear()
+    {
+        delegates.clear();
+        context = null;
+    }
+
+    /**
+     * Run a parse with this listener registered
+     *
+     * <p>If the parse aborts with an exception, supplied listeners are sent a
+     * failed result before the exception is rethrown; exceptions they throw
+     * then are suppressed.</p>
+     *
+     * @param parse the parse
+     * @param <T> type of the result
+     * @return the result of the parse
+     */
+    <T> T run(final Supplier<T> parse)
+    {
+        try {
+            return parse.get();
+        } catch (RuntimeException | Error e) {
+            TokenBuilders.end();
+            abort(e);
+            throw e;
+        }
+    }
+
+    private void abort(final Throwable cause)
+    {
+        final MatcherContext<Token.Builder> aborted = context;
+
+        if (aborted == null)
+            return;
+
+        context = null;
+
+        final PostParseEvent<Token.Builder> event = new PostParseEvent<>(
+            new ParsingResult<>(false, aborted.getValueStack(),
+                aborted.getInputBuffer()));
+
+        /*
+         * The last delegate is the CodeReaderListener
+         */
+        for (int i = 0; i < delegates.size() - 1; i++)
+            try {
+                delegates.get(i).afterParse(event);
+            } catch (RuntimeException e) {
+                cause.addSuppressed(e);
+            }
+    }
+
+    @Override
+    public void beforeParse(final PreParseEvent<Token.Builder> event)
+    {
+        context = event.getContext();
+        for (final ParseEventListener<Token.Builder> delegate: delegates)
+            delegate.beforeParse(event);
+    }
+
+    @Override
+    public void beforeMatch(final PreMatchEvent<Token.Builder> event)
+    {
+        for (final ParseEventListener<Token.Builder> delegate: delegates)
+            delegate.beforeMatch(event);
+    }
+
+    @Override
+    public void matchSuccess(final MatchSuccessEvent<Token.Builder> event)
+    {
+        for (final ParseEventListener<Token.Builder> delegate: delegates)
+            delegate.matchSuccess(event);
+    }
+
+    @Override
+    public void matchFailure(final MatchFailureEvent<Token.Builder> event)
+    {
+        for (final ParseEventListener<Token.Builder> delegate: delegates)
+            delegate.matchFailure(event);
+    }
+
+    @Override
+    public void afterParse(final PostParseEvent<Token.Builder> event)
+    {
+        context = null;
+
+        RuntimeException failure = null;
+
+        for (final ParseEventListener<Token.Builder> delegate: delegates)
+            try {
+                delegate.afterParse(event);
+            } catch (RuntimeException e) {
+                if (failure == null)
+                    failure = e;
+                else
+                    failure.addSuppressed(e);
+            }
+
+        if (failure != null)
+            throw failure;
+    }
+}
@@ -22,10 +22,12 @@
  import org.sonar.sslr.channel.Channel;
  import org.sonar.sslr.channel.CodeReader;
 
+ import javax.annotation.Nullable;
  import javax.annotation.ParametersAreNonnullByDefault;
  import java.util.ArrayList;
  import java.util.Collection;
  import java.util.Objects;
+ import java.util.function.Supplier;
 
  /**
   * The one and only channel necessary for a Grappa-based {@link Lexer}
@@ -39,6 +41,15 @@
 
      private final Collection<ListenerSupplier> suppliers = new ArrayList<>();
 
+     private ChunkedLexer chunkedLexer = null;
+
+     @Nullable
+     private ThreadLocal<LexingArena> arenas = null;
+
+     private boolean persistentValueStack = false;
+
+     private boolean partialMatch = false;
+
      /**
       * Constructor
       *
@@ -47,17 +58,18 @@
      public GrappaChannel(final Rule rule)
      {
          this.rule = rule;
-         suppliers.add(CodeReaderListener::new);
      }
 
      /**
       * Add one listener to the parsing process
       *
-      * <p>By default, the only listener defined will be a {@link
-      * CodeReaderListener}, since it is necessary to add the generated tokens
-      * to the lexer.</p>
+      * <p>No listeners are supplied by default. The {@link
+      * CodeReaderListener} which adds the generated tokens to the lexer is not
+      * a supplied listener: the channel creates it for each parse, and calls
+      * it after the supplied listeners.</p>
       *
-      * <p>You can use this method to add more listeners if you wish.</p>
+      * <p>Supplied listeners are not run when lexing through an input window;
+      * and if there are any, inputs are never lexed in parallel.</p>
       *
       * @param supplier the supplier
       */
@@ -66,18 +78,127 @@
          suppliers.add(Objects.requireNonNull(supplier));
      }
 
+     /**
+      * Lex large inputs in parallel
+      *
+      * <p>Grappa actions are bound to the parser instance which created them,
+      * and therefore cannot run concurrently; this is why you need to provide
+      * a supplier of rules here, which will be called once per worker thread.
+      * </p>
+      *
+      * <p>Note that parallel lexing is only attempted if no listeners other
+      * than the default one have been added, since other listeners expect to
+      * see a single parsing run over the whole input.</p>
+      *
+      * @param strategy the split point strategy
+      * @param ruleSupplier a supplier of (grappa) parser rules, each from a
+      * different parser instance
+      *
+      * @see SplitPointStrategy
+      */
+     public void setSplitPointStrategy(final SplitPointStrategy strategy,
+         final Supplier<Rule> ruleSupplier)
+     {
+         chunkedLexer = new ChunkedLexer(Objects.requireNonNull(strategy),
+             Objects.requireNonNull(ruleSupplier));
+     }
+
+     /**
+      * Reuse per thread parsing structures from one input to the next
+      *
+      * <p>When enabled, each thread using this channel keeps its own {@link
+      * ParseRunner}, {@link CodeReaderListener} and input buffer, which are
+      * reset between inputs instead of being allocated again. Arrays grown
+      * while lexing an input are kept for the next one, unless their capacity
+      * exceeds the given limit.</p>
+      *
+      * <p>This is mostly useful when lexing a large number of small files.
+      * </p>
+      *
+      * @param maxRetained the maximum capacity of reused arrays, in elements
+      */
+     public void setLexingArena(final int maxRetained)
+     {
+         if (maxRetained <= 0)
+             throw new IllegalArgumentException("maximum retained capacity "
+                 + "must be strictly positive");
+         arenas = ThreadLocal.withInitial(
+             () -> new LexingArena(rule, maxRetained, persistentValueStack));
+     }
+
+     /**
+      * Use a value stack with constant time snapshots
+      *
+      * <p>Grappa takes a snapshot of the value stack before each sequence;
+      * with the default value stack, the cost of a snapshot grows with the
+      * number of tokens already pushed. When enabled, a {@link
+      * PersistentValueStack} is used instead, and snapshots are constant time.
+      * </p>
+      *
+      * @param persistentValueStack true to enable
+      */
+     public void setPersistentValueStack(final boolean persistentValueStack)
+     {
+         this.persistentValueStack = persistentValueStack;
+     }
+
+     /**
+      * Only match a prefix of the remaining input on each call
+      *
+      * <p>By default, this channel runs its rule once over the whole input,
+      * and fails if the rule does not match all of it. In partial match mode,
+      * the rule is run at the current position of the reader, and only the
+      * characters it matches are consumed; if it fails, or matches nothing,
+      * this channel consumes nothing, and the lexer tries its other channels.
+      * The rule should then match one construct (or a few), not the whole
+      * input.</p>
+      *
+      * <p>This is the mode used when a lexer has channels running before this
+      * one; see {@link GrappaSslrLexer.Builder#withPreChannel(Channel)}. Since
+      * the rule runs many times per input, a lexing arena is always used in
+      * this mode (with the default settings, unless one has been set); and
+      * inputs are never lexed in parallel.</p>
+      *
+      * @param partialMatch true to enable
+      */
+     public void setPartialMatch(final boolean partialMatch)
+     {
+         this.partialMatch = partialMatch;
+         if (partialMatch && arenas == null)
+             setLexingArena(LexingArena.DEFAULT_MAX_RETAINED);
+     }
+
      @Override
      public boolean consume(final CodeReader code, final GrappaSslrLexer output)
      {
-         final InputBuffer buffer = new CodeReaderInputBuffer(code);
+         if (partialMatch)
+             return arenas.get().runPartial(code, output, suppliers) > 0;
 
-         final ParseRunner<Token.Builder> runner
-             = new ParseRunner<>(rule);
+         if (chunkedLexer != null && suppliers.isEmpty()
+             && chunkedLexer.consume(code, output))
+             return true;
 
-         suppliers.stream().map(supplier -> supplier.create(code, output))
-             .forEach(runner::registerListener);
+         if (arenas != null) {
+             arenas.get().run(code, output, suppliers);
+         } else if (persistentValueStack) {
+             final PersistentStackParseRunner runner
+                 = new PersistentStackParseRunner(rule);
+             final ForwardingListener forwarder = forwarder(code, output);
 
-         runner.run(buffer);
+             runner.registerListener(forwarder);
+
+             forwarder.run(() -> runner.run(new CodeReaderInputBuffer(code)));
+         } else {
+             final InputBuffer buffer = new CodeReaderInputBuffer(code);
+
+             final ParseRunner<Token.Builder> runner
+                 = new ParseRunner<>(rule);
+             final ForwardingListener forwarder = forwarder(code, output);
+
+             runner.registerListener(forwarder);
+
+             forwarder.run(() -> runner.run(buffer));
+         }
 
          /*
           * Because of the CodeReaderListener here, we know that we have consumed
@@ -95,4 +216,44 @@
 
          return true;
      }
+
+     /*
+      * Supplied listeners are registered through a single forwarding
+      * listener, which calls them before the CodeReaderListener; see
+      * ForwardingListener
+      */
+     private ForwardingListener forwarder(final CodeReader code,
+         final GrappaSslrLexer output)
+     {
+         final ForwardingListener forwarder = new ForwardingListener();
+         forwarder.setDelegates(code, output, suppliers,
+             new CodeReaderListener(code, output));
+         return forwarder;
+     }
+
+     /**
+      * Consume the contents of a {@link WindowedInputBuffer}
+      *
+      * <p>This is used by {@link GrappaSslrLexer} when it is configured with
+      * an input window. Since there is no {@link CodeReader} in this case,
+      * only the listener feeding the lexer is registered; listeners added
+      * with {@link #addListenerSupplier(ListenerSupplier)} are not run.</p>
+      *
+      * @param buffer the buffer
+      * @param output the lexer
+      * @return always true
+      */
+     public boolean consume(final WindowedInputBuffer buffer,
+         final GrappaSslrLexer output)
+     {
+         final ParseRunner<Token.Builder> runner
+             = new ParseRunner<>(rule);
+
+         runner.registerListener(new CodeReaderListener(buffer.length(),
+             output));
+
+         runner.run(buffer);
+
+         return true;
+     }
  }
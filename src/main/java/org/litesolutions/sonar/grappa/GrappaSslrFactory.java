@@ -15,18 +15,29 @@
 
  import java.nio.charset.Charset;
  import java.nio.charset.UnsupportedCharsetException;
+ import java.util.ArrayList;
  import java.util.Collection;
  import java.util.Collections;
  import java.util.HashSet;
+ import java.util.List;
  import java.util.Objects;
+ import java.util.function.Consumer;
  import java.util.function.Function;
+ import java.util.function.Predicate;
+ import java.util.function.Supplier;
 
  import javax.annotation.Nullable;
  import javax.annotation.ParametersAreNonnullByDefault;
 
+ import org.litesolutions.sonar.grappa.analysis.GrammarHazard;
+ import org.litesolutions.sonar.grappa.analysis.GrammarHazardAnalyzer;
  import org.litesolutions.sonar.grappa.injector.GrammarInjector;
  import org.litesolutions.sonar.grappa.injector.LegacyGrammarInjector;
  import org.litesolutions.sonar.grappa.listeners.ListenerSupplier;
+ import org.litesolutions.sonar.grappa.matchers.DispatchReport;
+ import org.litesolutions.sonar.grappa.matchers.FirstCharDispatch;
+ import org.litesolutions.sonar.grappa.triage.FileTriage;
+ import org.sonar.sslr.channel.Channel;
  import org.sonar.sslr.grammar.GrammarRuleKey;
  import org.sonar.sslr.grammar.LexerfulGrammarBuilder;
 
@@ -35,6 +46,7 @@
  import com.github.fge.grappa.run.ParseRunner;
  import com.github.fge.grappa.run.trace.TracingListener;
  import com.sonar.sslr.api.Grammar;
+ import com.sonar.sslr.api.Token;
  import com.sonar.sslr.impl.Parser;
 
  /**
@@ -66,6 +78,22 @@
      private final GrammarRuleKey entryPoint;
 
      private final Collection<ListenerSupplier> suppliers;
+     private final List<Channel<GrappaSslrLexer>> preChannels;
+     private final int inputWindow;
+     private final int arenaMaxRetained;
+     private final boolean persistentValueStack;
+     private final boolean singlePass;
+     private final boolean dropComments;
+     private final boolean indexTokens;
+     @Nullable
+     private final FileTriage triage;
+     @Nullable
+     private final SplitPointStrategy splitPointStrategy;
+     private final Supplier<Rule> ruleSupplier;
+     @Nullable
+     private final GrammarRuleKey segmentRule;
+     @Nullable
+     private final Predicate<Token> segmentBoundary;
 
      /**
       * Initialize a builder for a new factory
@@ -85,9 +113,35 @@
      {
          final P parser = Grappa.createParser(builder.parserClass);
          rule = builder.ruleFunction.apply(parser);
+         FirstCharDispatch.optimize(rule).forEach(builder.dispatchReport);
          injector = builder.injector;
          entryPoint = builder.entryPoint;
+         if (builder.hazardListener != null) {
+             GrammarHazardAnalyzer.analyze(rule)
+                 .forEach(builder.hazardListener);
+             GrammarHazardAnalyzer.analyze(injector, entryPoint)
+                 .forEach(builder.hazardListener);
+         }
          suppliers = Collections.unmodifiableCollection(builder.suppliers);
+         preChannels = List.copyOf(builder.preChannels);
+         inputWindow = builder.inputWindow;
+         arenaMaxRetained = builder.arenaMaxRetained;
+         persistentValueStack = builder.persistentValueStack;
+         singlePass = builder.singlePass;
+         dropComments = builder.dropComments;
+         indexTokens = builder.indexTokens;
+         triage = builder.triage;
+         splitPointStrategy = builder.splitPointStrategy;
+         final Class<P> parserClass = builder.parserClass;
+         final Function<P, Rule> ruleFunction = builder.ruleFunction;
+         ruleSupplier = () -> {
+             final Rule workerRule
+                 = ruleFunction.apply(Grappa.createParser(parserClass));
+             FirstCharDispatch.optimize(workerRule);
+             return workerRule;
+         };
+         segmentRule = builder.segmentRule;
+         segmentBoundary = builder.segmentBoundary;
      }
 
      /**
@@ -107,31 +161,103 @@
       */
      public GrappaSslrParser<Grammar> getParserWithCharset(@Nullable String charsetName)
      {
-         final GrappaChannel channel = new GrappaChannel(rule);
+         return newParser(rule, charsetName);
+     }
 
-         suppliers.forEach(channel::addListenerSupplier);
+     /**
+      * Get a Sonar {@link Parser} for use by another thread
+      *
+      * <p>The parsers returned by {@link #getParser()} all lex with the rule
+      * built by this factory, and grappa actions are bound to the parser
+      * instance which created them; these parsers can therefore not be used
+      * concurrently. Each parser returned by this method lexes with a rule
+      * built from its own instance of the parser class instead.</p>
+      *
+      * @return a new parser instance
+      */
+     public GrappaSslrParser<Grammar> getWorkerParser()
+     {
+         return newParser(ruleSupplier.get(), null);
+     }
+
+     private GrappaSslrParser<Grammar> newParser(final Rule channelRule,
+         @Nullable final String charsetName)
+     {
+         final GrappaChannel channel = newChannel(channelRule, arenaMaxRetained);
 
          final LexerfulGrammarBuilder builder = getGrammarBuilder();
          builder.setRootRule(entryPoint);
 
          GrappaSslrLexer lexer = getLexer(channel, charsetName);
 
-         return GrappaSslrParser.grappaBuilder(builder.build())
-             .withLexer(lexer)
-             .build();
+         final GrappaSslrParser.Builder<Grammar> parserBuilder
+             = GrappaSslrParser.grappaBuilder(builder.build())
+             .withLexer(lexer);
+
+         if (segmentRule != null)
+             parserBuilder.withParallelSegments(segmentRule, segmentBoundary);
+
+         return parserBuilder.build();
+     }
+
+     /**
+      * Get a {@link SnippetParser} from this factory
+      *
+      * <p>The grammar is built once, and compiled once per entry point; each
+      * thread using the returned parser lexes with its own channel, which
+      * uses a lexing arena (of the default size if none was configured).
+      * Since grappa actions are bound to the parser instance which created
+      * them, each of these channels also uses its own instance of the parser
+      * class.</p>
+      *
+      * <p>The entry point of this factory is not used; the entry point is
+      * given with each snippet instead.</p>
+      *
+      * @return a new snippet parser
+      */
+     public SnippetParser getSnippetParser()
+     {
+         final int maxRetained = arenaMaxRetained > 0 ? arenaMaxRetained
+             : LexingArena.DEFAULT_MAX_RETAINED;
+
+         final LexerfulGrammarBuilder builder = getGrammarBuilder();
+         builder.setRootRule(entryPoint);
+
+         return new SnippetParser(builder.build(),
+             () -> getLexer(newChannel(ruleSupplier.get(), maxRetained), null));
+     }
+
+     private GrappaChannel newChannel(final Rule channelRule,
+         final int maxRetained)
+     {
+         final GrappaChannel channel = new GrappaChannel(channelRule);
+
+         suppliers.forEach(channel::addListenerSupplier);
+
+         if (splitPointStrategy != null)
+             channel.setSplitPointStrategy(splitPointStrategy, ruleSupplier);
+
+         channel.setPersistentValueStack(persistentValueStack);
+
+         if (maxRetained > 0)
+             channel.setLexingArena(maxRetained);
+
+         return channel;
      }
 
      private GrappaSslrLexer getLexer(GrappaChannel channel,@Nullable String charsetName) {
-         if(charsetName!=null) {
-             Charset charset = getCharset(charsetName);
-             return GrappaSslrLexer.builder().withCharset(charset)
-                     .withFailIfNoChannelToConsumeOneCharacter(true)
-                     .withChannel(channel)
-                     .build();
-         }else return GrappaSslrLexer.builder()
+         final GrappaSslrLexer.Builder builder = GrappaSslrLexer.builder()
                  .withFailIfNoChannelToConsumeOneCharacter(true)
                  .withChannel(channel)
-                 .build();
+                 .withInputWindow(inputWindow)
+                 .withSinglePass(singlePass)
+                 .withDropComments(dropComments)
+                 .withTokenIndex(indexTokens)
+                 .withTriage(triage);
+         preChannels.forEach(builder::withPreChannel);
+         if (charsetName != null)
+             builder.withCharset(getCharset(charsetName));
+         return builder.build();
      }
 
      private Charset getCharset(String charset) {
@@ -174,6 +300,37 @@
 
          private final Collection<ListenerSupplier> suppliers = new HashSet<>();
 
+         private final List<Channel<GrappaSslrLexer>> preChannels
+             = new ArrayList<>();
+
+         private int inputWindow = 0;
+
+         private int arenaMaxRetained = 0;
+
+         private boolean persistentValueStack = false;
+
+         private boolean singlePass = false;
+
+         private boolean dropComments = false;
+
+         private boolean indexTokens = false;
+
+         @Nullable
+         private FileTriage triage = null;
+
+         private Consumer<DispatchReport> dispatchReport = report -> {};
+
+         @Nullable
+         private Consumer<GrammarHazard> hazardListener = null;
+
+         @Nullable
+         private SplitPointStrategy splitPointStrategy = null;
+
+         @Nullable
+         private GrammarRuleKey segmentRule = null;
+         @Nullable
+         private Predicate<Token> segmentBoundary = null;
+
          private Builder(final Class<P> parserClass)
          {
              this.parserClass = Objects.requireNonNull(parserClass);
@@ -253,6 +410,9 @@
           * may want to add a {@link TracingListener} to debug the parsing
           * process.</p>
           *
+          * <p>Listener suppliers cannot be combined with an {@link
+          * #withInputWindow(int) input window}.</p>
+          *
           * @param supplier the supplier
           * @return this
           */
@@ -262,6 +422,258 @@
              return this;
          }
 
+         /**
+          * Add a channel running before the grappa channel of each lexer
+          *
+          * <p>The main rule must then match one construct at a time, rather
+          * than the whole input. Channels are shared by all lexers created by
+          * the factory, and must therefore be thread safe, as those of the
+          * {@code channels} package are.</p>
+          *
+          * @param channel the channel
+          * @return this
+          *
+          * @see GrappaSslrLexer.Builder#withPreChannel(Channel)
+          */
+         public Builder<P> withPreChannel(final Channel<GrappaSslrLexer> channel)
+         {
+             preChannels.add(Objects.requireNonNull(channel));
+             return this;
+         }
+
+         /**
+          * Lex files through a sliding window of the given size
+          *
+          * <p>This is meant for very large generated files; see {@link
+          * WindowedInputBuffer} for the details, and {@link
+          * SonarParserBase#commit()} for how your grammar can let the window
+          * slide.</p>
+          *
+          * <p>Listeners cannot be run on a windowed input; this option cannot
+          * therefore be combined with {@link
+          * #addListenerSupplier(ListenerSupplier)}.</p>
+          *
+          * @param inputWindow the window size, in characters
+          * @return this
+          *
+          * @see GrappaSslrLexer.Builder#withInputWindow(int)
+          */
+         public Builder<P> withInputWindow(final int inputWindow)
+         {
+             if (inputWindow <= 0)
+                 throw new IllegalArgumentException("input window must be "
+                     + "strictly positive");
+             this.inputWindow = inputWindow;
+             return this;
+         }
+
+         /**
+          * Reuse per thread lexing structures from one file to the next
+          *
+          * <p>This uses a default limit on the capacity of reused arrays; see
+          * {@link #withLexingArena(int)}.</p>
+          *
+          * @return this
+          */
+         public Builder<P> withLexingArena()
+         {
+             return withLexingArena(LexingArena.DEFAULT_MAX_RETAINED);
+         }
+
+         /**
+          * Reuse per thread lexing structures from one file to the next
+          *
+          * <p>This is mostly useful when analyzing a large number of small
+          * files.</p>
+          *
+          * @param maxRetained the maximum capacity of reused arrays, in
+          * elements
+          * @return this
+          *
+          * @see GrappaChannel#setLexingArena(int)
+          */
+         public Builder<P> withLexingArena(final int maxRetained)
+         {
+             if (maxRetained <= 0)
+                 throw new IllegalArgumentException("maximum retained capacity "
+                     + "must be strictly positive");
+             arenaMaxRetained = maxRetained;
+             return this;
+         }
+
+         /**
+          * Use a value stack with constant time snapshots
+          *
+          * <p>This is recommended for large files, where the cost of value
+          * stack snapshots taken by grappa grows with the number of tokens
+          * already produced.</p>
+          *
+          * @return this
+          *
+          * @see GrappaChannel#setPersistentValueStack(boolean)
+          */
+         public Builder<P> withPersistentValueStack()
+         {
+             persistentValueStack = true;
+             return this;
+         }
+
+         /**
+          * Build the AST in a single pass, from the grappa grammar
+          *
+          * <p>The grappa grammar must mark AST nodes using {@link
+          * SonarParserBase#node(GrammarRuleKey, Object)}; parsers from this
+          * factory then build the AST directly from these marks, and the SSLR
+          * grammar is neither compiled nor run by {@link
+          * GrappaSslrParser#parse(java.io.File)}. A grammar injector is still
+          * required, since a Sonar parser needs a grammar.</p>
+          *
+          * <p>This mode cannot be combined with {@link
+          * #withSplitPointStrategy(SplitPointStrategy)} or {@link
+          * #withParallelSegments(GrammarRuleKey, Predicate)}.</p>
+          *
+          * @return this
+          *
+          * @see GrappaSslrLexer.Builder#withSinglePass(boolean)
+          */
+         public Builder<P> withSinglePass()
+         {
+             singlePass = true;
+             return this;
+         }
+
+         /**
+          * Drop comments instead of attaching them to tokens as trivia
+          *
+          * <p>This is meant for consumers which never look at comments, such
+          * as complexity or structure checks.</p>
+          *
+          * @return this
+          *
+          * @see GrappaSslrLexer.Builder#withDropComments(boolean)
+          */
+         public Builder<P> withoutComments()
+         {
+             dropComments = true;
+             return this;
+         }
+
+         /**
+          * Build an index of tokens by type and line for each parsed input
+          *
+          * <p>The index of the last input is available from the lexer of the
+          * parser, see {@link GrappaSslrParser#getLexer()}.</p>
+          *
+          * @return this
+          *
+          * @see GrappaSslrLexer.Builder#withTokenIndex(boolean)
+          */
+         public Builder<P> withTokenIndex()
+         {
+             indexTokens = true;
+             return this;
+         }
+
+         /**
+          * Triage files before lexing them
+          *
+          * <p>Files skipped by the triage make parsers throw a {@link
+          * org.litesolutions.sonar.grappa.triage.SkippedFileException}, which
+          * gives the reason why they were skipped.</p>
+          *
+          * @param triage the triage
+          * @return this
+          *
+          * @see GrappaSslrLexer.Builder#withTriage(FileTriage)
+          * @see FileTriage#defaults()
+          */
+         public Builder<P> withTriage(final FileTriage triage)
+         {
+             this.triage = Objects.requireNonNull(triage);
+             return this;
+         }
+
+         /**
+          * Receive a report for each choice optimized for first character
+          * dispatch
+          *
+          * <p>The dispatch tables of all choices built with {@link
+          * SonarParserBase#dispatchFirstOf(Object, Object, Object...)} are
+          * computed when the factory is built; this lets you see, for each of
+          * them, how many alternatives are actually tried.</p>
+          *
+          * @param consumer the report consumer
+          * @return this
+          *
+          * @see FirstCharDispatch
+          */
+         public Builder<P> withDispatchReport(
+             final Consumer<DispatchReport> consumer)
+         {
+             dispatchReport = Objects.requireNonNull(consumer);
+             return this;
+         }
+
+         /**
+          * Analyze both grammars for hazards when the factory is built
+          *
+          * <p>The grappa rule and the SSLR grammar are analyzed by {@link
+          * GrammarHazardAnalyzer}, and each hazard found is passed to the
+          * listener; a listener may throw an exception to fail the build on
+          * hazards of a given severity.</p>
+          *
+          * @param listener the hazard listener
+          * @return this
+          */
+         public Builder<P> withHazardListener(
+             final Consumer<GrammarHazard> listener)
+         {
+             hazardListener = Objects.requireNonNull(listener);
+             return this;
+         }
+
+         /**
+          * Lex large files in parallel, splitting them at safe points
+          *
+          * <p>Each worker thread uses its own instance of the parser class;
+          * if any chunk fails to lex, the file is lexed sequentially.</p>
+          *
+          * @param strategy the split point strategy
+          * @return this
+          *
+          * @see SplitPointStrategy
+          * @see GrappaChannel#setSplitPointStrategy(SplitPointStrategy,
+          * Supplier)
+          */
+         public Builder<P> withSplitPointStrategy(
+             final SplitPointStrategy strategy)
+         {
+             splitPointStrategy = Objects.requireNonNull(strategy);
+             return this;
+         }
+
+         /**
+          * Parse independent top level segments in parallel
+          *
+          * <p>This requires that the grammar entry point be of the form
+          * {@code zeroOrMore(memberRule), EOF}; note that it is only used
+          * when the parser's root rule is still the entry point.</p>
+          *
+          * @param memberRule the key of the repeated top level rule
+          * @param boundary a predicate matching the first token of a member
+          * @return this
+          *
+          * @see GrappaSslrParser.Builder#withParallelSegments(GrammarRuleKey,
+          * Predicate)
+          */
+         public Builder<P> withParallelSegments(final GrammarRuleKey memberRule,
+             final Predicate<Token> boundary)
+         {
+             segmentRule = Objects.requireNonNull(memberRule);
+             segmentBoundary = Objects.requireNonNull(boundary);
+             return this;
+         }
+
          /**
           * Build the factory
           *
@@ -274,6 +686,16 @@
                  + "been defined");
              Objects.requireNonNull(entryPoint, "no grammar entry point has been"
                  + " defined");
+             if (singlePass && (splitPointStrategy != null
+                 || segmentRule != null))
+                 throw new IllegalStateException("single pass mode cannot be"
+                     + " combined with split points or parallel segments");
+             if (!preChannels.isEmpty() && (singlePass || inputWindow > 0))
+                 throw new IllegalStateException("pre-channels cannot be"
+                     + " combined with single pass mode or an input window");
+             if (!suppliers.isEmpty() && inputWindow > 0)
+                 throw new IllegalStateException("listener suppliers cannot be"
+                     + " combined with an input window");
              return new GrappaSslrFactory(this);
          }
      }
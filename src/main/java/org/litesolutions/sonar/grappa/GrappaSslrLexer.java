@@ -1,17 +1,28 @@
 package org.litesolutions.sonar.grappa;
 
+import com.github.fge.grappa.stack.ValueStack;
+import com.github.fge.grappa.support.Position;
 import com.google.common.annotations.VisibleForTesting;
-import com.google.common.collect.Lists;
+import com.sonar.sslr.api.AstNode;
+import com.sonar.sslr.api.GenericTokenType;
 import com.sonar.sslr.api.RecognitionException;
 import com.sonar.sslr.api.Token;
+import com.sonar.sslr.api.TokenType;
 import com.sonar.sslr.api.Trivia;
 import com.sonar.sslr.impl.LexerException;
 import org.sonar.sslr.channel.Channel;
 import org.sonar.sslr.channel.ChannelDispatcher;
 import org.sonar.sslr.channel.CodeReader;
 import org.sonar.sslr.channel.CodeReaderConfiguration;
+import org.litesolutions.sonar.grappa.tokens.TokenIndex;
+import org.litesolutions.sonar.grappa.triage.FileTriage;
+import org.litesolutions.sonar.grappa.triage.SkippedFileException;
+import org.litesolutions.sonar.grappa.triage.TriageVerdict;
+import org.sonar.sslr.grammar.GrammarRuleKey;
 
+import javax.annotation.Nullable;
 import java.io.File;
+import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.io.StringReader;
@@ -24,22 +35,52 @@ import java.util.*;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
 import static com.sonar.sslr.api.GenericTokenType.EOF;
 
 public class GrappaSslrLexer {
 
+    /**
+     * Maximum initial capacity of a token list, see {@link #newTokenList()}
+     */
+    private static final int MAX_PRESIZE = 1 << 16;
+
     private final Charset charset;
     private final CodeReaderConfiguration configuration;
     private final ChannelDispatcher<GrappaSslrLexer> channelDispatcher;
+    private final List<GrappaChannel> channels;
+    private final int inputWindow;
+    private final boolean singlePass;
+    private final boolean dropComments;
+    private final FileTriage triage;
+    private final boolean indexTokens;
+    private final boolean preChannels;
 
     private URI uri;
-    private final List<Trivia> trivia = new LinkedList<>();
+    private TriageVerdict triageVerdict = null;
+    private final List<Trivia> trivia = new ArrayList<>();
     private List<Token> tokens = new ArrayList<>();
+    private TokenIndex.Builder indexBuilder = null;
+    private TokenIndex tokenIndex = null;
+
+    /*
+     * Single pass mode: node markers, and the index in the token list of the
+     * first token following each of them
+     */
+    private final List<NodeMarker> markers = new ArrayList<>();
+    private int[] markerIndices = new int[16];
 
     public GrappaSslrLexer(GrappaSslrLexer.Builder builder) {
         this.charset = builder.charset;
         this.configuration = builder.configuration;
         this.channelDispatcher = builder.getChannelDispatcher();
+        this.channels = new ArrayList<>(builder.channels);
+        this.inputWindow = builder.inputWindow;
+        this.singlePass = builder.singlePass;
+        this.dropComments = builder.dropComments;
+        this.triage = builder.triage;
+        this.indexTokens = builder.indexTokens;
+        this.preChannels = !builder.preChannels.isEmpty();
 
         try {
             this.uri = new URI("tests://unittest");
@@ -54,16 +95,45 @@ public class GrappaSslrLexer {
         checkNotNull(file, "file cannot be null");
         checkArgument(file.isFile(), "file \"%s\" must be a file", file.getAbsolutePath());
 
+        if (triage != null) {
+            triage(file);
+        }
+
+        if (inputWindow > 0) {
+            return lexWindowed(file);
+        }
+
         try {
-            return lex(file.toURI().toURL());
+            return lexUrl(file.toURI().toURL());
         } catch (MalformedURLException e) {
             throw new LexerException("Unable to lex file: " + file.getAbsolutePath(), e);
         }
     }
 
+    private void triage(File file) {
+        try {
+            triageVerdict = triage.triage(file, charset);
+        } catch (IOException e) {
+            throw new LexerException("Unable to read file: " + file.getAbsolutePath(), e);
+        }
+
+        if (triageVerdict != null && triageVerdict.isSkip()) {
+            throw new SkippedFileException(file, triageVerdict);
+        }
+    }
+
     public List<Token> lex(URL url) {
         checkNotNull(url, "url cannot be null");
 
+        triageVerdict = null;
+
+        return lexUrl(url);
+    }
+
+    /*
+     * Also used by lex(File), which must keep the verdict of its triage
+     */
+    private List<Token> lexUrl(URL url) {
         try {
             this.uri = url.toURI();
             try (InputStreamReader reader = new InputStreamReader(url.openStream(), charset)) {
@@ -86,11 +156,15 @@ public class GrappaSslrLexer {
     public List<Token> lex(String sourceCode) {
         checkNotNull(sourceCode, "sourceCode cannot be null");
 
+        triageVerdict = null;
+
         return lex(new StringReader(sourceCode));
     }
 
     private List<Token> lex(Reader reader) {
-        tokens = Lists.newArrayList();
+        tokens = newTokenList();
+        markers.clear();
+        startIndex();
 
         CodeReader code = new CodeReader(reader, configuration);
         try {
@@ -104,13 +178,78 @@ public class GrappaSslrLexer {
                     .setColumn(code.getColumnPosition())
                     .build());
 
+            finishIndex();
             return getTokens();
+        } catch (RecognitionException e) {
+            throw e;
         } catch (Exception e) {
             throw new RecognitionException(code.getLinePosition(), "Unable to lex source code at line : " + code.getLinePosition() + " and column : "
-                    + code.getColumnPosition() + " in file : " + uri);
+                    + code.getColumnPosition() + " in file : " + uri, e);
         }
     }
 
+    private List<Token> lexWindowed(File file) {
+        tokens = newTokenList();
+        markers.clear();
+        startIndex();
+        uri = file.toURI();
+
+        try (WindowedInputBuffer buffer = new WindowedInputBuffer(file.toPath(), charset, inputWindow)) {
+            for (GrappaChannel channel : channels) {
+                if (channel.consume(buffer, this)) {
+                    break;
+                }
+            }
+
+            Position end = buffer.getPosition(buffer.length());
+            addToken(Token.builder()
+                    .setType(EOF)
+                    .setValueAndOriginalValue("EOF")
+                    .setURI(uri)
+                    .setLine(end.getLine())
+                    .setColumn(end.getColumn())
+                    .build());
+
+            finishIndex();
+            return getTokens();
+        } catch (RecognitionException e) {
+            throw e;
+        } catch (IOException | RuntimeException e) {
+            throw new LexerException("Unable to lex file: " + file.getAbsolutePath(), e);
+        }
+    }
+
+    private void startIndex() {
+        tokenIndex = null;
+        indexBuilder = indexTokens ? TokenIndex.builder() : null;
+    }
+
+    private void finishIndex() {
+        if (indexBuilder != null) {
+            tokenIndex = indexBuilder.build();
+            indexBuilder = null;
+        }
+    }
+
+    /*
+     * All tokens go through here, so that the index, if any, is built along
+     * with the list
+     */
+    private void appendToken(Token token) {
+        tokens.add(token);
+        if (indexBuilder != null) {
+            indexBuilder.add(token);
+        }
+    }
+
+    /*
+     * Size the new token list after the previous one, since files lexed by
+     * the same lexer tend to be alike; this avoids most regrowths.
+     */
+    private List<Token> newTokenList() {
+        return new ArrayList<>(Math.min(Math.max(tokens.size(), 10), MAX_PRESIZE));
+    }
+
     public void addTrivia(Trivia... trivia) {
         addTrivia(Arrays.asList(trivia));
     }
@@ -121,6 +260,19 @@ public class GrappaSslrLexer {
         this.trivia.addAll(trivia);
     }
 
+    /**
+     * Add a comment as trivia, unless the lexer is configured to drop comments
+     *
+     * @param comment the comment token
+     */
+    public void addComment(Token comment) {
+        checkNotNull(comment, "comment cannot be null");
+
+        if (!dropComments) {
+            trivia.add(Trivia.createComment(comment));
+        }
+    }
+
     public void addToken(Token... tokens) {
         checkArgument(tokens.length > 0, "at least one token must be given");
 
@@ -135,10 +287,184 @@ public class GrappaSslrLexer {
             trivia.clear();
         }
 
-        this.tokens.add(firstTokenWithTrivia);
-        if (tokens.length > 1) {
-            this.tokens.addAll(Arrays.asList(tokens).subList(1, tokens.length));
+        appendToken(firstTokenWithTrivia);
+        for (int i = 1; i < tokens.length; i++) {
+            appendToken(tokens[i]);
+        }
+    }
+
+    /**
+     * Add the tokens accumulated on a grappa value stack
+     *
+     * <p>This must be called on the thread which ran the parse; see {@link
+     * TokenBuilders}.</p>
+     *
+     * @param stack the value stack
+     */
+    void addTokens(ValueStack<Token.Builder> stack) {
+        addTokens(TokenBuilders.collect(stack));
+    }
+
+    /**
+     * Add collected token builders
+     *
+     * <p>Comments are added as trivia, or dropped if the lexer is configured
+     * to do so. Trivia is attached to a builder of known type before building
+     * it, so that each token is built only once; node markers and dropped
+     * comments are not built at all.</p>
+     *
+     * @param collected the builders, and their types
+     */
+    void addTokens(TokenBuilders.Collected collected) {
+        Token.Builder[] builders = collected.builders;
+        TokenType[] types = collected.types;
+        Token.Builder builder;
+        TokenType type;
+
+        for (int i = 0; i < builders.length; i++) {
+            builder = builders[i];
+            type = types[i];
+            if (type == null) {
+                addBuiltToken(builder.setURI(uri).build());
+            } else if (type instanceof NodeMarker) {
+                if (singlePass) {
+                    addMarker((NodeMarker) type);
+                }
+            } else if (type == GenericTokenType.COMMENT) {
+                if (!dropComments) {
+                    trivia.add(Trivia.createComment(builder.setURI(uri).build()));
+                }
+            } else {
+                if (!trivia.isEmpty()) {
+                    builder.setTrivia(new ArrayList<>(trivia));
+                    trivia.clear();
+                }
+                appendToken(builder.setURI(uri).build());
+            }
+        }
+    }
+
+    /*
+     * For builders not created by TokenBuilders: the token is built first,
+     * and rebuilt by addToken() if it needs trivia
+     */
+    private void addBuiltToken(Token token) {
+        if (token.getType() instanceof NodeMarker) {
+            if (singlePass) {
+                addMarker((NodeMarker) token.getType());
+            }
+        } else if (token.getType() == GenericTokenType.COMMENT) {
+            addComment(token);
+        } else {
+            addToken(token);
+        }
+    }
+
+    private void addMarker(NodeMarker marker) {
+        int size = markers.size();
+        if (size == markerIndices.length) {
+            markerIndices = Arrays.copyOf(markerIndices, size * 2);
         }
+        markerIndices[size] = tokens.size();
+        markers.add(marker);
+    }
+
+    /**
+     * Tell whether this lexer has channels running before its grappa
+     * channels
+     *
+     * <p>If so, the grappa channels run in partial match mode, once per
+     * construct: a parse which does not match the whole input, or which
+     * fails, is not an error.</p>
+     *
+     * @return true if this is the case
+     * @see Builder#withPreChannel(Channel)
+     */
+    public boolean hasPreChannels() {
+        return preChannels;
+    }
+
+    boolean isSinglePass() {
+        return singlePass;
+    }
+
+    /**
+     * Build the AST of the last lexed input from its node markers
+     *
+     * <p>Each node spans the tokens between its start and end markers; its
+     * token is the first token it spans (or, if it is empty, the token
+     * following it), as {@link org.sonar.sslr.internal.matchers.LexerfulAstCreator}
+     * does. The outermost node is the root; the EOF token is added as its
+     * last child.</p>
+     *
+     * @return the root node
+     * @throws IllegalStateException tokens other than EOF are not within a
+     * node
+     */
+    AstNode buildAst() {
+        Deque<AstNode> open = new ArrayDeque<>();
+        AstNode root = null;
+        int next = 0;
+        int index;
+        NodeMarker marker;
+        AstNode node;
+
+        for (int i = 0; i < markers.size(); i++) {
+            index = markerIndices[i];
+            marker = markers.get(i);
+            next = attachTokens(open.peek(), next, index);
+
+            if (marker.isOpen()) {
+                if (open.isEmpty() && root != null) {
+                    throw new IllegalStateException("more than one root node (" + root.getName()
+                            + ", " + marker.getName() + ')');
+                }
+                node = new AstNode(marker.getKey(), marker.getName(), index < tokens.size() ? tokens.get(index) : null);
+                node.setFromIndex(index);
+                if (open.isEmpty()) {
+                    root = node;
+                } else {
+                    open.peek().addChild(node);
+                }
+                open.push(node);
+            } else {
+                open.pop().setToIndex(index);
+            }
+        }
+
+        int last = tokens.size() - 1;
+        if (root == null || next != last) {
+            throw new IllegalStateException("in single pass mode, the main rule must be wrapped in a node()");
+        }
+
+        attachTokens(root, last, last + 1);
+        root.setToIndex(last + 1);
+        return root;
+    }
+
+    private int attachTokens(AstNode parent, int from, int to) {
+        if (from == to) {
+            return to;
+        }
+        if (parent == null) {
+            throw new IllegalStateException("in single pass mode, the main rule must be wrapped in a node()");
+        }
+
+        Token token;
+        AstNode node;
+
+        for (int i = from; i < to; i++) {
+            token = tokens.get(i);
+            if (token.getType().hasToBeSkippedFromAst(null)) {
+                continue;
+            }
+            node = new AstNode(token);
+            node.setFromIndex(i);
+            node.setToIndex(i + 1);
+            parent.addChild(node);
+        }
+
+        return to;
     }
 
     public List<Token> getTokens() {
@@ -149,6 +475,32 @@ public class GrappaSslrLexer {
         return uri;
     }
 
+    /**
+     * Get the token index of the last lexed input
+     *
+     * @return the index, or null if token indexing is not enabled, or if the
+     * last input could not be lexed
+     * @see Builder#withTokenIndex(boolean)
+     */
+    @Nullable
+    public TokenIndex getTokenIndex() {
+        return tokenIndex;
+    }
+
+    /**
+     * Get the verdict of the triage of the last file lexed
+     *
+     * <p>This is null if no triage is configured, if the file was neither
+     * skipped nor downgraded, or if the last source lexed was a string.</p>
+     *
+     * @return the verdict
+     * @see Builder#withTriage(FileTriage)
+     */
+    @Nullable
+    public TriageVerdict getTriageVerdict() {
+        return triageVerdict;
+    }
+
     public static GrappaSslrLexer.Builder builder() {
         return new GrappaSslrLexer.Builder();
     }
@@ -158,13 +510,24 @@ public class GrappaSslrLexer {
         private Charset charset = Charset.defaultCharset();
         private final CodeReaderConfiguration configuration = new CodeReaderConfiguration();
         private final List<GrappaChannel> channels = new ArrayList<>();
+        private final List<Channel<GrappaSslrLexer>> preChannels = new ArrayList<>();
         private boolean failIfNoChannelToConsumeOneCharacter = false;
+        private int inputWindow = 0;
+        private boolean singlePass = false;
+        private boolean dropComments = false;
+        private FileTriage triage = null;
+        private boolean indexTokens = false;
 
         private Builder() {
             super();
         }
 
         public GrappaSslrLexer build() {
+            if (!preChannels.isEmpty()) {
+                checkState(inputWindow == 0, "pre-channels cannot be used with an input window");
+                checkState(!singlePass, "pre-channels cannot be used in single pass mode");
+                channels.forEach(channel -> channel.setPartialMatch(true));
+            }
             return new GrappaSslrLexer(this);
         }
 
@@ -178,14 +541,123 @@ public class GrappaSslrLexer {
             return this;
         }
 
+        /**
+         * Add a channel running before the grappa channels
+         *
+         * <p>At each position of the input, pre-channels are tried in the
+         * order they were added, and the grappa channels are only run if none
+         * of them consumed anything; this lets cheap channels, such as those
+         * of the {@code channels} package, handle trivial tokens (whitespace,
+         * punctuators, line comments) while the grappa rule handles the
+         * constructs which need it.</p>
+         *
+         * <p>The grappa channels of a lexer with pre-channels are switched to
+         * partial match mode (see {@link GrappaChannel#setPartialMatch(boolean)}):
+         * their rule must then match one construct at a time, not the whole
+         * input. Pre-channels cannot be combined with an input window, or with
+         * single pass mode.</p>
+         *
+         * @param channel the channel
+         * @return this
+         * @see org.litesolutions.sonar.grappa.channels.RegexpChannel
+         * @see org.litesolutions.sonar.grappa.channels.PunctuatorChannel
+         * @see org.litesolutions.sonar.grappa.channels.CharRunChannel
+         */
+        public GrappaSslrLexer.Builder withPreChannel(Channel<GrappaSslrLexer> channel) {
+            preChannels.add(checkNotNull(channel, "channel cannot be null"));
+            return this;
+        }
+
         public GrappaSslrLexer.Builder withFailIfNoChannelToConsumeOneCharacter(boolean failIfNoChannelToConsumeOneCharacter) {
             this.failIfNoChannelToConsumeOneCharacter = failIfNoChannelToConsumeOneCharacter;
             return this;
         }
 
+        /**
+         * Lex files through a {@link WindowedInputBuffer} of the given size
+         *
+         * <p>This only applies to {@link #lex(File)}; the default, 0, means
+         * files are fully read into a {@link CodeReader}.</p>
+         *
+         * @param inputWindow the window size, in characters
+         * @return this
+         */
+        public GrappaSslrLexer.Builder withInputWindow(int inputWindow) {
+            checkArgument(inputWindow >= 0, "input window cannot be negative");
+            this.inputWindow = inputWindow;
+            return this;
+        }
+
+        /**
+         * Build the AST from the node markers of the grappa grammar
+         *
+         * <p>In this mode, the lexer records the positions of the start and
+         * end markers pushed by {@link SonarParserBase#node(GrammarRuleKey,
+         * Object)}, and {@link GrappaSslrParser} builds the AST from them
+         * instead of parsing the token list with the SSLR grammar. When this
+         * mode is off (the default), markers are simply dropped.</p>
+         *
+         * @param singlePass true to enable single pass mode
+         * @return this
+         */
+        public GrappaSslrLexer.Builder withSinglePass(boolean singlePass) {
+            this.singlePass = singlePass;
+            return this;
+        }
+
+        /**
+         * Drop comments pushed by the grappa grammar instead of attaching them
+         * as trivia
+         *
+         * <p>This is meant for consumers which never look at comments; note
+         * that a {@link org.litesolutions.sonar.grappa.matchers.TriviaMatcher}
+         * which does not push comments at all is cheaper still.</p>
+         *
+         * @param dropComments true to drop comments
+         * @return this
+         */
+        public GrappaSslrLexer.Builder withDropComments(boolean dropComments) {
+            this.dropComments = dropComments;
+            return this;
+        }
+
+        /**
+         * Triage files before lexing them
+         *
+         * <p>This only applies to {@link #lex(File)}. Only a prefix of each
+         * file is read by the triage; if the file is skipped, a {@link
+         * SkippedFileException} is thrown, and no channel is run.</p>
+         *
+         * @param triage the triage, or null for none (the default)
+         * @return this
+         * @see GrappaSslrLexer#getTriageVerdict()
+         */
+        public GrappaSslrLexer.Builder withTriage(@Nullable FileTriage triage) {
+            this.triage = triage;
+            return this;
+        }
+
+        /**
+         * Build a {@link TokenIndex} of each lexed input
+         *
+         * <p>The index is built as tokens are added, without an additional
+         * pass over the token list; it is available from {@link
+         * GrappaSslrLexer#getTokenIndex()} once lexing is done.</p>
+         *
+         * @param indexTokens true to build token indexes
+         * @return this
+         */
+        public GrappaSslrLexer.Builder withTokenIndex(boolean indexTokens) {
+            this.indexTokens = indexTokens;
+            return this;
+        }
+
         private ChannelDispatcher<GrappaSslrLexer> getChannelDispatcher() {
+            List<Channel<GrappaSslrLexer>> all = new ArrayList<>(preChannels);
+            all.addAll(channels);
+
             ChannelDispatcher.Builder builder = ChannelDispatcher.builder()
-                    .addChannels(channels.toArray(new Channel[0]));
+                    .addChannels(all.toArray(new Channel[0]));
 
             if (failIfNoChannelToConsumeOneCharacter) {
                 builder.failIfNoChannelToConsumeOneCharacter();
@@ -6,6 +6,8 @@ import com.sonar.sslr.api.Rule;
 import com.sonar.sslr.api.Token;
 import com.sonar.sslr.impl.Parser;
 import com.sonar.sslr.impl.matcher.RuleDefinition;
+import org.litesolutions.sonar.grappa.ast.CompactAst;
+import org.sonar.sslr.grammar.GrammarRuleKey;
 import org.sonar.sslr.internal.matchers.LexerfulAstCreator;
 import org.sonar.sslr.internal.vm.CompilableGrammarRule;
 import org.sonar.sslr.internal.vm.CompiledGrammar;
@@ -15,12 +17,15 @@ import org.sonar.sslr.internal.vm.MutableGrammarCompiler;
 import javax.annotation.Nonnull;
 import java.io.File;
 import java.util.List;
+import java.util.function.Predicate;
 
 public class GrappaSslrParser<G extends Grammar> extends Parser<G> {
 
     private RuleDefinition rootRule;
     private final GrappaSslrLexer lexer;
     private final G grammar;
+    private final SegmentedParser segmentedParser;
+    private CompiledGrammar compiledGrammar;
 
     /**
      * @since 1.16
@@ -30,6 +35,7 @@ public class GrappaSslrParser<G extends Grammar> extends Parser<G> {
         super(grammar);
         this.grammar = grammar;
         lexer = null;
+        segmentedParser = null;
     }
 
     private GrappaSslrParser(GrappaSslrParser.Builder<G> builder) {
@@ -37,33 +43,108 @@ public class GrappaSslrParser<G extends Grammar> extends Parser<G> {
         this.lexer = builder.lexer;
         this.grammar = builder.grammar;
         this.rootRule = (RuleDefinition) this.grammar.getRootRule();
+        this.segmentedParser = builder.segmentedParser;
     }
 
+    /**
+     * Parse a file
+     *
+     * <p>If the lexer is in single pass mode, the AST is built from the node
+     * markers of the grappa grammar, and the SSLR grammar is not used.</p>
+     *
+     * @param file the file
+     * @return the root node
+     * @see GrappaSslrLexer.Builder#withSinglePass(boolean)
+     */
     public AstNode parse(@Nonnull File file) {
         lexer.lex(file);
-        return parse(lexer.getTokens());
+        return lexer.isSinglePass() ? lexer.buildAst() : parse(lexer.getTokens());
     }
 
     public AstNode parse(@Nonnull String source) {
         lexer.lex(source);
-        return parse(lexer.getTokens());
+        return lexer.isSinglePass() ? lexer.buildAst() : parse(lexer.getTokens());
     }
 
     public AstNode parse(@Nonnull List<Token> tokens) {
-        CompiledGrammar g = MutableGrammarCompiler.compile(rootRule);
-        return LexerfulAstCreator.create(Machine.parse(tokens, g), tokens);
+        if (segmentedParser != null && segmentedParser.appliesTo(rootRule)) {
+            AstNode node = segmentedParser.parse(tokens);
+            if (node != null) {
+                return node;
+            }
+        }
+        return LexerfulAstCreator.create(Machine.parse(tokens, compiledGrammar()), tokens);
+    }
+
+    /**
+     * Parse a file into a {@link CompactAst}
+     *
+     * @param file the file
+     * @return the compact AST
+     */
+    public CompactAst parseCompact(@Nonnull File file) {
+        lexer.lex(file);
+        return parseCompact(lexer.getTokens());
+    }
+
+    /**
+     * Parse source code into a {@link CompactAst}
+     *
+     * @param source the source code
+     * @return the compact AST
+     */
+    public CompactAst parseCompact(@Nonnull String source) {
+        lexer.lex(source);
+        return parseCompact(lexer.getTokens());
+    }
+
+    /**
+     * Parse a list of tokens into a {@link CompactAst}
+     *
+     * <p>The tree is built directly from the parse tree, without creating
+     * {@link AstNode}s; parallel segments, if configured, are not used.</p>
+     *
+     * @param tokens the tokens
+     * @return the compact AST
+     */
+    public CompactAst parseCompact(@Nonnull List<Token> tokens) {
+        return CompactAst.create(Machine.parse(tokens, compiledGrammar()), tokens);
     }
 
     public G getGrammar() {
         return grammar;
     }
 
+    /**
+     * Get the lexer of this parser
+     *
+     * <p>After a parse, the lexer gives access to the token index and the
+     * triage verdict of the last input, if configured.</p>
+     *
+     * @return the lexer, or null if this parser was not built with one
+     */
+    public GrappaSslrLexer getLexer() {
+        return lexer;
+    }
+
     public RuleDefinition getRootRule() {
         return rootRule;
     }
 
     public void setRootRule(@Nonnull Rule rootRule) {
         this.rootRule = (RuleDefinition) rootRule;
+        compiledGrammar = null;
+    }
+
+    /*
+     * The grammar is compiled on first use, and again only if the root rule
+     * changes.
+     */
+    private CompiledGrammar compiledGrammar() {
+        if (compiledGrammar == null) {
+            compiledGrammar = MutableGrammarCompiler.compile(rootRule);
+        }
+        return compiledGrammar;
     }
 
     public static <G extends Grammar> GrappaSslrParser.Builder<G> grappaBuilder(G grammar) {
@@ -79,6 +160,7 @@ public class GrappaSslrParser<G extends Grammar> extends Parser<G> {
         private GrappaSslrParser<G> baseParser;
         private GrappaSslrLexer lexer;
         private final G grammar;
+        private SegmentedParser segmentedParser;
 
         private Builder(G grammar) {
             this.grammar = grammar;
@@ -88,6 +170,7 @@ public class GrappaSslrParser<G extends Grammar> extends Parser<G> {
             this.baseParser = parser;
             this.lexer = parser.lexer;
             this.grammar = parser.grammar;
+            this.segmentedParser = parser.segmentedParser;
         }
 
         public GrappaSslrParser<G> build() {
@@ -99,6 +182,33 @@ public class GrappaSslrParser<G extends Grammar> extends Parser<G> {
             return this;
         }
 
+        /**
+         * Parse top level segments of large token lists in parallel
+         *
+         * <p>The root rule of the grammar must be of the form {@code
+         * zeroOrMore(memberRule), EOF}. The token list is split before each
+         * token matching the boundary predicate, and each segment is parsed
+         * against the member rule on the common fork/join pool. If any segment
+         * fails to parse as exactly one member ending at the next boundary,
+         * the token list is parsed sequentially instead.</p>
+         *
+         * <p>This assumes that, in a sequential parse, a member never
+         * consumes a boundary token other than its first one; PEG parsing does
+         * not guarantee it. The parse of a segment is only checked against the
+         * tokens of the next segment: a member rule which needs to look
+         * further than that to decide where it ends may produce a different
+         * tree than a sequential parse, and must not be used here.</p>
+         *
+         * @param memberRule the key of the repeated top level rule
+         * @param boundary a predicate matching the first token of a member
+         * @return this
+         */
+        public GrappaSslrParser.Builder<G> withParallelSegments(GrammarRuleKey memberRule, Predicate<Token> boundary) {
+            this.segmentedParser = new SegmentedParser((RuleDefinition) grammar.getRootRule(),
+                    (RuleDefinition) grammar.rule(memberRule), boundary);
+            return this;
+        }
+
     }
 
 }
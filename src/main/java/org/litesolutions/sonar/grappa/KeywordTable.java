@@ -0,0 +1,267 @@
+/*
+ * Copyright (c) 2016 Lite Solutions
+ *
+ *  This code is licensed under the Apache Software License version 2.
+ *  For more information, see the LICENSE file at the root of this package.
+ *
+ *  Should you not have the source code available, and the file above is
+ *  unavailable, you can obtain a copy of the license here:
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ */
+
+package org.litesolutions.sonar.grappa;
+
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Objects;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import com.github.fge.grappa.buffers.InputBuffer;
+import com.sonar.sslr.api.TokenType;
+
+/**
+ * A perfect hash table of keywords
+ *
+ * <p>This table is meant to be used with {@link
+ * SonarParserBase#pushKeywordOrToken(KeywordTable, TokenType)}: instead of
+ * trying a long {@code firstOf("KW1", "KW2", ...)} before falling back to an
+ * identifier rule, a grammar matches the identifier once and then classifies
+ * the matched text with this table.</p>
+ *
+ * <p>The keywords are the {@link TokenType#getValue() values} of the token
+ * types. At construction time, a hash seed is searched so that no two keywords
+ * share a slot (the seed is mixed into each step of the hash); a lookup
+ * therefore costs one hash computation, one length check and at most one
+ * comparison, and allocates nothing.</p>
+ */
+@Immutable
+public final class KeywordTable
+{
+    private static final int MAX_SEED_ATTEMPTS = 1024;
+
+    /*
+     * Beyond this size, give up: with a hash whose every step depends on the
+     * seed, this cannot happen for any realistic set of keywords
+     */
+    private static final int MAX_SIZE = 1 << 24;
+
+    /*
+     * FNV-1a offset basis and prime; the multiplier of a table is the prime
+     * plus twice the seed, which keeps it odd
+     */
+    private static final int HASH_BASIS = 0x811C9DC5;
+    private static final int HASH_PRIME = 0x01000193;
+
+    private final boolean ignoreCase;
+    private final int mask;
+    private final int multiplier;
+    private final char[][] keys;
+    private final TokenType[] types;
+    private final int minLength;
+    private final int maxLength;
+
+    /**
+     * Build a case sensitive table from an enum of token types
+     *
+     * @param enumClass the enum class
+     * @param <E> type of the enum
+     * @return a new table
+     */
+    public static <E extends Enum<E> & TokenType> KeywordTable of(
+        final Class<E> enumClass)
+    {
+        return new KeywordTable(false, EnumSet.allOf(enumClass)
+            .toArray(new TokenType[0]));
+    }
+
+    /**
+     * Build a case insensitive table from an enum of token types
+     *
+     * @param enumClass the enum class
+     * @param <E> type of the enum
+     * @return a new table
+     */
+    public static <E extends Enum<E> & TokenType> KeywordTable ofIgnoreCase(
+        final Class<E> enumClass)
+    {
+        return new KeywordTable(true, EnumSet.allOf(enumClass)
+            .toArray(new TokenType[0]));
+    }
+
+    /**
+     * Build a table from a set of token types
+     *
+     * @param ignoreCase whether lookups should ignore case
+     * @param tokenTypes the token types
+     * @return a new table
+     */
+    public static KeywordTable of(final boolean ignoreCase,
+        final TokenType... tokenTypes)
+    {
+        return new KeywordTable(ignoreCase, tokenTypes.clone());
+    }
+
+    private KeywordTable(final boolean ignoreCase, final TokenType[] tokenTypes)
+    {
+        this.ignoreCase = ignoreCase;
+
+        final char[][] words = new char[tokenTypes.length][];
+        int min = Integer.MAX_VALUE;
+        int max = 0;
+
+        final Set<String> seen = new HashSet<>();
+
+        for (int i = 0; i < tokenTypes.length; i++) {
+            words[i] = fold(Objects.requireNonNull(tokenTypes[i].getValue()));
+            if (!seen.add(new String(words[i])))
+                throw new IllegalArgumentException("duplicate keyword: "
+                    + tokenTypes[i].getValue());
+            min = Math.min(min, words[i].length);
+            max = Math.max(max, words[i].length);
+        }
+
+        minLength = min;
+        maxLength = max;
+
+        int size = Integer.highestOneBit(Math.max(tokenTypes.length, 1)) << 2;
+        int candidate = 0;
+        int[] slots;
+
+        while ((slots = assignSlots(words, candidate, size - 1)) == null) {
+            if (++candidate < MAX_SEED_ATTEMPTS)
+                continue;
+            candidate = 0;
+            size <<= 1;
+            if (size > MAX_SIZE)
+                throw new IllegalArgumentException("unable to build a "
+                    + "collision free table for these keywords");
+        }
+
+        mask = size - 1;
+        multiplier = multiplier(candidate);
+        keys = new char[size][];
+        types = new TokenType[size];
+
+        for (int i = 0; i < words.length; i++) {
+            keys[slots[i]] = words[i];
+            types[slots[i]] = tokenTypes[i];
+        }
+    }
+
+    /**
+     * Look up a range of an input buffer
+     *
+     * @param buffer the input buffer
+     * @param start the start index (inclusive)
+     * @param end the end index (exclusive)
+     * @return the matching token type, or null if this is not a keyword
+     */
+    @Nullable
+    public TokenType lookup(final InputBuffer buffer, final int start,
+        final int end)
+    {
+        final int length = end - start;
+        if (length < minLength || length > maxLength)
+            return null;
+
+        int h = HASH_BASIS;
+        for (int i = start; i < end; i++)
+            h = (h ^ fold(buffer.charAt(i))) * multiplier;
+
+        final int slot = spread(h) & mask;
+        final char[] key = keys[slot];
+        if (key == null || key.length != length)
+            return null;
+
+        for (int i = 0; i < length; i++)
+            if (key[i] != fold(buffer.charAt(start + i)))
+                return null;
+
+        return types[slot];
+    }
+
+    /**
+     * Look up a character sequence
+     *
+     * @param word the character sequence
+     * @return the matching token type, or null if this is not a keyword
+     */
+    @Nullable
+    public TokenType lookup(final CharSequence word)
+    {
+        final int length = word.length();
+        if (length < minLength || length > maxLength)
+            return null;
+
+        int h = HASH_BASIS;
+        for (int i = 0; i < length; i++)
+            h = (h ^ fold(word.charAt(i))) * multiplier;
+
+        final int slot = spread(h) & mask;
+        final char[] key = keys[slot];
+        if (key == null || key.length != length)
+            return null;
+
+        for (int i = 0; i < length; i++)
+            if (key[i] != fold(word.charAt(i)))
+                return null;
+
+        return types[slot];
+    }
+
+    @Nullable
+    private static int[] assignSlots(final char[][] words, final int seed,
+        final int mask)
+    {
+        final boolean[] taken = new boolean[mask + 1];
+        final int[] slots = new int[words.length];
+        final int multiplier = multiplier(seed);
+        int h;
+
+        for (int i = 0; i < words.length; i++) {
+            h = HASH_BASIS;
+            for (final char c: words[i])
+                h = (h ^ c) * multiplier;
+            slots[i] = spread(h) & mask;
+            if (taken[slots[i]])
+                return null;
+            taken[slots[i]] = true;
+        }
+
+        return slots;
+    }
+
+    /*
+     * The seed changes the multiplier of every step of the hash, so that two
+     * keywords colliding for one seed (as "Aa" and "BB" do with
+     * String.hashCode()) do not collide for all of them
+     */
+    private static int multiplier(final int seed)
+    {
+        return HASH_PRIME + (seed << 1);
+    }
+
+    private static int spread(final int h)
+    {
+        final int x = h * 0x9E3779B9;
+        return x ^ x >>> 16;
+    }
+
+    private char fold(final char c)
+    {
+        return ignoreCase ? Character.toLowerCase(c) : c;
+    }
+
+    private char[] fold(final String value)
+    {
+        final char[] chars = value.toCharArray();
+        for (int i = 0; i < chars.length; i++)
+            chars[i] = fold(chars[i]);
+        return chars;
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2016 Lite Solutions
+ *
+ *  This code is licensed under the Apache Software License version 2.
+ *  For more information, see the LICENSE file at the root of this package.
+ *
+ *  Should you not have the source code available, and the file above is
+ *  unavailable, you can obtain a copy of the license here:
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ */
+
+package org.litesolutions.sonar.grappa;
+
+import java.util.Collection;
+import java.util.function.Function;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import org.litesolutions.sonar.grappa.listeners.ListenerSupplier;
+import org.sonar.sslr.channel.CodeReader;
+
+import com.github.fge.grappa.buffers.InputBuffer;
+import com.github.fge.grappa.rules.Rule;
+import com.github.fge.grappa.run.ParseRunner;
+import com.github.fge.grappa.run.ParsingResult;
+import com.sonar.sslr.api.Token;
+
+/**
+ * Per thread structures reused by a {@link GrappaChannel} from one file to the
+ * next
+ *
+ * <p>Without an arena, each file lexed by a channel allocates a new {@link
+ * ParseRunner} (and registers its listeners with it, which involves scanning
+ * them for subscriber methods), a new {@link CodeReaderListener} and a new
+ * {@link CodeReaderInputBuffer}, whose line counting is submitted to an
+ * executor.</p>
+ *
+ * <p>An arena keeps one runner with a single, forwarding listener registered
+ * once and for all, one {@link CodeReaderListener} which is reset for each
+ * file, and one {@link ReusableInputBuffer} whose line table keeps its grown
+ * capacity up to a configurable limit.</p>
+ *
+ * <p>Listeners created by additional {@link ListenerSupplier}s are still
+ * created for each file, since they may hold state.</p>
+ *
+ * @see GrappaChannel#setLexingArena(int)
+ */
+@NotThreadSafe
+final class LexingArena
+{
+    /**
+     * Default maximum capacity retained by reused arrays, in elements
+     */
+    static final int DEFAULT_MAX_RETAINED = 1 << 16;
+
+    private final Function<InputBuffer, ParsingResult<Token.Builder>> runner;
+    private final ForwardingListener forwarder = new ForwardingListener();
+    private final CodeReaderListener listener = new CodeReaderListener();
+    private final ReusableInputBuffer buffer;
+
+    LexingArena(final Rule rule, final int maxRetained,
+        final boolean persistentValueStack)
+    {
+        if (persistentValueStack) {
+            final PersistentStackParseRunner persistentRunner
+                = new PersistentStackParseRunner(rule);
+            persistentRunner.registerListener(forwarder);
+            runner = persistentRunner::run;
+        } else {
+            final ParseRunner<Token.Builder> parseRunner
+                = new ParseRunner<>(rule);
+            parseRunner.registerListener(forwarder);
+            runner = parseRunner::run;
+        }
+        buffer = new ReusableInputBuffer(maxRetained);
+    }
+
+    /**
+     * Lex the contents of a code reader
+     *
+     * @param code the code reader
+     * @param output the lexer
+     * @param suppliers additional listener suppliers
+     */
+    void run(final CodeReader code, final GrappaSslrLexer output,
+        final Collection<ListenerSupplier> suppliers)
+    {
+        listener.reset(code, output);
+        forwarder.setDelegates(code, output, suppliers, listener);
+
+        buffer.reset(code);
+
+        try {
+            forwarder.run(() -> runner.apply(buffer));
+        } finally {
+            forwarder.clear();
+            listener.reset(null, null);
+            buffer.release();
+        }
+    }
+
+    /**
+     * Lex a prefix of the contents of a code reader
+     *
+     * <p>The rule is run once, and only needs to match a prefix of the
+     * remaining input; the matched characters are popped from the reader.</p>
+     *
+     * @param code the code reader
+     * @param output the lexer
+     * @param suppliers additional listener suppliers
+     * @return the number of characters consumed; 0 if the rule failed, or
+     * matched an empty prefix
+     *
+     * @see GrappaChannel#setPartialMatch(boolean)
+     */
+    int runPartial(final CodeReader code, final GrappaSslrLexer output,
+        final Collection<ListenerSupplier> suppliers)
+    {
+        listener.reset(code, output);
+        listener.setPartial(true);
+        forwarder.setDelegates(code, output, suppliers, listener);
+
+        try {
+            forwarder.run(() -> runner.apply(new PartialInputBuffer(code)));
+            return listener.getConsumed();
+        } finally {
+            forwarder.clear();
+            listener.setPartial(false);
+            listener.reset(null, null);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2016 Lite Solutions
+ *
+ *  This code is licensed under the Apache Software License version 2.
+ *  For more information, see the LICENSE file at the root of this package.
+ *
+ *  Should you not have the source code available, and the file above is
+ *  unavailable, you can obtain a copy of the license here:
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ */
+
+package org.litesolutions.sonar.grappa;
+
+import java.util.Arrays;
+
+/**
+ * A compact table of line start offsets
+ *
+ * <p>This is the equivalent of grappa's {@code LineCounter}, except that it
+ * only uses one {@code int} per line and can be filled incrementally, without
+ * the input text having to be available as a whole.</p>
+ *
+ * <p>Lines are separated by {@code \n} only, as is the case for {@code
+ * LineCounter}. Line numbers start at 1.</p>
+ */
+final class LineOffsets
+{
+    private static final int INITIAL_CAPACITY = 256;
+
+    private int[] starts = new int[INITIAL_CAPACITY];
+    private int nrLines = 1;
+
+    /**
+     * Record the start of a new line
+     *
+     * @param index the index of the first character of the line (that is, the
+     * index of the newline character plus one)
+     */
+    void addLineStart(final int index)
+    {
+        if (nrLines == starts.length)
+            starts = Arrays.copyOf(starts, nrLines * 2);
+        starts[nrLines++] = index;
+    }
+
+    /**
+     * Record the starts of all lines following newlines in a range of
+     * characters
+     *
+     * @param chars the characters
+     * @param from start index (inclusive)
+     * @param to end index (exclusive)
+     * @param offset the index in the input of the first character of the array
+     */
+    void addLines(final char[] chars, final int from, final int to,
+        final int offset)
+    {
+        int index = ScanKernels.indexOf(chars, '\n', from, to);
+        while (index != -1) {
+            addLineStart(offset + index + 1);
+            index = ScanKernels.indexOf(chars, '\n', index + 1, to);
+        }
+    }
+
+    /**
+     * Record the starts of all lines following newlines in a character
+     * sequence
+     *
+     * @param seq the character sequence
+     */
+    void addLines(final CharSequence seq)
+    {
+        final int length = seq.length();
+        int index = ScanKernels.indexOf(seq, '\n', 0, length);
+        while (index != -1) {
+            addLineStart(index + 1);
+            index = ScanKernels.indexOf(seq, '\n', index + 1, length);
+        }
+    }
+
+    /**
+     * Forget all recorded lines, so that this table can be reused
+     *
+     * @param maxRetained the maximum capacity to retain; if the table has
+     * grown larger than that, it is shrunk back to its initial capacity
+     */
+    void clear(final int maxRetained)
+    {
+        if (starts.length > maxRetained)
+            starts = new int[INITIAL_CAPACITY];
+        nrLines = 1;
+    }
+
+    int getNrLines()
+    {
+        return nrLines;
+    }
+
+    /**
+     * Get the start index of a given line
+     *
+     * @param lineNumber the line number (starting at 1)
+     * @return the index of the first character of this line
+     */
+    int getLineStart(final int lineNumber)
+    {
+        if (lineNumber < 1 || lineNumber > nrLines)
+            throw new IndexOutOfBoundsException("invalid line number "
+                + lineNumber + " (number of lines: " + nrLines + ')');
+        return starts[lineNumber - 1];
+    }
+
+    /**
+     * Get the line number for a given index
+     *
+     * @param index the index
+     * @return the line number (starting at 1)
+     */
+    int getLineNumber(final int index)
+    {
+        int low = 0;
+        int high = nrLines - 1;
+        int middle;
+
+        while (low < high) {
+            middle = (low + high + 1) >>> 1;
+            if (starts[middle] <= index)
+                low = middle;
+            else
+                high = middle - 1;
+        }
+
+        return low + 1;
+    }
+}
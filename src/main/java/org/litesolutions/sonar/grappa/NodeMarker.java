@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2016 Lite Solutions
+ *
+ *  This code is licensed under the Apache Software License version 2.
+ *  For more information, see the LICENSE file at the root of this package.
+ *
+ *  Should you not have the source code available, and the file above is
+ *  unavailable, you can obtain a copy of the license here:
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ */
+
+package org.litesolutions.sonar.grappa;
+
+import java.util.Objects;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import org.sonar.sslr.grammar.GrammarRuleKey;
+
+import com.github.fge.grappa.rules.Action;
+import com.github.fge.grappa.run.context.Context;
+import com.sonar.sslr.api.AstNode;
+import com.sonar.sslr.api.Token;
+import com.sonar.sslr.api.TokenType;
+
+/**
+ * The start or end of an AST node, in single pass mode
+ *
+ * <p>Instances of this class are both the actions run by {@link
+ * SonarParserBase#node(GrammarRuleKey, Object)} and the type of the marker
+ * tokens these actions push on the value stack; the lexer removes markers from
+ * the token list, and records their positions to build the AST.</p>
+ *
+ * <p>Since markers are pushed on the value stack, they are discarded along
+ * with the tokens of failed alternatives.</p>
+ *
+ * @see GrappaSslrLexer.Builder#withSinglePass(boolean)
+ */
+@Immutable
+final class NodeMarker
+    implements TokenType, Action<Token.Builder>
+{
+    private final GrammarRuleKey key;
+    private final boolean open;
+
+    NodeMarker(final GrammarRuleKey key, final boolean open)
+    {
+        this.key = Objects.requireNonNull(key);
+        this.open = open;
+    }
+
+    GrammarRuleKey getKey()
+    {
+        return key;
+    }
+
+    boolean isOpen()
+    {
+        return open;
+    }
+
+    @Override
+    public boolean run(final Context<Token.Builder> context)
+    {
+        context.getValueStack().push(TokenBuilders.create(this, "", 1, 0));
+        return true;
+    }
+
+    @Override
+    public String getName()
+    {
+        return key.toString();
+    }
+
+    @Override
+    public String getValue()
+    {
+        return key.toString();
+    }
+
+    @Override
+    public boolean hasToBeSkippedFromAst(@Nullable final AstNode node)
+    {
+        return true;
+    }
+
+    @Override
+    public String toString()
+    {
+        return (open ? "start of " : "end of ") + key;
+    }
+}
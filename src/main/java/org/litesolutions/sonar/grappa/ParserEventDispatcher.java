@@ -0,0 +1,266 @@
+/*
+ * Copyright (c) 2016 Lite Solutions
+ *
+ *  This code is licensed under the Apache Software License version 2.
+ *  For more information, see the LICENSE file at the root of this package.
+ *
+ *  Should you not have the source code available, and the file above is
+ *  unavailable, you can obtain a copy of the license here:
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ */
+
+package org.litesolutions.sonar.grappa;
+
+import java.lang.invoke.LambdaConversionException;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import com.github.fge.grappa.parsers.EventBusParser;
+import com.google.common.eventbus.EventBus;
+import com.google.common.eventbus.Subscribe;
+
+/**
+ * A synchronous, reflection free replacement for the event bus of an {@link
+ * EventBusParser}
+ *
+ * <p>Subscriber methods are found the same way as with an {@link EventBus}:
+ * they are the methods annotated with {@link Subscribe} and taking a single
+ * argument, in the listener class and its superclasses. They are resolved once
+ * per listener class: for each of them, {@link LambdaMetafactory} spins a
+ * {@link Consumer} class, through a private lookup in the class declaring the
+ * method; each listener is then bound to instances of these classes, so that
+ * posting an event is a plain interface call.</p>
+ *
+ * <p>If a private lookup cannot be obtained (for instance, if the listener
+ * class is in a named module which does not open its package), the subscriber
+ * method is called through a method handle bound to the listener instead.</p>
+ *
+ * <p>Posting an event then calls, in registration order, all handlers whose
+ * parameter type is a supertype of the event class; the array of handlers for
+ * each event class is computed the first time an event of this class is
+ * posted. There is no locking and no reflection when posting; exceptions
+ * thrown by handlers are propagated to the caller, unchecked exceptions as is,
+ * whereas an {@link EventBus} would log them.</p>
+ *
+ * <p>Like the parser it belongs to, this class is not thread safe.</p>
+ *
+ * @see SonarParserBase#subscribe(Object)
+ * @see SonarParserBase#dispatch(Object)
+ */
+@NotThreadSafe
+final class ParserEventDispatcher
+{
+    private static final MethodType FACTORY_TYPE
+        = MethodType.methodType(Consumer.class, Object.class);
+    private static final MethodType HANDLER_TYPE
+        = MethodType.methodType(void.class, Object.class);
+
+    private static final Handler[] NO_HANDLERS = new Handler[0];
+
+    private static final ClassValue<List<Subscriber>> SUBSCRIBERS
+        = new ClassValue<List<Subscriber>>()
+    {
+        @Override
+        protected List<Subscriber> computeValue(final Class<?> type)
+        {
+            final List<Subscriber> ret = new ArrayList<>();
+
+            for (final Method method: findSubscriberMethods(type))
+                ret.add(new Subscriber(method));
+
+            return Collections.unmodifiableList(ret);
+        }
+    };
+
+    private final List<Handler> handlers = new ArrayList<>();
+    private final Map<Class<?>, Handler[]> byEventClass
+        = new IdentityHashMap<>();
+
+    /**
+     * Register all subscriber methods of a listener
+     *
+     * @param listener the listener
+     */
+    void subscribe(final Object listener)
+    {
+        Objects.requireNonNull(listener);
+
+        for (final Subscriber subscriber: SUBSCRIBERS.get(listener.getClass()))
+            handlers.add(new Handler(subscriber.eventType,
+                subscriber.bindTo(listener)));
+
+        byEventClass.clear();
+    }
+
+    /**
+     * Post an event to all matching handlers
+     *
+     * @param event the event
+     */
+    void dispatch(final Object event)
+    {
+        final Class<?> eventClass = event.getClass();
+        Handler[] matching = byEventClass.get(eventClass);
+
+        if (matching == null) {
+            matching = handlers.stream()
+                .filter(handler -> handler.eventType.isAssignableFrom(eventClass))
+                .toArray(Handler[]::new);
+            byEventClass.put(eventClass,
+                matching.length == 0 ? NO_HANDLERS : matching);
+        }
+
+        for (final Handler handler: matching) {
+            try {
+                handler.consumer.accept(event);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable t) {
+                throw new IllegalStateException("subscriber failed to handle "
+                    + event, t);
+            }
+        }
+    }
+
+    /*
+     * Subscriber methods are deduplicated by signature; a handle for a
+     * virtual method dispatches to the most specific override anyway.
+     */
+    private static List<Method> findSubscriberMethods(final Class<?> type)
+    {
+        final List<Method> ret = new ArrayList<>();
+        final Set<List<Object>> signatures = new HashSet<>();
+
+        for (Class<?> c = type; c != null && c != Object.class;
+            c = c.getSuperclass())
+            for (final Method method: c.getDeclaredMethods()) {
+                if (!method.isAnnotationPresent(Subscribe.class))
+                    continue;
+                if (method.getParameterCount() != 1
+                    || Modifier.isStatic(method.getModifiers()))
+                    throw new IllegalArgumentException("subscriber method "
+                        + method + " must be an instance method with exactly"
+                        + " one argument");
+                if (!signatures.add(Arrays.asList(method.getName(),
+                    method.getParameterTypes()[0])))
+                    continue;
+                method.setAccessible(true);
+                ret.add(method);
+            }
+
+        return Collections.unmodifiableList(ret);
+    }
+
+    /*
+     * A subscriber method, and the means to bind it to a listener: either a
+     * factory of lambdas spun for the method, or a plain method handle.
+     */
+    private static final class Subscriber
+    {
+        private final Class<?> eventType;
+        @Nullable
+        private final MethodHandle factory;
+        private final MethodHandle handle;
+
+        private Subscriber(final Method method)
+        {
+            eventType = method.getParameterTypes()[0];
+
+            final MethodHandle target;
+
+            try {
+                target = MethodHandles.lookup().unreflect(method);
+            } catch (IllegalAccessException e) {
+                throw new IllegalArgumentException("cannot access subscriber"
+                    + " method " + method, e);
+            }
+
+            handle = target.asType(target.type().changeReturnType(void.class));
+            factory = spinFactory(method, handle);
+        }
+
+        /*
+         * Returns null if no lambda can be spun for this method, in which
+         * case the method handle is used.
+         */
+        @Nullable
+        private static MethodHandle spinFactory(final Method method,
+            final MethodHandle target)
+        {
+            final Class<?> declaringClass = method.getDeclaringClass();
+
+            try {
+                final MethodHandles.Lookup lookup = MethodHandles
+                    .privateLookupIn(declaringClass, MethodHandles.lookup());
+                return LambdaMetafactory.metafactory(lookup, "accept",
+                    MethodType.methodType(Consumer.class, declaringClass),
+                    HANDLER_TYPE, lookup.unreflect(method),
+                    target.type().dropParameterTypes(0, 1))
+                    .getTarget().asType(FACTORY_TYPE);
+            } catch (ReflectiveOperationException | LambdaConversionException
+                | RuntimeException ignored) {
+                return null;
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private Consumer<Object> bindTo(final Object listener)
+        {
+            if (factory != null)
+                try {
+                    return (Consumer<Object>) factory.invokeExact(listener);
+                } catch (RuntimeException | Error e) {
+                    throw e;
+                } catch (Throwable t) {
+                    throw new IllegalStateException("cannot bind subscriber",
+                        t);
+                }
+
+            final MethodHandle bound = handle.bindTo(listener)
+                .asType(HANDLER_TYPE);
+
+            return event -> {
+                try {
+                    bound.invokeExact(event);
+                } catch (RuntimeException | Error e) {
+                    throw e;
+                } catch (Throwable t) {
+                    throw new IllegalStateException("subscriber failed to"
+                        + " handle " + event, t);
+                }
+            };
+        }
+    }
+
+    private static final class Handler
+    {
+        private final Class<?> eventType;
+        private final Consumer<Object> consumer;
+
+        private Handler(final Class<?> eventType,
+            final Consumer<Object> consumer)
+        {
+            this.eventType = eventType;
+            this.consumer = consumer;
+        }
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright (c) 2016 Lite Solutions
+ *
+ *  This code is licensed under the Apache Software License version 2.
+ *  For more information, see the LICENSE file at the root of this package.
+ *
+ *  Should you not have the source code available, and the file above is
+ *  unavailable, you can obtain a copy of the license here:
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ */
+
+package org.litesolutions.sonar.grappa;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import org.sonar.sslr.channel.CodeReader;
+
+import com.github.fge.grappa.buffers.InputBuffer;
+import com.github.fge.grappa.support.IndexRange;
+import com.github.fge.grappa.support.Position;
+
+/**
+ * An {@link InputBuffer} over the remaining contents of a {@link CodeReader},
+ * for a parse which is only expected to match a prefix of them
+ *
+ * <p>This is used by a {@link GrappaChannel} in partial match mode, which
+ * runs once per construct rather than once per input; unlike a {@link
+ * CodeReaderInputBuffer}, this buffer therefore does not count the lines of
+ * the whole remaining input up front. Positions are computed by scanning
+ * forward from the last computed position, which is cheap since tokens are
+ * pushed in input order, and are reported relative to the whole input, using
+ * the line and column of the reader when the buffer is created.</p>
+ *
+ * <p>Line related methods other than {@link #getPosition(int)} scan the
+ * remaining input; they are only used for error reporting and tracing.</p>
+ *
+ * @see GrappaChannel#setPartialMatch(boolean)
+ */
+@NotThreadSafe
+final class PartialInputBuffer
+    implements InputBuffer
+{
+    private final CodeReader reader;
+    private final int length;
+    private final int baseLine;
+    private final int baseColumn;
+
+    /*
+     * Scanning cursor: characters before scanned have been scanned; line is
+     * relative to the first line, and lineStart is the index of its start
+     */
+    private int scanned = 0;
+    private int line = 0;
+    private int lineStart = 0;
+
+    PartialInputBuffer(final CodeReader reader)
+    {
+        this.reader = reader;
+        length = reader.length();
+        baseLine = reader.getLinePosition();
+        baseColumn = reader.getColumnPosition();
+    }
+
+    @Override
+    public char charAt(final int index)
+    {
+        return index >= 0 && index < length ? reader.charAt(index)
+            : (char) -1;
+    }
+
+    @Override
+    public CharSequence subSequence(final int start, final int end)
+    {
+        if (start < 0 || end > length || start > end)
+            throw new IndexOutOfBoundsException("Invalid subsequence range: "
+                + start + " to " + end);
+        return extract(start, end);
+    }
+
+    @Override
+    public int codePointAt(final int index)
+    {
+        if (index >= length)
+            return -1;
+        if (index < 0)
+            throw new IllegalArgumentException("index is negative");
+
+        final char c = reader.charAt(index);
+        if (!Character.isHighSurrogate(c) || index == length - 1)
+            return c;
+        final char c2 = reader.charAt(index + 1);
+        return Character.isLowSurrogate(c2) ? Character.toCodePoint(c, c2) : c;
+    }
+
+    @Override
+    public String extract(final int start, final int end)
+    {
+        final int realStart = Math.max(start, 0);
+        final int realEnd = Math.min(end, length);
+        if (realStart >= realEnd)
+            return "";
+
+        /*
+         * CodeReader does not support subSequence()
+         */
+        final char[] chars = new char[realEnd - realStart];
+        for (int i = realStart; i < realEnd; i++)
+            chars[i - realStart] = reader.charAt(i);
+        return new String(chars);
+    }
+
+    @Override
+    public String extract(final IndexRange range)
+    {
+        return extract(range.start, range.end);
+    }
+
+    @Override
+    public Position getPosition(final int index)
+    {
+        if (index < scanned) {
+            scanned = 0;
+            line = 0;
+            lineStart = 0;
+        }
+
+        final int end = Math.min(index, length);
+        int newline = ScanKernels.indexOf(reader, '\n', scanned, end);
+
+        while (newline != -1) {
+            line++;
+            lineStart = newline + 1;
+            newline = ScanKernels.indexOf(reader, '\n', lineStart, end);
+        }
+
+        scanned = Math.max(end, scanned);
+
+        return line == 0
+            ? new Position(baseLine, baseColumn + index)
+            : new Position(baseLine + line, index - lineStart);
+    }
+
+    @Override
+    public String extractLine(final int lineNumber)
+    {
+        final IndexRange range = getLineRange(lineNumber);
+        int end = range.end;
+        if (end > range.start && charAt(end - 1) == '\n')
+            end--;
+        if (end > range.start && charAt(end - 1) == '\r')
+            end--;
+        return extract(range.start, end);
+    }
+
+    @Override
+    public IndexRange getLineRange(final int lineNumber)
+    {
+        int start = 0;
+        int newline;
+
+        for (int i = baseLine; i < lineNumber; i++) {
+            newline = ScanKernels.indexOf(reader, '\n', start, length);
+            if (newline == -1)
+                return new IndexRange(length, length);
+            start = newline + 1;
+        }
+
+        final int newlineAfter = ScanKernels.indexOf(reader, '\n', start,
+            length);
+        return new IndexRange(start, newlineAfter == -1 ? length
+            : newlineAfter + 1);
+    }
+
+    @Override
+    public int getLineCount()
+    {
+        int count = baseLine;
+        int newline = ScanKernels.indexOf(reader, '\n', 0, length);
+
+        while (newline != -1) {
+            count++;
+            newline = ScanKernels.indexOf(reader, '\n', newline + 1, length);
+        }
+
+        return count;
+    }
+
+    @Override
+    public int length()
+    {
+        return length;
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2016 Lite Solutions
+ *
+ *  This code is licensed under the Apache Software License version 2.
+ *  For more information, see the LICENSE file at the root of this package.
+ *
+ *  Should you not have the source code available, and the file above is
+ *  unavailable, you can obtain a copy of the license here:
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ */
+
+package org.litesolutions.sonar.grappa;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import com.github.fge.grappa.buffers.InputBuffer;
+import com.github.fge.grappa.matchers.base.Matcher;
+import com.github.fge.grappa.rules.Rule;
+import com.github.fge.grappa.run.MatchHandler;
+import com.github.fge.grappa.run.ParseEventListener;
+import com.github.fge.grappa.run.ParseRunner;
+import com.github.fge.grappa.run.ParsingResult;
+import com.github.fge.grappa.run.context.DefaultMatcherContext;
+import com.github.fge.grappa.run.context.MatcherContext;
+import com.github.fge.grappa.run.events.MatchFailureEvent;
+import com.github.fge.grappa.run.events.MatchSuccessEvent;
+import com.github.fge.grappa.run.events.PostParseEvent;
+import com.github.fge.grappa.run.events.PreMatchEvent;
+import com.github.fge.grappa.run.events.PreParseEvent;
+import com.sonar.sslr.api.Token;
+
+/**
+ * A parse runner using a {@link PersistentValueStack}
+ *
+ * <p>{@link ParseRunner} creates its value stack itself, and offers no way to
+ * replace it; this runner is therefore a replacement for it, which runs the
+ * same matchers with the same events. One difference is that events are
+ * delivered by direct calls to the listeners rather than through an event bus,
+ * and that exceptions thrown by listeners propagate as is instead of being
+ * wrapped.</p>
+ *
+ * @see GrappaChannel#setPersistentValueStack(boolean)
+ */
+@NotThreadSafe
+final class PersistentStackParseRunner
+    implements MatchHandler
+{
+    private final Matcher rootMatcher;
+    private final List<ParseEventListener<Token.Builder>> listeners
+        = new ArrayList<>();
+
+    PersistentStackParseRunner(final Rule rule)
+    {
+        rootMatcher = (Matcher) Objects.requireNonNull(rule);
+    }
+
+    void registerListener(final ParseEventListener<Token.Builder> listener)
+    {
+        listeners.add(Objects.requireNonNull(listener));
+    }
+
+    ParsingResult<Token.Builder> run(final InputBuffer buffer)
+    {
+        final PersistentValueStack<Token.Builder> stack
+            = new PersistentValueStack<>();
+        final MatcherContext<Token.Builder> context
+            = new DefaultMatcherContext<>(buffer, stack, this, rootMatcher);
+
+        final PreParseEvent<Token.Builder> preParseEvent
+            = new PreParseEvent<>(context);
+        for (final ParseEventListener<Token.Builder> listener: listeners)
+            listener.beforeParse(preParseEvent);
+
+        final boolean matched = context.runMatcher();
+        final ParsingResult<Token.Builder> result
+            = new ParsingResult<>(matched, stack, buffer);
+
+        final PostParseEvent<Token.Builder> postParseEvent
+            = new PostParseEvent<>(result);
+        for (final ParseEventListener<Token.Builder> listener: listeners)
+            listener.afterParse(postParseEvent);
+
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public <V> boolean match(final MatcherContext<V> context)
+    {
+        /*
+         * Only ever called with contexts created from our root context
+         */
+        final MatcherContext<Token.Builder> ctx
+            = (MatcherContext<Token.Builder>) context;
+
+        if (!listeners.isEmpty()) {
+            final PreMatchEvent<Token.Builder> event
+                = new PreMatchEvent<>(ctx);
+            for (final ParseEventListener<Token.Builder> listener: listeners)
+                listener.beforeMatch(event);
+        }
+
+        final boolean match = ctx.getMatcher().match(ctx);
+
+        if (listeners.isEmpty())
+            return match;
+
+        if (match) {
+            final MatchSuccessEvent<Token.Builder> event
+                = new MatchSuccessEvent<>(ctx);
+            for (final ParseEventListener<Token.Builder> listener: listeners)
+                listener.matchSuccess(event);
+        } else {
+            final MatchFailureEvent<Token.Builder> event
+                = new MatchFailureEvent<>(ctx);
+            for (final ParseEventListener<Token.Builder> listener: listeners)
+                listener.matchFailure(event);
+        }
+
+        return match;
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) 2016 Lite Solutions
+ *
+ *  This code is licensed under the Apache Software License version 2.
+ *  For more information, see the LICENSE file at the root of this package.
+ *
+ *  Should you not have the source code available, and the file above is
+ *  unavailable, you can obtain a copy of the license here:
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ */
+
+package org.litesolutions.sonar.grappa;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import com.github.fge.grappa.stack.DefaultValueStack;
+import com.github.fge.grappa.stack.ValueStack;
+import com.github.fge.grappa.stack.ValueStackBase;
+
+/**
+ * A {@link ValueStack} with constant time snapshots
+ *
+ * <p>Grappa takes a snapshot of the value stack before each sequence, and
+ * restores it when the sequence fails. With a {@link DefaultValueStack}, a
+ * snapshot is a copy of the whole stack; since a {@link SonarParserBase}
+ * pushes every token it produces, snapshots become more and more expensive as
+ * the parse progresses.</p>
+ *
+ * <p>This implementation is an immutable linked list of cells, with the top
+ * of the stack at the head; a snapshot is the current head, and restoring a
+ * snapshot only sets the head back. Pushing, popping and peeking at the top
+ * of the stack are constant time operations; operations further down the
+ * stack cost time proportional to the depth at which they operate, which is
+ * typically very small.</p>
+ *
+ * @param <V> type of the values
+ *
+ * @see GrappaChannel#setPersistentValueStack(boolean)
+ */
+@NotThreadSafe
+public final class PersistentValueStack<V>
+    extends ValueStackBase<V>
+{
+    @Nullable
+    private Cell<V> head = null;
+
+    @Override
+    public int size()
+    {
+        return head == null ? 0 : head.size;
+    }
+
+    @Override
+    public void clear()
+    {
+        head = null;
+    }
+
+    @Nullable
+    @Override
+    public Object takeSnapshot()
+    {
+        return head;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public void restoreSnapshot(@Nullable final Object snapshot)
+    {
+        head = (Cell<V>) snapshot;
+    }
+
+    @Override
+    protected void doPush(final int down, final V value)
+    {
+        final Object[] prefix = unwind(down);
+        final Cell<V> cell = new Cell<>(value, head);
+        head = rewind(prefix, cell);
+    }
+
+    @Override
+    protected V doPop(final int down)
+    {
+        final Object[] prefix = unwind(down);
+        final Cell<V> cell = head;
+        head = rewind(prefix, cell.next);
+        return cell.value;
+    }
+
+    @Override
+    protected V doPeek(final int down)
+    {
+        Cell<V> cell = head;
+        for (int i = 0; i < down; i++)
+            cell = cell.next;
+        return cell.value;
+    }
+
+    @Override
+    protected void doPoke(final int down, final V value)
+    {
+        final Object[] prefix = unwind(down);
+        head = rewind(prefix, new Cell<>(value, head.next));
+    }
+
+    @Override
+    protected void doDup()
+    {
+        head = new Cell<>(head.value, head);
+    }
+
+    @Override
+    protected void doSwap(final int n)
+    {
+        /*
+         * Reverse the top n values: popping them in order, then pushing them
+         * back in the same order does just that.
+         */
+        final Object[] values = unwind(n);
+        for (final Object value: values)
+            head = new Cell<>(cast(value), head);
+    }
+
+    @Override
+    public Iterator<V> iterator()
+    {
+        return new Iterator<V>()
+        {
+            private Cell<V> cell = head;
+
+            @Override
+            public boolean hasNext()
+            {
+                return cell != null;
+            }
+
+            @Override
+            public V next()
+            {
+                if (cell == null)
+                    throw new NoSuchElementException();
+                final V ret = cell.value;
+                cell = cell.next;
+                return ret;
+            }
+        };
+    }
+
+    /*
+     * Remove the top n values, and return them, top first
+     */
+    private Object[] unwind(final int n)
+    {
+        final Object[] ret = new Object[n];
+        for (int i = 0; i < n; i++) {
+            ret[i] = head.value;
+            head = head.next;
+        }
+        return ret;
+    }
+
+    /*
+     * Push back values removed by unwind() on top of the given cell
+     */
+    @Nullable
+    private Cell<V> rewind(final Object[] values, @Nullable final Cell<V> top)
+    {
+        Cell<V> ret = top;
+        for (int i = values.length - 1; i >= 0; i--)
+            ret = new Cell<>(cast(values[i]), ret);
+        return ret;
+    }
+
+    @SuppressWarnings("unchecked")
+    private V cast(final Object value)
+    {
+        return (V) value;
+    }
+
+    private static final class Cell<V>
+    {
+        private final V value;
+        @Nullable
+        private final Cell<V> next;
+        private final int size;
+
+        private Cell(final V value, @Nullable final Cell<V> next)
+        {
+            this.value = value;
+            this.next = next;
+            size = next == null ? 1 : next.size + 1;
+        }
+    }
+}
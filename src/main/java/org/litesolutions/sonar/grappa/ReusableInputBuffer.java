@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2016 Lite Solutions
+ *
+ *  This code is licensed under the Apache Software License version 2.
+ *  For more information, see the LICENSE file at the root of this package.
+ *
+ *  Should you not have the source code available, and the file above is
+ *  unavailable, you can obtain a copy of the license here:
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ */
+
+package org.litesolutions.sonar.grappa;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import org.sonar.sslr.channel.CodeReader;
+
+import com.github.fge.grappa.buffers.InputBuffer;
+import com.github.fge.grappa.support.IndexRange;
+import com.github.fge.grappa.support.Position;
+import com.google.common.base.Preconditions;
+
+/**
+ * An {@link InputBuffer} over a {@link CodeReader} which can be reused
+ *
+ * <p>This is the equivalent of {@link CodeReaderInputBuffer}, except that
+ * lines are indexed synchronously into a {@link LineOffsets} table which is
+ * kept from one input to the next; no line counting task is submitted to an
+ * executor.</p>
+ *
+ * @see LexingArena
+ */
+@NotThreadSafe
+final class ReusableInputBuffer
+    implements InputBuffer
+{
+    private final LineOffsets lines = new LineOffsets();
+    private final int maxRetained;
+
+    private CodeReader reader = null;
+    private int length = 0;
+
+    ReusableInputBuffer(final int maxRetained)
+    {
+        this.maxRetained = maxRetained;
+    }
+
+    /**
+     * Set the reader to read characters from
+     *
+     * @param reader the reader
+     */
+    void reset(final CodeReader reader)
+    {
+        this.reader = reader;
+        length = reader.length();
+        lines.clear(maxRetained);
+        lines.addLines(reader);
+    }
+
+    /**
+     * Forget about the current reader
+     */
+    void release()
+    {
+        reader = null;
+        length = 0;
+    }
+
+    @Override
+    public char charAt(final int index)
+    {
+        return index >= 0 && index < length ? reader.charAt(index) : (char) -1;
+    }
+
+    @Override
+    public CharSequence subSequence(final int start, final int end)
+    {
+        if (start < 0 || end > length || start > end)
+            throw new IndexOutOfBoundsException("Invalid subsequence range: "
+                + start + " to " + end);
+        return extract(start, end);
+    }
+
+    @Override
+    public int codePointAt(final int index)
+    {
+        if (index >= length)
+            return -1;
+        if (index < 0)
+            throw new IllegalArgumentException("index is negative");
+
+        final char c = reader.charAt(index);
+        if (!Character.isHighSurrogate(c))
+            return c;
+        if (index == length - 1)
+            return c;
+        final char c2 = reader.charAt(index + 1);
+        return Character.isLowSurrogate(c2) ? Character.toCodePoint(c, c2) : c;
+    }
+
+    @Override
+    public String extract(final int start, final int end)
+    {
+        final int realStart = Math.max(start, 0);
+        final int realEnd = Math.min(end, length);
+        final char[] chars = new char[Math.max(realEnd - realStart, 0)];
+        for (int i = 0; i < chars.length; i++)
+            chars[i] = reader.charAt(realStart + i);
+        return new String(chars);
+    }
+
+    @Override
+    public String extract(final IndexRange range)
+    {
+        return extract(range.start, range.end);
+    }
+
+    @Override
+    public Position getPosition(final int index)
+    {
+        final int line = lines.getLineNumber(index);
+        return new Position(line, index - lines.getLineStart(line));
+    }
+
+    @Override
+    public String extractLine(final int lineNumber)
+    {
+        Preconditions.checkArgument(lineNumber > 0, "line number is negative");
+        final IndexRange range = getLineRange(lineNumber);
+        final int start = range.start;
+        int end = range.end;
+        if (charAt(end - 1) == '\n')
+            end--;
+        if (charAt(end - 1) == '\r')
+            end--;
+        return extract(start, end);
+    }
+
+    @Override
+    public IndexRange getLineRange(final int lineNumber)
+    {
+        final int start = lines.getLineStart(lineNumber);
+        final int end = lineNumber == lines.getNrLines() ? length
+            : lines.getLineStart(lineNumber + 1);
+        return new IndexRange(start, end);
+    }
+
+    @Override
+    public int getLineCount()
+    {
+        return lines.getNrLines();
+    }
+
+    @Override
+    public int length()
+    {
+        return length;
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2016 Lite Solutions
+ *
+ *  This code is licensed under the Apache Software License version 2.
+ *  For more information, see the LICENSE file at the root of this package.
+ *
+ *  Should you not have the source code available, and the file above is
+ *  unavailable, you can obtain a copy of the license here:
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ */
+
+package org.litesolutions.sonar.grappa;
+
+import com.github.fge.grappa.buffers.InputBuffer;
+
+/**
+ * Character scanning kernels
+ *
+ * <p>These are the loops behind line indexing and comment skipping.</p>
+ *
+ * <p>Searches in arrays use SWAR (SIMD within a register): four characters
+ * are packed into a {@code long}, and a whole block of characters is tested
+ * for the searched character with a couple of arithmetic operations and a
+ * single branch; the exact index is then found by a scalar loop over the
+ * matching block only. Searches in strings use {@link String#indexOf(int,
+ * int)}, which the JIT compiler intrinsifies.</p>
+ *
+ * <p>Other character sequences and input buffers are searched with a plain
+ * loop: each character costs a (possibly virtual) {@code charAt()} call
+ * anyway, and packing them into words would only add work. This is the case
+ * of a {@link org.sonar.sslr.channel.CodeReader}, which gives no access to
+ * its array, and therefore of line indexing in {@link CodeReaderInputBuffer}
+ * and of the input buffers seen by trivia matchers; there, the gain over
+ * grappa's {@code LineCounter} comes from {@link LineOffsets} allocating
+ * nothing per line.</p>
+ *
+ * <p>There is no ASCII detection kernel: all buffers of this package are
+ * {@code char} based, and nothing would take a faster path for pure ASCII
+ * input.</p>
+ *
+ * <p>Note that the Vector API ({@code jdk.incubator.vector}) is not used:
+ * being an incubator module, it needs to be explicitly enabled at both compile
+ * time and run time, which a library cannot impose on its host.</p>
+ */
+public final class ScanKernels
+{
+    private static final long LANES_ONE = 0x0001_0001_0001_0001L;
+    private static final long LANES_HIGH = 0x8000_8000_8000_8000L;
+
+    private static final int BLOCK = 8;
+
+    private ScanKernels()
+    {
+        throw new Error("nice try!");
+    }
+
+    /**
+     * Find the first occurrence of a character in a range of an array
+     *
+     * @param chars the array
+     * @param c the character to search for
+     * @param from start index (inclusive)
+     * @param to end index (exclusive)
+     * @return the index of the character, or -1 if not found
+     */
+    public static int indexOf(final char[] chars, final char c, final int from,
+        final int to)
+    {
+        final long pattern = LANES_ONE * c;
+        int index = from;
+
+        for (; index + BLOCK <= to; index += BLOCK)
+            if (hasZeroLane(pack(chars[index], chars[index + 1],
+                chars[index + 2], chars[index + 3]) ^ pattern)
+                | hasZeroLane(pack(chars[index + 4], chars[index + 5],
+                chars[index + 6], chars[index + 7]) ^ pattern))
+                break;
+
+        for (; index < to; index++)
+            if (chars[index] == c)
+                return index;
+
+        return -1;
+    }
+
+    /**
+     * Find the first occurrence of a character in a range of a character
+     * sequence
+     *
+     * @param seq the character sequence
+     * @param c the character to search for
+     * @param from start index (inclusive)
+     * @param to end index (exclusive)
+     * @return the index of the character, or -1 if not found
+     */
+    public static int indexOf(final CharSequence seq, final char c,
+        final int from, final int to)
+    {
+        /*
+         * String.indexOf() is intrinsified by the JIT
+         */
+        if (seq instanceof String && to == seq.length())
+            return ((String) seq).indexOf(c, from);
+
+        for (int index = from; index < to; index++)
+            if (seq.charAt(index) == c)
+                return index;
+
+        return -1;
+    }
+
+    /**
+     * Find the first occurrence of a character in a range of an input buffer
+     *
+     * @param buffer the input buffer
+     * @param c the character to search for
+     * @param from start index (inclusive)
+     * @param to end index (exclusive)
+     * @return the index of the character, or -1 if not found
+     */
+    public static int indexOf(final InputBuffer buffer, final char c,
+        final int from, final int to)
+    {
+        for (int index = from; index < to; index++)
+            if (buffer.charAt(index) == c)
+                return index;
+
+        return -1;
+    }
+
+    /**
+     * Find the first occurrence of either of two characters in a range of an
+     * input buffer
+     *
+     * @param buffer the input buffer
+     * @param c1 the first character to search for
+     * @param c2 the second character to search for
+     * @param from start index (inclusive)
+     * @param to end index (exclusive)
+     * @return the index of the first of the two characters found, or -1 if
+     * none is found
+     */
+    public static int indexOfEither(final InputBuffer buffer, final char c1,
+        final char c2, final int from, final int to)
+    {
+        char c;
+
+        for (int index = from; index < to; index++)
+        {
+            c = buffer.charAt(index);
+            if (c == c1 || c == c2)
+                return index;
+        }
+
+        return -1;
+    }
+
+    private static long pack(final char c0, final char c1, final char c2,
+        final char c3)
+    {
+        return c0 | (long) c1 << 16 | (long) c2 << 32 | (long) c3 << 48;
+    }
+
+    /*
+     * Test whether any 16 bit lane of a word is zero; borrows may flag the
+     * wrong lane, but never flag one if no lane is zero
+     */
+    private static boolean hasZeroLane(final long word)
+    {
+        return ((word - LANES_ONE) & ~word & LANES_HIGH) != 0L;
+    }
+}
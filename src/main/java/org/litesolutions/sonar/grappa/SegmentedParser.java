@@ -0,0 +1,178 @@
+package org.litesolutions.sonar.grappa;
+
+import com.sonar.sslr.api.AstNode;
+import com.sonar.sslr.api.GenericTokenType;
+import com.sonar.sslr.api.RecognitionException;
+import com.sonar.sslr.api.Token;
+import com.sonar.sslr.impl.matcher.RuleDefinition;
+import org.sonar.sslr.internal.matchers.LexerfulAstCreator;
+import org.sonar.sslr.internal.vm.CompiledGrammar;
+import org.sonar.sslr.internal.vm.Machine;
+import org.sonar.sslr.internal.vm.MutableGrammarCompiler;
+import org.sonar.sslr.internal.vm.ParseNode;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Parse independent top level segments of a token list in parallel
+ *
+ * <p>This only works for grammars whose root rule is of the form:</p>
+ *
+ * <pre>
+ *     builder.rule(ROOT).is(builder.zeroOrMore(MEMBER), GenericTokenType.EOF);
+ * </pre>
+ *
+ * <p>The token list is split before each token matching the boundary
+ * predicate; each segment is then parsed against the member rule on the common
+ * fork/join pool, and the resulting nodes are attached to a root node, in the
+ * same way {@link LexerfulAstCreator} would have done it.</p>
+ *
+ * <p>The result is the same as the one of a sequential parse only if, in the
+ * sequential parse, each member ends right before a boundary token. PEG parsing
+ * does not guarantee this; as a check, each segment is parsed with the tokens
+ * of the next segment (or the EOF token, for the last segment) following it,
+ * and the member must end exactly at the boundary. A member rule which would
+ * look further than the next segment to decide where it ends is not detected,
+ * and must not be used with this class.</p>
+ *
+ * <p>If the root rule does not have the expected shape, or if any segment
+ * does not parse to exactly one member node ending at its boundary, {@link
+ * #parse(List)} returns null and the caller is expected to parse the token
+ * list sequentially (which will also produce the appropriate {@link
+ * RecognitionException}).</p>
+ */
+final class SegmentedParser {
+
+    /**
+     * Minimum number of tokens for a parallel parse to be attempted
+     */
+    static final int MIN_TOKENS = 10000;
+
+    private final RuleDefinition rootRule;
+    private final CompiledGrammar rootGrammar;
+    private final CompiledGrammar memberGrammar;
+    private final Predicate<Token> boundary;
+
+    SegmentedParser(RuleDefinition rootRule, RuleDefinition memberRule, Predicate<Token> boundary) {
+        this.rootRule = rootRule;
+        this.rootGrammar = MutableGrammarCompiler.compile(rootRule);
+        this.memberGrammar = MutableGrammarCompiler.compile(memberRule);
+        this.boundary = boundary;
+    }
+
+    boolean appliesTo(RuleDefinition rule) {
+        return rule == rootRule;
+    }
+
+    @Nullable
+    AstNode parse(List<Token> tokens) {
+        if (tokens.size() < MIN_TOKENS) {
+            return null;
+        }
+
+        Token eof = tokens.get(tokens.size() - 1);
+        if (eof.getType() != GenericTokenType.EOF) {
+            return null;
+        }
+
+        AstNode template = parseEmpty(eof);
+        if (template == null) {
+            return null;
+        }
+
+        List<Integer> starts = new ArrayList<>();
+        starts.add(0);
+        for (int i = 1; i < tokens.size() - 1; i++) {
+            if (boundary.test(tokens.get(i))) {
+                starts.add(i);
+            }
+        }
+        starts.add(tokens.size() - 1);
+
+        List<AstNode> members = IntStream.range(0, starts.size() - 1)
+                .parallel()
+                .mapToObj(i -> parseSegment(tokens, starts.get(i), starts.get(i + 1),
+                        i + 2 < starts.size() ? starts.get(i + 2) : tokens.size()))
+                .collect(Collectors.toList());
+
+        if (members.contains(null)) {
+            return null;
+        }
+
+        AstNode root = new AstNode(template.getType(), template.getName(), tokens.get(0));
+        members.forEach(root::addChild);
+
+        AstNode eofNode = new AstNode(eof);
+        eofNode.setFromIndex(tokens.size() - 1);
+        eofNode.setToIndex(tokens.size());
+        root.addChild(eofNode);
+
+        root.setFromIndex(0);
+        root.setToIndex(tokens.size());
+        return root;
+    }
+
+    /*
+     * Parse a token list made of the sole EOF token; this both gives us the
+     * type and name of the root node, and checks the shape of the root rule.
+     */
+    @Nullable
+    private AstNode parseEmpty(Token eof) {
+        List<Token> tokens = Collections.singletonList(eof);
+        AstNode node;
+
+        try {
+            node = LexerfulAstCreator.create(Machine.parse(tokens, rootGrammar), tokens);
+        } catch (RecognitionException ignored) {
+            return null;
+        }
+
+        if (node.getNumberOfChildren() != 1 || node.getFirstChild().getToken() != eof) {
+            return null;
+        }
+
+        return node;
+    }
+
+    /*
+     * Parse the segment [start, end), followed by the tokens up to lookahead;
+     * the member must end at the boundary in spite of these extra tokens.
+     */
+    @Nullable
+    private AstNode parseSegment(List<Token> tokens, int start, int end, int lookahead) {
+        List<Token> input = tokens.subList(start, lookahead);
+        ParseNode parseNode;
+
+        try {
+            parseNode = Machine.parse(input, memberGrammar);
+        } catch (RecognitionException ignored) {
+            return null;
+        }
+
+        if (parseNode.getEndIndex() != end - start) {
+            return null;
+        }
+
+        AstNode node = LexerfulAstCreator.create(parseNode, input);
+        if (node.hasToBeSkippedFromAst()) {
+            return null;
+        }
+
+        shiftIndices(node, start);
+        return node;
+    }
+
+    private static void shiftIndices(AstNode node, int offset) {
+        node.setFromIndex(node.getFromIndex() + offset);
+        node.setToIndex(node.getToIndex() + offset);
+        for (AstNode child : node.getChildren()) {
+            shiftIndices(child, offset);
+        }
+    }
+}
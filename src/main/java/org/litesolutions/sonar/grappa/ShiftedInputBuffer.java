@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2016 Lite Solutions
+ *
+ *  This code is licensed under the Apache Software License version 2.
+ *  For more information, see the LICENSE file at the root of this package.
+ *
+ *  Should you not have the source code available, and the file above is
+ *  unavailable, you can obtain a copy of the license here:
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ */
+
+package org.litesolutions.sonar.grappa;
+
+import com.github.fge.grappa.buffers.InputBuffer;
+import com.github.fge.grappa.support.IndexRange;
+import com.github.fge.grappa.support.Position;
+
+/**
+ * An {@link InputBuffer} over an extract of a larger input
+ *
+ * <p>Line numbers are shifted so that positions (and therefore tokens) are
+ * reported relative to the original input.</p>
+ */
+final class ShiftedInputBuffer
+    implements InputBuffer
+{
+    private final InputBuffer delegate;
+    private final int lineOffset;
+
+    /**
+     * Constructor
+     *
+     * @param delegate the buffer over the extract
+     * @param lineOffset the number of lines in the original input before the
+     * extract
+     */
+    ShiftedInputBuffer(final InputBuffer delegate, final int lineOffset)
+    {
+        this.delegate = delegate;
+        this.lineOffset = lineOffset;
+    }
+
+    @Override
+    public char charAt(final int index)
+    {
+        return delegate.charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(final int start, final int end)
+    {
+        return delegate.subSequence(start, end);
+    }
+
+    @Override
+    public int codePointAt(final int index)
+    {
+        return delegate.codePointAt(index);
+    }
+
+    @Override
+    public String extract(final int start, final int end)
+    {
+        return delegate.extract(start, end);
+    }
+
+    @Override
+    public String extract(final IndexRange range)
+    {
+        return delegate.extract(range);
+    }
+
+    @Override
+    public Position getPosition(final int index)
+    {
+        final Position position = delegate.getPosition(index);
+        return new Position(position.getLine() + lineOffset,
+            position.getColumn());
+    }
+
+    @Override
+    public String extractLine(final int lineNumber)
+    {
+        return delegate.extractLine(lineNumber - lineOffset);
+    }
+
+    @Override
+    public IndexRange getLineRange(final int lineNumber)
+    {
+        return delegate.getLineRange(lineNumber - lineOffset);
+    }
+
+    @Override
+    public int getLineCount()
+    {
+        return delegate.getLineCount() + lineOffset;
+    }
+
+    @Override
+    public int length()
+    {
+        return delegate.length();
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright (c) 2016 Lite Solutions
+ *
+ *  This code is licensed under the Apache Software License version 2.
+ *  For more information, see the LICENSE file at the root of this package.
+ *
+ *  Should you not have the source code available, and the file above is
+ *  unavailable, you can obtain a copy of the license here:
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ */
+
+package org.litesolutions.sonar.grappa;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.sonar.sslr.grammar.GrammarRuleKey;
+import org.sonar.sslr.internal.matchers.LexerfulAstCreator;
+import org.sonar.sslr.internal.vm.CompiledGrammar;
+import org.sonar.sslr.internal.vm.Machine;
+import org.sonar.sslr.internal.vm.MutableGrammarCompiler;
+
+import com.sonar.sslr.api.AstNode;
+import com.sonar.sslr.api.Grammar;
+import com.sonar.sslr.api.Token;
+import com.sonar.sslr.impl.matcher.RuleDefinition;
+
+/**
+ * Parse many small snippets against arbitrary entry points
+ *
+ * <p>This is meant for grammar test suites. Getting a parser from a {@link
+ * GrappaSslrFactory} for each snippet means building the SSLR grammar, setting
+ * up a new {@link GrappaChannel} and compiling the grammar, each time; a
+ * snippet parser instead builds the grammar once, compiles it once per entry
+ * point, and keeps one lexer (with a lexing arena) per thread.</p>
+ *
+ * <p>Note that the entry point only applies to the SSLR grammar; snippets are
+ * always lexed using the main rule of the grappa parser.</p>
+ *
+ * <p>Typical usage:</p>
+ *
+ * <pre>
+ *     final SnippetParser parser = factory.getSnippetParser();
+ *
+ *     final List&lt;SnippetParser.Result&gt; results = parser.parseAll(Stream.of(
+ *         SnippetParser.Snippet.of(MyGrammar.EXPRESSION, "a + b"),
+ *         SnippetParser.Snippet.of(MyGrammar.STATEMENT, "x = 1;")
+ *     ), true);
+ * </pre>
+ *
+ * @see GrappaSslrFactory#getSnippetParser()
+ */
+@ThreadSafe
+public final class SnippetParser
+{
+    private final Grammar grammar;
+    private final ThreadLocal<GrappaSslrLexer> lexers;
+    private final Map<GrammarRuleKey, CompiledGrammar> compiled
+        = new ConcurrentHashMap<>();
+
+    SnippetParser(final Grammar grammar,
+        final Supplier<GrappaSslrLexer> lexerSupplier)
+    {
+        this.grammar = grammar;
+        lexers = ThreadLocal.withInitial(lexerSupplier);
+    }
+
+    /**
+     * Parse a snippet
+     *
+     * <p>As with a Sonar parser, the entry point does not need to match the
+     * whole snippet; see {@link Result#isFullMatch()}.</p>
+     *
+     * @param entryPoint the entry point
+     * @param source the snippet
+     * @return the root node
+     * @throws com.sonar.sslr.api.RecognitionException the snippet cannot be
+     * lexed, or does not match the entry point
+     */
+    public AstNode parse(final GrammarRuleKey entryPoint, final String source)
+    {
+        final List<Token> tokens = lexers.get().lex(source);
+        return parse(entryPoint, tokens);
+    }
+
+    private AstNode parse(final GrammarRuleKey entryPoint,
+        final List<Token> tokens)
+    {
+        final CompiledGrammar g = compiled.computeIfAbsent(
+            Objects.requireNonNull(entryPoint), key ->
+                MutableGrammarCompiler.compile((RuleDefinition) grammar.rule(key))
+        );
+
+        return LexerfulAstCreator.create(Machine.parse(tokens, g), tokens);
+    }
+
+    /**
+     * Parse snippets
+     *
+     * <p>Failures are reported in the results, and do not stop the other
+     * parses. Parallel parsing uses the common fork/join pool.</p>
+     *
+     * @param snippets the snippets
+     * @param parallel whether to parse snippets in parallel
+     * @return the results, in the order of the snippets
+     */
+    public List<Result> parseAll(final Stream<Snippet> snippets,
+        final boolean parallel)
+    {
+        final Stream<Snippet> stream = parallel ? snippets.parallel()
+            : snippets.sequential();
+        return stream.map(this::tryParse).collect(Collectors.toList());
+    }
+
+    private Result tryParse(final Snippet snippet)
+    {
+        try {
+            final List<Token> tokens = lexers.get().lex(snippet.source);
+            return new Result(snippet, parse(snippet.entryPoint, tokens),
+                tokens.size() - 1, null);
+        } catch (RuntimeException e) {
+            return new Result(snippet, null, 0, e);
+        }
+    }
+
+    @Immutable
+    public static final class Snippet
+    {
+        private final GrammarRuleKey entryPoint;
+        private final String source;
+
+        public static Snippet of(final GrammarRuleKey entryPoint,
+            final String source)
+        {
+            return new Snippet(entryPoint, source);
+        }
+
+        private Snippet(final GrammarRuleKey entryPoint, final String source)
+        {
+            this.entryPoint = Objects.requireNonNull(entryPoint);
+            this.source = Objects.requireNonNull(source);
+        }
+
+        public GrammarRuleKey getEntryPoint()
+        {
+            return entryPoint;
+        }
+
+        public String getSource()
+        {
+            return source;
+        }
+
+        @Override
+        public String toString()
+        {
+            return entryPoint + ": " + source;
+        }
+    }
+
+    /**
+     * The result of the parse of a snippet
+     *
+     * <p>Exactly one of {@link #getNode()} and {@link #getFailure()} is not
+     * null.</p>
+     */
+    @Immutable
+    public static final class Result
+    {
+        private final Snippet snippet;
+        @Nullable
+        private final AstNode node;
+        private final int tokenCount;
+        @Nullable
+        private final RuntimeException failure;
+
+        private Result(final Snippet snippet, @Nullable final AstNode node,
+            final int tokenCount, @Nullable final RuntimeException failure)
+        {
+            this.snippet = snippet;
+            this.node = node;
+            this.tokenCount = tokenCount;
+            this.failure = failure;
+        }
+
+        public Snippet getSnippet()
+        {
+            return snippet;
+        }
+
+        public boolean isSuccess()
+        {
+            return failure == null;
+        }
+
+        /**
+         * Tell whether the entry point matched all tokens of the snippet
+         *
+         * <p>The final EOF token is not taken into account.</p>
+         *
+         * @return true if this is the case
+         */
+        public boolean isFullMatch()
+        {
+            return node != null && node.getToIndex() >= tokenCount;
+        }
+
+        @Nullable
+        public AstNode getNode()
+        {
+            return node;
+        }
+
+        @Nullable
+        public RuntimeException getFailure()
+        {
+            return failure;
+        }
+
+        @Override
+        public String toString()
+        {
+            return snippet + (failure == null ? " (success)"
+                : " (failure: " + failure.getMessage() + ')');
+        }
+    }
+}
@@ -13,12 +13,25 @@
 
  package org.litesolutions.sonar.grappa;
 
+ import java.util.Objects;
+
+ import com.github.fge.grappa.buffers.InputBuffer;
  import com.github.fge.grappa.parsers.EventBusParser;
+ import com.github.fge.grappa.rules.Rule;
  import com.github.fge.grappa.run.context.Context;
  import com.github.fge.grappa.support.Position;
+ import com.google.common.eventbus.EventBus;
+ import com.google.common.eventbus.Subscribe;
  import com.sonar.sslr.api.Token;
  import com.sonar.sslr.api.Token.Builder;
  import com.sonar.sslr.api.TokenType;
+ import org.litesolutions.sonar.grappa.matchers.CharClass;
+ import org.litesolutions.sonar.grappa.matchers.CharClassMatcher;
+ import org.litesolutions.sonar.grappa.matchers.CharRunMatcher;
+ import org.litesolutions.sonar.grappa.matchers.DispatchingChoiceMatcher;
+ import org.litesolutions.sonar.grappa.matchers.FirstCharDispatch;
+ import org.litesolutions.sonar.grappa.matchers.TriviaMatcher;
+ import org.sonar.sslr.grammar.GrammarRuleKey;
 
  /**
   * The base (grappa) parser class to extend
@@ -44,6 +57,9 @@
  public abstract class SonarParserBase
      extends EventBusParser<Token.Builder>
  {
+     private final ParserEventDispatcher dispatcher
+         = new ParserEventDispatcher();
+
      public boolean pushToken(final TokenType tokenType)
      {
          final Context<Token.Builder> context = getContext();
@@ -51,12 +67,215 @@
          final Position position
              = context.getInputBuffer().getPosition(startIndex);
 
-         final Token.Builder token = Token.builder()
-             .setValueAndOriginalValue(match())
-             .setLine(position.getLine())
-             .setColumn(position.getColumn())
-             .setType(tokenType);
+         return push(TokenBuilders.create(tokenType, match(),
+             position.getLine(), position.getColumn()));
+     }
+
+     /**
+      * Push a keyword token, or a token of the given type
+      *
+      * <p>The text matched by the immediately preceding rule is looked up in
+      * the keyword table; if it is a keyword, the token pushed is of the
+      * keyword's type, otherwise it is of the given type. This allows to
+      * replace:</p>
+      *
+      * <pre>
+      *     return firstOf(
+      *         sequence(firstOf("KW1", "KW2", ...), pushToken(...)),
+      *         sequence(identifier(), pushToken(MyTokens.IDENTIFIER))
+      *     );
+      * </pre>
+      *
+      * <p>with:</p>
+      *
+      * <pre>
+      *     return sequence(identifier(),
+      *         pushKeywordOrToken(KEYWORDS, MyTokens.IDENTIFIER));
+      * </pre>
+      *
+      * <p>where {@code KEYWORDS} is a constant built using, for instance,
+      * {@link KeywordTable#of(Class)}.</p>
+      *
+      * @param keywords the keyword table
+      * @param tokenType the token type to use if the match is not a keyword
+      * @return always true
+      */
+     public boolean pushKeywordOrToken(final KeywordTable keywords,
+         final TokenType tokenType)
+     {
+         final Context<Token.Builder> context = getContext();
+         final TokenType keyword = keywords.lookup(context.getInputBuffer(),
+             context.getMatchStartIndex(), context.getMatchEndIndex());
+
+         return pushToken(keyword != null ? keyword : tokenType);
+     }
+
+     /**
+      * Register a listener with this parser's synchronous dispatcher
+      *
+      * <p>This is an alternative to {@link #register(Object)}: listener
+      * methods are found in the same way (methods annotated with {@link
+      * Subscribe}), but events posted with {@link #dispatch(Object)} are
+      * delivered through lambdas spun once per subscriber method, without going
+      * through the locking and reflection of the {@link EventBus}.</p>
+      *
+      * <p>Note that the two mechanisms are independent: a listener registered
+      * with this method does not receive events posted with {@link
+      * #post(Object)}, and conversely.</p>
+      *
+      * @param listener the listener
+      *
+      * @see ParserEventDispatcher
+      */
+     public final void subscribe(final Object listener)
+     {
+         dispatcher.subscribe(listener);
+     }
+
+     /**
+      * Dispatch an event to the listeners registered with {@link
+      * #subscribe(Object)}
+      *
+      * <p>Handlers are called synchronously; an exception thrown by a handler
+      * propagates to the caller.</p>
+      *
+      * @param event the event
+      * @return always true
+      */
+     public boolean dispatch(final Object event)
+     {
+         dispatcher.dispatch(Objects.requireNonNull(event));
+         return true;
+     }
+
+     /**
+      * Declare a commit point
+      *
+      * <p>By using this method, you guarantee that the parser will never
+      * backtrack before the current index. When the input is a {@link
+      * WindowedInputBuffer}, this allows it to discard all text before this
+      * index; with other input buffers, this method does nothing.</p>
+      *
+      * <p>The typical place for a commit point is after each top level
+      * declaration of a source file:</p>
+      *
+      * <pre>
+      *     public Rule file()
+      *     {
+      *         return sequence(zeroOrMore(declaration(), commit()), EOI);
+      *     }
+      * </pre>
+      *
+      * @return always true
+      */
+     public boolean commit()
+     {
+         final Context<Token.Builder> context = getContext();
+         final InputBuffer buffer = context.getInputBuffer();
 
-         return push(token);
+         if (buffer instanceof WindowedInputBuffer)
+             ((WindowedInputBuffer) buffer).release(context.getCurrentIndex());
+
+         return true;
+     }
+
+     /**
+      * Mark the boundaries of an AST node
+      *
+      * <p>In single pass mode (see {@link
+      * GrappaSslrFactory.Builder#withSinglePass()}), the AST is built from
+      * these boundaries instead of by parsing the token list with the SSLR
+      * grammar: the node is of the given key's type, and its children are the
+      * nodes and tokens pushed by the rule. The main rule must be wrapped in
+      * such a node, which becomes the root node:</p>
+      *
+      * <pre>
+      *     public Rule file()
+      *     {
+      *         return node(MyGrammar.FILE, sequence(zeroOrMore(statement()), EOI));
+      *     }
+      *
+      *     public Rule statement()
+      *     {
+      *         return node(MyGrammar.STATEMENT, sequence(expression(), semicolon()));
+      *     }
+      * </pre>
+      *
+      * <p>In the default mode, node boundaries are ignored; the same grammar
+      * can therefore be used in both modes.</p>
+      *
+      * @param key the key of the node
+      * @param rule the rule matching the contents of the node
+      * @return a rule
+      */
+     public Rule node(final GrammarRuleKey key, final Object rule)
+     {
+         return sequence(new NodeMarker(key, true), rule,
+             new NodeMarker(key, false));
+     }
+
+     /**
+      * Match one character of a character class
+      *
+      * <p>Unlike {@code anyOf()}, the lookup of ASCII characters is a single
+      * bitset test.</p>
+      *
+      * @param charClass the character class
+      * @return a rule
+      */
+     public Rule charClass(final CharClass charClass)
+     {
+         return new CharClassMatcher(charClass, "charClass");
+     }
+
+     /**
+      * Match a run of one or more characters of a character class
+      *
+      * <p>This is equivalent to {@code oneOrMore(charClass(charClass))}, except
+      * that the whole run is consumed in a single matcher call.</p>
+      *
+      * @param charClass the character class
+      * @return a rule
+      */
+     public Rule charRun(final CharClass charClass)
+     {
+         return new CharRunMatcher(charClass, 1, "charRun");
+     }
+
+     /**
+      * An ordered choice dispatching on the first character
+      *
+      * <p>This behaves exactly like {@code firstOf()}; however, once the
+      * analysis of {@link FirstCharDispatch} has been run (which {@link
+      * GrappaSslrFactory} always does), alternatives which cannot start with
+      * the current character are not tried at all.</p>
+      *
+      * @param rule the first alternative
+      * @param rule2 the second alternative
+      * @param moreRules further alternatives
+      * @return a rule
+      */
+     public Rule dispatchFirstOf(final Object rule, final Object rule2,
+         final Object... moreRules)
+     {
+         final Rule[] rules = new Rule[moreRules.length + 2];
+         rules[0] = toRule(rule);
+         rules[1] = toRule(rule2);
+         for (int i = 0; i < moreRules.length; i++)
+             rules[i + 2] = toRule(moreRules[i]);
+         return new DispatchingChoiceMatcher(rules);
+     }
+
+     /**
+      * Skip whitespace and comments
+      *
+      * <p>This rule always succeeds; see {@link TriviaMatcher} for details.</p>
+      *
+      * @param trivia the builder describing whitespace and comments
+      * @return a rule
+      */
+     public Rule trivia(final TriviaMatcher.Builder trivia)
+     {
+         return trivia.build("trivia");
      }
  }
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2016 Lite Solutions
+ *
+ *  This code is licensed under the Apache Software License version 2.
+ *  For more information, see the LICENSE file at the root of this package.
+ *
+ *  Should you not have the source code available, and the file above is
+ *  unavailable, you can obtain a copy of the license here:
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ */
+
+package org.litesolutions.sonar.grappa;
+
+/**
+ * Tell where a large input can be safely split for parallel lexing
+ *
+ * <p>This method is only ever called at the start of a line. It should return
+ * true if and only if the main (grappa) rule, applied to the text starting at
+ * this index, would produce the same tokens as when it is applied to the whole
+ * input; typically, this is the start of a top level declaration which is not
+ * within a comment or a string literal.</p>
+ *
+ * <p>If any chunk fails to lex fully, the whole input is lexed sequentially.
+ * A wrong split point may however lex fully on both sides and still produce
+ * wrong tokens (a split within a block comment, for instance); this is why,
+ * by default, each seam is verified by lexing the two chunks around it as a
+ * whole and comparing the tokens, falling back to sequential lexing on a
+ * mismatch. This doubles the lexing work (though still in parallel); a
+ * strategy which is known to be exact can opt out with {@link
+ * #verifySeams()}, in which case correctness depends on the strategy
+ * alone.</p>
+ *
+ * @see GrappaSslrFactory.Builder#withSplitPointStrategy(SplitPointStrategy)
+ */
+@FunctionalInterface
+public interface SplitPointStrategy
+{
+    /**
+     * Default minimum size of a chunk, in characters
+     */
+    int DEFAULT_MIN_CHUNK_SIZE = 1 << 18;
+
+    /**
+     * Tell whether the input can be split at a given index
+     *
+     * <p>The input is a view of the code being lexed: it supports {@link
+     * CharSequence#subSequence(int, int)}, which returns another view without
+     * copying characters, but {@link CharSequence#toString()} copies the whole
+     * range. Strategies should therefore only look at the few characters
+     * around the index.</p>
+     *
+     * @param input the whole input
+     * @param index the index of the first character of a line
+     * @return true if a chunk can start at this index
+     */
+    boolean isSplitPoint(CharSequence input, int index);
+
+    /**
+     * Return the minimum size of a chunk
+     *
+     * <p>Inputs smaller than twice this size are always lexed
+     * sequentially.</p>
+     *
+     * @return the size, in characters
+     */
+    default int getMinChunkSize()
+    {
+        return DEFAULT_MIN_CHUNK_SIZE;
+    }
+
+    /**
+     * Tell whether seams between chunks should be verified
+     *
+     * <p>The default is true. Only return false if this strategy never
+     * returns true for an index within a token.</p>
+     *
+     * @return true to verify seams
+     */
+    default boolean verifySeams()
+    {
+        return true;
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2016 Lite Solutions
+ *
+ *  This code is licensed under the Apache Software License version 2.
+ *  For more information, see the LICENSE file at the root of this package.
+ *
+ *  Should you not have the source code available, and the file above is
+ *  unavailable, you can obtain a copy of the license here:
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ */
+
+package org.litesolutions.sonar.grappa;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.github.fge.grappa.stack.ValueStack;
+import com.sonar.sslr.api.Token;
+import com.sonar.sslr.api.TokenType;
+
+/**
+ * Create token builders whose type the lexer can find out
+ *
+ * <p>{@link Token.Builder} has no getter for the token type; yet, to build each
+ * token only once, the lexer needs to know the type of a builder before
+ * building it: comments become trivia of the following token, and node
+ * markers are not tokens at all. The type of builders created by this class
+ * is therefore recorded, from the start of the parse which creates them until
+ * the lexer collects them.</p>
+ *
+ * <p>The tokens pushed by {@link SonarParserBase#pushToken(TokenType)}, by
+ * {@link org.litesolutions.sonar.grappa.matchers.TriviaMatcher} and by node
+ * markers are all created by this class; if your grammar pushes builders of
+ * its own, create them with {@link #create(TokenType, String, int, int)} too.
+ * Other builders still work, but they are built once to find out their type,
+ * and a second time if trivia must be attached to them.</p>
+ *
+ * <p>A parse runs on a single thread, and types are recorded per thread.
+ * Outside of a parse run by a {@link GrappaChannel}, nothing is recorded.</p>
+ */
+@ThreadSafe
+public final class TokenBuilders
+{
+    /*
+     * Above this number of builders, the map of a thread is not reused
+     */
+    private static final int MAX_RETAINED = 1 << 16;
+
+    private static final ThreadLocal<Recorder> RECORDERS
+        = ThreadLocal.withInitial(Recorder::new);
+
+    private TokenBuilders()
+    {
+        throw new Error("nice try!");
+    }
+
+    /**
+     * Create a token builder
+     *
+     * <p>The URI of the token is set by the lexer.</p>
+     *
+     * @param type the token type
+     * @param value the value (and original value) of the token
+     * @param line the line of the token
+     * @param column the column of the token
+     * @return a new builder
+     */
+    public static Token.Builder create(final TokenType type,
+        final String value, final int line, final int column)
+    {
+        final Token.Builder ret = Token.builder()
+            .setValueAndOriginalValue(value)
+            .setLine(line)
+            .setColumn(column)
+            .setType(type);
+
+        final Recorder recorder = RECORDERS.get();
+        if (recorder.active)
+            recorder.types.put(ret, type);
+
+        return ret;
+    }
+
+    /*
+     * Start recording the types of builders created on this thread, and
+     * forget those recorded so far; called before each parse
+     */
+    static void begin()
+    {
+        final Recorder recorder = RECORDERS.get();
+        recorder.clear();
+        recorder.active = true;
+    }
+
+    /*
+     * Stop recording, and forget recorded types; called after each parse.
+     * Calling it more than once is harmless.
+     */
+    static void end()
+    {
+        final Recorder recorder = RECORDERS.get();
+        recorder.clear();
+        recorder.active = false;
+    }
+
+    /*
+     * Collect the builders of a value stack, from the bottom up, along with
+     * their types, then end recording. This must be called on the thread
+     * which ran the parse.
+     *
+     * Stacks iterate from the top down, and peeking deep into a stack may not
+     * be a constant time operation; the stack is therefore copied into an
+     * array, in reverse.
+     */
+    static Collected collect(final ValueStack<Token.Builder> stack)
+    {
+        final Token.Builder[] builders = new Token.Builder[stack.size()];
+        int index = builders.length;
+        for (final Token.Builder builder: stack)
+            builders[--index] = builder;
+
+        final Map<Token.Builder, TokenType> recorded
+            = RECORDERS.get().types;
+        final TokenType[] types = new TokenType[builders.length];
+
+        if (!recorded.isEmpty())
+            for (int i = 0; i < builders.length; i++)
+                types[i] = recorded.get(builders[i]);
+
+        end();
+        return new Collected(builders, types);
+    }
+
+    /*
+     * The builders of a value stack, bottom up, and their types; the type is
+     * null for builders not created by this class.
+     */
+    static final class Collected
+    {
+        final Token.Builder[] builders;
+        final TokenType[] types;
+
+        private Collected(final Token.Builder[] builders,
+            final TokenType[] types)
+        {
+            this.builders = builders;
+            this.types = types;
+        }
+    }
+
+    private static final class Recorder
+    {
+        private Map<Token.Builder, TokenType> types = new IdentityHashMap<>();
+        private boolean active = false;
+
+        private void clear()
+        {
+            if (types.size() > MAX_RETAINED)
+                types = new IdentityHashMap<>();
+            else if (!types.isEmpty())
+                types.clear();
+        }
+    }
+}
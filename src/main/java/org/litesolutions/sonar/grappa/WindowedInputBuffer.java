@@ -0,0 +1,286 @@
+/*
+ * Copyright (c) 2016 Lite Solutions
+ *
+ *  This code is licensed under the Apache Software License version 2.
+ *  For more information, see the LICENSE file at the root of this package.
+ *
+ *  Should you not have the source code available, and the file above is
+ *  unavailable, you can obtain a copy of the license here:
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ */
+
+package org.litesolutions.sonar.grappa;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Objects;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import com.github.fge.grappa.buffers.InputBuffer;
+import com.github.fge.grappa.support.IndexRange;
+import com.github.fge.grappa.support.Position;
+import com.google.common.base.Preconditions;
+
+/**
+ * An {@link InputBuffer} only keeping a sliding window of the input in memory
+ *
+ * <p>This buffer is meant for very large (typically generated) source files.
+ * Unlike {@link CodeReaderInputBuffer}, the text is never fully materialized:
+ * the file is read a first time to compute its length and line offsets (which
+ * only cost one {@code int} per line), then a second time, on demand, as the
+ * parser advances.</p>
+ *
+ * <p>Characters before the <em>low-water mark</em> are discarded when the
+ * window needs to be refilled. The low-water mark is advanced by {@link
+ * #release(int)}, which grammars call indirectly through {@link
+ * SonarParserBase#commit()} at points where they know the parser will never
+ * backtrack (typically, after each top level declaration). Accessing a
+ * character below the low-water mark is an error.</p>
+ *
+ * <p>Note that the window grows if the parser needs more characters than the
+ * window can hold while no commit point has been reached; the heap budget is
+ * therefore only honored if the grammar commits regularly.</p>
+ *
+ * <p>Columns reported by {@link #getPosition(int)} start at 0, as is the case
+ * for {@link CodeReaderInputBuffer}.</p>
+ */
+@NotThreadSafe
+public final class WindowedInputBuffer
+    implements InputBuffer, Closeable
+{
+    /**
+     * Default window size, in characters
+     */
+    public static final int DEFAULT_WINDOW_SIZE = 1 << 16;
+
+    private static final int READ_BUFFER_SIZE = 8192;
+
+    private final Reader reader;
+    private final int length;
+    private final LineOffsets lines = new LineOffsets();
+
+    private char[] window;
+    /*
+     * Index of the first character in the window
+     */
+    private int windowStart = 0;
+    /*
+     * Index of the first character not yet read into the window
+     */
+    private int windowEnd = 0;
+    private int lowWaterMark = 0;
+
+    /**
+     * Constructor
+     *
+     * @param path the path to the file
+     * @param charset the charset of the file
+     * @param windowSize the initial size of the window, in characters
+     * @throws IOException failed to read from the file
+     */
+    public WindowedInputBuffer(@Nonnull final Path path,
+        @Nonnull final Charset charset, final int windowSize)
+        throws IOException
+    {
+        Objects.requireNonNull(path);
+        Objects.requireNonNull(charset);
+        Preconditions.checkArgument(windowSize > 0,
+            "window size must be strictly positive");
+        length = indexLines(path, charset);
+        window = new char[windowSize];
+        reader = Files.newBufferedReader(path, charset);
+    }
+
+    /**
+     * Release all characters before the given index
+     *
+     * <p>Once this method has been called, the parser must not attempt to
+     * access characters before this index again.</p>
+     *
+     * @param index the new low-water mark
+     */
+    public void release(final int index)
+    {
+        lowWaterMark = Math.max(lowWaterMark, Math.min(index, windowEnd));
+    }
+
+    @Override
+    public char charAt(final int index)
+    {
+        if (index < 0 || index >= length)
+            return (char) -1;
+        ensureLoaded(index, index + 1);
+        return window[index - windowStart];
+    }
+
+    @Override
+    public CharSequence subSequence(final int start, final int end)
+    {
+        if (start < 0 || end > length || start > end)
+            throw new IndexOutOfBoundsException("Invalid subsequence range: "
+                + start + " to " + end);
+        return extract(start, end);
+    }
+
+    @Override
+    public int codePointAt(final int index)
+    {
+        if (index >= length)
+            return -1;
+        if (index < 0)
+            throw new IllegalArgumentException("index is negative");
+
+        final char c = charAt(index);
+        if (!Character.isHighSurrogate(c))
+            return c;
+        if (index == length - 1)
+            return c;
+        final char c2 = charAt(index + 1);
+        return Character.isLowSurrogate(c2) ? Character.toCodePoint(c, c2) : c;
+    }
+
+    @Override
+    public String extract(final int start, final int end)
+    {
+        final int realStart = Math.max(start, 0);
+        final int realEnd = Math.min(end, length);
+        if (realStart >= realEnd)
+            return "";
+        ensureLoaded(realStart, realEnd);
+        return new String(window, realStart - windowStart,
+            realEnd - realStart);
+    }
+
+    @Override
+    public String extract(final IndexRange range)
+    {
+        return extract(range.start, range.end);
+    }
+
+    @Override
+    public Position getPosition(final int index)
+    {
+        final int line = lines.getLineNumber(index);
+        return new Position(line, index - lines.getLineStart(line));
+    }
+
+    @Override
+    public String extractLine(final int lineNumber)
+    {
+        Preconditions.checkArgument(lineNumber > 0, "line number is negative");
+        final IndexRange range = getLineRange(lineNumber);
+        final int start = range.start;
+        int end = range.end;
+        if (charAt(end - 1) == '\n')
+            end--;
+        if (charAt(end - 1) == '\r')
+            end--;
+        return extract(start, end);
+    }
+
+    @Override
+    public IndexRange getLineRange(final int lineNumber)
+    {
+        final int start = lines.getLineStart(lineNumber);
+        final int end = lineNumber == lines.getNrLines() ? length
+            : lines.getLineStart(lineNumber + 1);
+        return new IndexRange(start, end);
+    }
+
+    @Override
+    public int getLineCount()
+    {
+        return lines.getNrLines();
+    }
+
+    @Override
+    public int length()
+    {
+        return length;
+    }
+
+    @Override
+    public void close()
+        throws IOException
+    {
+        reader.close();
+    }
+
+    private int indexLines(final Path path, final Charset charset)
+        throws IOException
+    {
+        final char[] buf = new char[READ_BUFFER_SIZE];
+        int total = 0;
+        int nrChars;
+
+        try (Reader indexReader = Files.newBufferedReader(path, charset)) {
+            while ((nrChars = indexReader.read(buf)) != -1) {
+                lines.addLines(buf, 0, nrChars, total);
+                total += nrChars;
+            }
+        }
+
+        return total;
+    }
+
+    /*
+     * Make sure that characters from start (inclusive) to end (exclusive) are
+     * in the window
+     */
+    private void ensureLoaded(final int start, final int end)
+    {
+        if (start < windowStart)
+            throw new IllegalStateException("index " + start + " is below the"
+                + " low-water mark (" + lowWaterMark + ')');
+        if (end <= windowEnd)
+            return;
+
+        /*
+         * First, drop everything before the low-water mark...
+         */
+        final int drop = lowWaterMark - windowStart;
+        if (drop > 0) {
+            System.arraycopy(window, drop, window, 0, windowEnd - lowWaterMark);
+            windowStart = lowWaterMark;
+        }
+
+        /*
+         * ... then grow the window if this is still not enough...
+         */
+        final int needed = end - windowStart;
+        if (needed > window.length)
+            window = Arrays.copyOf(window, Math.max(needed, window.length * 2));
+
+        /*
+         * ... and fill it as much as we can.
+         */
+        int offset = windowEnd - windowStart;
+        int nrChars;
+
+        try {
+            while (offset < window.length && windowEnd < length) {
+                nrChars = reader.read(window, offset, window.length - offset);
+                if (nrChars == -1)
+                    break;
+                offset += nrChars;
+                windowEnd += nrChars;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        if (end > windowEnd)
+            throw new IllegalStateException("unexpected end of input at index "
+                + windowEnd + " (expected length: " + length + ')');
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2016 Lite Solutions
+ *
+ *  This code is licensed under the Apache Software License version 2.
+ *  For more information, see the LICENSE file at the root of this package.
+ *
+ *  Should you not have the source code available, and the file above is
+ *  unavailable, you can obtain a copy of the license here:
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ */
+
+package org.litesolutions.sonar.grappa.analysis;
+
+import java.util.Objects;
+
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * A performance or correctness hazard found in a grammar
+ *
+ * @see GrammarHazardAnalyzer
+ */
+@Immutable
+public final class GrammarHazard
+{
+    public enum Severity
+    {
+        /**
+         * The grammar is broken: it loops forever, fails at runtime, or has
+         * rules which can never match
+         */
+        ERROR,
+        /**
+         * The grammar works, but likely not as intended, or with needless
+         * backtracking
+         */
+        WARNING,
+    }
+
+    public enum Kind
+    {
+        /**
+         * The body of a loop can match empty
+         */
+        EMPTY_LOOP_BODY(Severity.ERROR),
+        /**
+         * The body of a loop is itself an optional or a zero or more
+         */
+        OPTIONAL_IN_LOOP(Severity.ERROR),
+        /**
+         * An alternative of a choice always succeeds, so the alternatives
+         * after it are never tried
+         */
+        UNREACHABLE_ALTERNATIVE(Severity.ERROR),
+        /**
+         * An earlier alternative of a choice matches whatever a later,
+         * literal, alternative would match
+         */
+        SHADOWED_ALTERNATIVE(Severity.WARNING),
+        /**
+         * A rule can call itself without consuming any input
+         */
+        LEFT_RECURSION(Severity.ERROR),
+        /**
+         * The SSLR grammar of the grammar injector cannot be compiled or
+         * run
+         */
+        SSLR_GRAMMAR(Severity.ERROR),
+        ;
+
+        private final Severity severity;
+
+        Kind(final Severity severity)
+        {
+            this.severity = severity;
+        }
+
+        public Severity getSeverity()
+        {
+            return severity;
+        }
+    }
+
+    private final Kind kind;
+    private final String rule;
+    private final String message;
+
+    GrammarHazard(final Kind kind, final String rule, final String message)
+    {
+        this.kind = Objects.requireNonNull(kind);
+        this.rule = Objects.requireNonNull(rule);
+        this.message = Objects.requireNonNull(message);
+    }
+
+    public Kind getKind()
+    {
+        return kind;
+    }
+
+    public Severity getSeverity()
+    {
+        return kind.getSeverity();
+    }
+
+    /**
+     * Get the label of the rule in which the hazard was found
+     *
+     * @return the label
+     */
+    public String getRule()
+    {
+        return rule;
+    }
+
+    public String getMessage()
+    {
+        return message;
+    }
+
+    @Override
+    public String toString()
+    {
+        return kind.getSeverity() + " " + kind + " in rule " + rule + ": "
+            + message;
+    }
+}
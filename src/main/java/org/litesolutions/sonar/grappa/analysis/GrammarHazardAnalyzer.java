@@ -0,0 +1,457 @@
+/*
+ * Copyright (c) 2016 Lite Solutions
+ *
+ *  This code is licensed under the Apache Software License version 2.
+ *  For more information, see the LICENSE file at the root of this package.
+ *
+ *  Should you not have the source code available, and the file above is
+ *  unavailable, you can obtain a copy of the license here:
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ */
+
+package org.litesolutions.sonar.grappa.analysis;
+
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+import org.litesolutions.sonar.grappa.GrappaSslrFactory;
+import org.litesolutions.sonar.grappa.injector.GrammarInjector;
+import org.litesolutions.sonar.grappa.matchers.DispatchingChoiceMatcher;
+import org.sonar.sslr.grammar.GrammarRuleKey;
+import org.sonar.sslr.grammar.LexerfulGrammarBuilder;
+import org.sonar.sslr.internal.vm.CompiledGrammar;
+import org.sonar.sslr.internal.vm.Machine;
+import org.sonar.sslr.internal.vm.MutableGrammarCompiler;
+
+import com.github.fge.grappa.buffers.CharSequenceInputBuffer;
+import com.github.fge.grappa.matchers.EmptyMatcher;
+import com.github.fge.grappa.matchers.MatcherType;
+import com.github.fge.grappa.matchers.base.Matcher;
+import com.github.fge.grappa.matchers.delegate.FirstOfMatcher;
+import com.github.fge.grappa.matchers.delegate.OneOrMoreMatcher;
+import com.github.fge.grappa.matchers.delegate.OptionalMatcher;
+import com.github.fge.grappa.matchers.delegate.SequenceMatcher;
+import com.github.fge.grappa.matchers.delegate.ZeroOrMoreMatcher;
+import com.github.fge.grappa.matchers.wrap.ProxyMatcher;
+import com.github.fge.grappa.rules.Rule;
+import com.github.fge.grappa.run.ParseEventListener;
+import com.github.fge.grappa.run.ParseRunner;
+import com.github.fge.grappa.run.context.MatcherContext;
+import com.github.fge.grappa.run.events.MatchSuccessEvent;
+import com.sonar.sslr.api.GenericTokenType;
+import com.sonar.sslr.api.RecognitionException;
+import com.sonar.sslr.api.Token;
+import com.sonar.sslr.impl.matcher.RuleDefinition;
+
+/**
+ * Find structural hazards in a grammar
+ *
+ * <p>For a grappa rule, this analyzer walks all matchers reachable from the
+ * rule and reports:</p>
+ *
+ * <ul>
+ *     <li>loops whose body can match empty, in particular {@code
+ *     zeroOrMore(optional(...))} and similar;</li>
+ *     <li>choices with an alternative which always succeeds, followed by other
+ *     alternatives;</li>
+ *     <li>choices where an earlier alternative matches the literal of a later
+ *     one (for instance, {@code firstOf("=", "==")});</li>
+ *     <li>rules which can call themselves without consuming input.</li>
+ * </ul>
+ *
+ * <p>Whether a terminal matcher can match empty, and whether an alternative
+ * matches a literal, is found out by running the matchers against short
+ * inputs; alternatives containing actions are never run. As with {@link
+ * org.litesolutions.sonar.grappa.matchers.FirstCharDispatch}, this means that
+ * the analysis is meant to be run once, when a parser is built.</p>
+ *
+ * <p>For an SSLR grammar, the grammar is built and compiled from its entry
+ * point, and run against a token list made of the sole EOF token; failures
+ * other than a recognition failure (undefined rules, left recursion on the
+ * way) are reported.</p>
+ *
+ * @see GrappaSslrFactory.Builder#withHazardListener(java.util.function.Consumer)
+ */
+public final class GrammarHazardAnalyzer
+{
+    private final Map<Matcher, String> owners = new IdentityHashMap<>();
+    private final List<Matcher> matchers = new ArrayList<>();
+    private final Set<Matcher> nullable = newSet();
+    private final Set<Matcher> alwaysMatch = newSet();
+    private final Set<Matcher> withActions = newSet();
+    private final List<GrammarHazard> hazards = new ArrayList<>();
+
+    /**
+     * Analyze a grappa rule
+     *
+     * @param rule the rule
+     * @return the hazards found
+     */
+    public static List<GrammarHazard> analyze(final Rule rule)
+    {
+        final GrammarHazardAnalyzer analyzer = new GrammarHazardAnalyzer();
+        analyzer.collect((Matcher) rule);
+        analyzer.computeProperties();
+        analyzer.checkLoopsAndChoices();
+        analyzer.checkLeftRecursion();
+        return Collections.unmodifiableList(analyzer.hazards);
+    }
+
+    /**
+     * Analyze the SSLR grammar of a grammar injector
+     *
+     * @param injector the grammar injector
+     * @param entryPoint the grammar entry point
+     * @return the hazards found
+     */
+    public static List<GrammarHazard> analyze(final GrammarInjector injector,
+        final GrammarRuleKey entryPoint)
+    {
+        final LexerfulGrammarBuilder builder = LexerfulGrammarBuilder.create();
+
+        try {
+            injector.injectInto(builder);
+            final RuleDefinition rule
+                = (RuleDefinition) builder.build().rule(entryPoint);
+            final CompiledGrammar grammar = MutableGrammarCompiler.compile(rule);
+            final Token eof = Token.builder()
+                .setType(GenericTokenType.EOF)
+                .setValueAndOriginalValue("EOF")
+                .setURI(URI.create("file:///"))
+                .setLine(1)
+                .setColumn(0)
+                .build();
+            Machine.parse(Collections.singletonList(eof), grammar);
+        } catch (RecognitionException ignored) {
+            // The grammar is fine, it just does not accept an empty input
+        } catch (RuntimeException e) {
+            return Collections.singletonList(new GrammarHazard(
+                GrammarHazard.Kind.SSLR_GRAMMAR, entryPoint.toString(),
+                String.valueOf(e.getMessage())));
+        }
+
+        return Collections.emptyList();
+    }
+
+    private GrammarHazardAnalyzer()
+    {
+    }
+
+    /*
+     * Collect all reachable matchers, and for each of them the label of the
+     * matcher it was first found in
+     */
+    private void collect(final Matcher root)
+    {
+        final Deque<Matcher> toVisit = new ArrayDeque<>();
+        final Matcher start = unwrap(root);
+        owners.put(start, start.getLabel());
+        toVisit.push(start);
+
+        Matcher matcher;
+        Matcher child;
+
+        while (!toVisit.isEmpty()) {
+            matcher = toVisit.pop();
+            matchers.add(matcher);
+            for (final Matcher c: matcher.getChildren()) {
+                child = unwrap(c);
+                if (owners.containsKey(child))
+                    continue;
+                owners.put(child, matcher.getLabel());
+                toVisit.push(child);
+            }
+        }
+    }
+
+    /*
+     * Compute which matchers can match empty, always match, or contain
+     * actions; this is a fixed point computation since the matcher graph has
+     * cycles.
+     */
+    private void computeProperties()
+    {
+        for (final Matcher matcher: matchers)
+            if (matcher.getType() == MatcherType.TERMINAL
+                && !(matcher instanceof EmptyMatcher)
+                && consumed(matcher, "") == 0)
+                nullable.add(matcher);
+
+        boolean changed;
+
+        do {
+            changed = false;
+            for (final Matcher matcher: matchers) {
+                if (!nullable.contains(matcher) && isNullable(matcher)) {
+                    nullable.add(matcher);
+                    changed = true;
+                }
+                if (!alwaysMatch.contains(matcher) && alwaysMatches(matcher)) {
+                    alwaysMatch.add(matcher);
+                    changed = true;
+                }
+                if (!withActions.contains(matcher) && hasActions(matcher)) {
+                    withActions.add(matcher);
+                    changed = true;
+                }
+            }
+        } while (changed);
+    }
+
+    private boolean isNullable(final Matcher matcher)
+    {
+        if (matcher instanceof ZeroOrMoreMatcher
+            || matcher instanceof OptionalMatcher
+            || matcher instanceof EmptyMatcher)
+            return true;
+
+        final MatcherType type = matcher.getType();
+        if (type == MatcherType.ACTION || type == MatcherType.PREDICATE)
+            return true;
+        if (type == MatcherType.TERMINAL)
+            return false;
+
+        final List<Matcher> children = matcher.getChildren();
+        if (isChoice(matcher))
+            return children.stream().map(GrammarHazardAnalyzer::unwrap)
+                .anyMatch(nullable::contains);
+        return !children.isEmpty() && children.stream()
+            .map(GrammarHazardAnalyzer::unwrap).allMatch(nullable::contains);
+    }
+
+    private boolean alwaysMatches(final Matcher matcher)
+    {
+        if (matcher instanceof ZeroOrMoreMatcher
+            || matcher instanceof OptionalMatcher
+            || matcher instanceof EmptyMatcher)
+            return true;
+
+        final List<Matcher> children = matcher.getChildren();
+
+        if (matcher instanceof OneOrMoreMatcher)
+            return alwaysMatch.contains(unwrap(children.get(0)));
+        if (matcher instanceof SequenceMatcher)
+            return children.stream().map(GrammarHazardAnalyzer::unwrap)
+                .allMatch(alwaysMatch::contains);
+        if (isChoice(matcher))
+            return children.stream().map(GrammarHazardAnalyzer::unwrap)
+                .anyMatch(alwaysMatch::contains);
+        return false;
+    }
+
+    private boolean hasActions(final Matcher matcher)
+    {
+        return matcher.getType() == MatcherType.ACTION
+            || matcher.getChildren().stream()
+            .map(GrammarHazardAnalyzer::unwrap).anyMatch(withActions::contains);
+    }
+
+    private void checkLoopsAndChoices()
+    {
+        for (final Matcher matcher: matchers) {
+            if (matcher instanceof ZeroOrMoreMatcher
+                || matcher instanceof OneOrMoreMatcher)
+                checkLoop(matcher);
+            else if (isChoice(matcher))
+                checkChoice(matcher);
+        }
+    }
+
+    private void checkLoop(final Matcher loop)
+    {
+        final Matcher body = unwrap(loop.getChildren().get(0));
+
+        if (body instanceof OptionalMatcher
+            || body instanceof ZeroOrMoreMatcher)
+            report(GrammarHazard.Kind.OPTIONAL_IN_LOOP, loop, "loop "
+                + loop.getLabel() + " has body " + body.getLabel()
+                + ", which always matches");
+        else if (nullable.contains(body))
+            report(GrammarHazard.Kind.EMPTY_LOOP_BODY, loop, "loop "
+                + loop.getLabel() + " has body " + body.getLabel()
+                + ", which can match empty");
+    }
+
+    private void checkChoice(final Matcher choice)
+    {
+        final List<Matcher> alternatives = new ArrayList<>();
+        for (final Matcher child: choice.getChildren())
+            alternatives.add(unwrap(child));
+
+        final int size = alternatives.size();
+        Matcher alternative;
+
+        for (int i = 0; i < size - 1; i++) {
+            alternative = alternatives.get(i);
+            if (!alwaysMatch.contains(alternative))
+                continue;
+            report(GrammarHazard.Kind.UNREACHABLE_ALTERNATIVE, choice,
+                "alternative " + (i + 1) + " (" + alternative.getLabel()
+                + ") of " + choice.getLabel() + " always matches; the "
+                + (size - i - 1) + " alternative(s) after it are never tried");
+            break;
+        }
+
+        String literal;
+
+        for (int j = 1; j < size; j++) {
+            literal = literalOf(alternatives.get(j));
+            if (literal == null)
+                continue;
+            for (int i = 0; i < j; i++) {
+                alternative = alternatives.get(i);
+                if (withActions.contains(alternative)
+                    || consumed(alternative, literal) < 0)
+                    continue;
+                report(GrammarHazard.Kind.SHADOWED_ALTERNATIVE, choice,
+                    "alternative " + (j + 1) + " (" + literal + ") of "
+                    + choice.getLabel() + " can never match: alternative "
+                    + (i + 1) + " (" + alternative.getLabel()
+                    + ") matches first");
+                break;
+            }
+        }
+    }
+
+    /*
+     * Depth first search over "left calls": the children a matcher may run
+     * at the index it starts at.
+     */
+    private void checkLeftRecursion()
+    {
+        final Map<Matcher, Boolean> onStack = new IdentityHashMap<>();
+        final Set<Matcher> reported = newSet();
+
+        for (final Matcher matcher: matchers)
+            if (!onStack.containsKey(matcher))
+                visitLeftCalls(matcher, onStack, reported);
+    }
+
+    private void visitLeftCalls(final Matcher matcher,
+        final Map<Matcher, Boolean> onStack, final Set<Matcher> reported)
+    {
+        onStack.put(matcher, Boolean.TRUE);
+
+        for (final Matcher callee: leftCalls(matcher)) {
+            final Boolean state = onStack.get(callee);
+            if (state == null)
+                visitLeftCalls(callee, onStack, reported);
+            else if (state && reported.add(callee))
+                report(GrammarHazard.Kind.LEFT_RECURSION, callee,
+                    callee.getLabel() + " can call itself (through "
+                    + matcher.getLabel() + ") without consuming input");
+        }
+
+        onStack.put(matcher, Boolean.FALSE);
+    }
+
+    private List<Matcher> leftCalls(final Matcher matcher)
+    {
+        final List<Matcher> ret = new ArrayList<>();
+        Matcher child;
+
+        for (final Matcher c: matcher.getChildren()) {
+            child = unwrap(c);
+            ret.add(child);
+            if (matcher instanceof SequenceMatcher
+                && !nullable.contains(child))
+                break;
+        }
+
+        return ret;
+    }
+
+    private void report(final GrammarHazard.Kind kind, final Matcher matcher,
+        final String message)
+    {
+        hazards.add(new GrammarHazard(kind, owners.get(matcher), message));
+    }
+
+    /*
+     * The literal a terminal matches, if its label is a quoted string and the
+     * matcher matches exactly this string
+     */
+    @Nullable
+    private static String literalOf(final Matcher matcher)
+    {
+        if (matcher.getType() != MatcherType.TERMINAL)
+            return null;
+
+        final String label = matcher.getLabel();
+        final int length = label.length();
+
+        if (length < 3)
+            return null;
+
+        final char quote = label.charAt(0);
+        if ((quote != '"' && quote != '\'')
+            || label.charAt(length - 1) != quote)
+            return null;
+
+        final String literal = label.substring(1, length - 1);
+        if (literal.indexOf('\\') != -1)
+            return null;
+
+        return consumed(matcher, literal) == literal.length() ? literal : null;
+    }
+
+    /*
+     * Run a matcher against an input, and return the number of characters it
+     * consumed, or -1 if it failed
+     */
+    private static int consumed(final Matcher matcher, final String input)
+    {
+        final ParseRunner<Object> runner = new ParseRunner<>(matcher);
+        final EndListener listener = new EndListener();
+        runner.registerListener(listener);
+
+        try {
+            return runner.run(new CharSequenceInputBuffer(input)).isSuccess()
+                ? listener.end : -1;
+        } catch (RuntimeException ignored) {
+            return -1;
+        }
+    }
+
+    private static boolean isChoice(final Matcher matcher)
+    {
+        return matcher instanceof FirstOfMatcher
+            || matcher instanceof DispatchingChoiceMatcher;
+    }
+
+    private static Matcher unwrap(final Matcher matcher)
+    {
+        return matcher instanceof ProxyMatcher
+            ? ProxyMatcher.unwrap(matcher) : matcher;
+    }
+
+    private static Set<Matcher> newSet()
+    {
+        return Collections.newSetFromMap(new IdentityHashMap<>());
+    }
+
+    private static final class EndListener
+        extends ParseEventListener<Object>
+    {
+        private int end = -1;
+
+        @Override
+        public void matchSuccess(final MatchSuccessEvent<Object> event)
+        {
+            final MatcherContext<Object> context = event.getContext();
+            if (context.getLevel() == 0)
+                end = context.getCurrentIndex();
+        }
+    }
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright (c) 2016 Lite Solutions
+ *
+ *  This code is licensed under the Apache Software License version 2.
+ *  For more information, see the LICENSE file at the root of this package.
+ *
+ *  Should you not have the source code available, and the file above is
+ *  unavailable, you can obtain a copy of the license here:
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ */
+
+package org.litesolutions.sonar.grappa.ast;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.litesolutions.sonar.grappa.GrappaSslrParser;
+
+import com.sonar.sslr.api.AstAndTokenVisitor;
+import com.sonar.sslr.api.AstNode;
+import com.sonar.sslr.api.AstNodeType;
+import com.sonar.sslr.api.AstVisitor;
+import com.sonar.sslr.api.Token;
+
+/**
+ * Run many {@link AstVisitor}s over an AST in a single walk
+ *
+ * <p>Visitors are called in the same order, and with the same callbacks, as
+ * with SSLR's {@code AstWalker}: {@code visitFile()} in registration order,
+ * then for each node, {@code visitNode()} for the visitors subscribed to its
+ * type, {@code visitToken()} for {@link AstAndTokenVisitor}s if the node has
+ * a token not yet visited, its children, and {@code leaveNode()} in reverse
+ * order; and finally {@code leaveFile()} in reverse registration order.</p>
+ *
+ * <p>Subscriptions are resolved once, when the dispatcher is built: for each
+ * node, the visitors to call are found with a single map lookup, not by
+ * asking each visitor in turn.</p>
+ *
+ * <p>Visitors can also be split into independent groups; each group then
+ * walks the tree on its own worker, concurrently with the others. Visitors in
+ * different groups must not share mutable state, and none of them may modify
+ * the tree.</p>
+ *
+ * <p>Typical usage, with the result of {@link GrappaSslrParser#parse(String)}
+ * for instance:</p>
+ *
+ * <pre>
+ *     final AstDispatcher dispatcher = AstDispatcher.builder()
+ *         .addGroup(check1, check2)
+ *         .addGroup(metrics)
+ *         .build();
+ *     dispatcher.dispatch(parser.parse(file));
+ * </pre>
+ */
+@ThreadSafe
+public final class AstDispatcher
+{
+    private final List<Group> groups;
+    private final Executor executor;
+
+    public static Builder builder()
+    {
+        return new Builder();
+    }
+
+    private AstDispatcher(final Builder builder)
+    {
+        groups = new ArrayList<>();
+        for (final List<AstVisitor> visitors: builder.groups)
+            groups.add(new Group(visitors));
+        executor = builder.executor;
+    }
+
+    /**
+     * Run all visitors over a tree
+     *
+     * <p>As with SSLR, the root may be null (for instance, if the file could
+     * not be parsed); in this case, only {@code visitFile()} and {@code
+     * leaveFile()} are called.</p>
+     *
+     * @param root the root of the tree
+     */
+    public void dispatch(@Nullable final AstNode root)
+    {
+        if (groups.size() == 1) {
+            groups.get(0).walk(root);
+            return;
+        }
+
+        final List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (final Group group: groups)
+            futures.add(CompletableFuture.runAsync(() -> group.walk(root),
+                executor));
+
+        RuntimeException failure = null;
+
+        for (final CompletableFuture<Void> future: futures) {
+            try {
+                future.join();
+            } catch (CompletionException e) {
+                final RuntimeException cause = e.getCause() instanceof
+                    RuntimeException ? (RuntimeException) e.getCause() : e;
+                if (failure == null)
+                    failure = cause;
+                else
+                    failure.addSuppressed(cause);
+            }
+        }
+
+        if (failure != null)
+            throw failure;
+    }
+
+    /*
+     * The visitors of one group, with their subscriptions by type
+     */
+    private static final class Group
+    {
+        private static final AstVisitor[] NO_VISITORS = new AstVisitor[0];
+
+        private final AstVisitor[] visitors;
+        private final AstAndTokenVisitor[] tokenVisitors;
+        private final Map<AstNodeType, AstVisitor[]> subscriptions
+            = new IdentityHashMap<>();
+
+        private Group(final List<AstVisitor> visitors)
+        {
+            this.visitors = visitors.toArray(NO_VISITORS);
+
+            final List<AstAndTokenVisitor> list = new ArrayList<>();
+            final Map<AstNodeType, List<AstVisitor>> map
+                = new IdentityHashMap<>();
+
+            for (final AstVisitor visitor: visitors) {
+                if (visitor instanceof AstAndTokenVisitor)
+                    list.add((AstAndTokenVisitor) visitor);
+                for (final AstNodeType type: visitor.getAstNodeTypesToVisit())
+                    map.computeIfAbsent(type, t -> new ArrayList<>())
+                        .add(visitor);
+            }
+
+            tokenVisitors = list.toArray(new AstAndTokenVisitor[0]);
+            map.forEach((type, subscribers) -> subscriptions.put(type,
+                subscribers.toArray(NO_VISITORS)));
+        }
+
+        /*
+         * A group is only ever walked by one thread at a time; dispatch()
+         * does not return before all walks are done.
+         */
+        private synchronized void walk(@Nullable final AstNode root)
+        {
+            for (final AstVisitor visitor: visitors)
+                visitor.visitFile(root);
+
+            if (root != null)
+                visit(root, new Token[1]);
+
+            for (int i = visitors.length - 1; i >= 0; i--)
+                visitors[i].leaveFile(root);
+        }
+
+        private void visit(final AstNode node, final Token[] lastToken)
+        {
+            final AstVisitor[] nodeVisitors
+                = subscriptions.getOrDefault(node.getType(), NO_VISITORS);
+
+            for (final AstVisitor visitor: nodeVisitors)
+                visitor.visitNode(node);
+
+            final Token token = node.getToken();
+            if (tokenVisitors.length > 0 && token != null
+                && token != lastToken[0]) {
+                lastToken[0] = token;
+                for (final AstAndTokenVisitor visitor: tokenVisitors)
+                    visitor.visitToken(token);
+            }
+
+            for (final AstNode child: node.getChildren())
+                visit(child, lastToken);
+
+            for (int i = nodeVisitors.length - 1; i >= 0; i--)
+                nodeVisitors[i].leaveNode(node);
+        }
+    }
+
+    public static final class Builder
+    {
+        private final List<List<AstVisitor>> groups = new ArrayList<>();
+        private Executor executor = ForkJoinPool.commonPool();
+
+        private Builder()
+        {
+        }
+
+        /**
+         * Add visitors to the first group
+         *
+         * @param visitors the visitors
+         * @return this
+         */
+        public Builder add(final AstVisitor... visitors)
+        {
+            if (groups.isEmpty())
+                groups.add(new ArrayList<>());
+            for (final AstVisitor visitor: visitors)
+                groups.get(0).add(Objects.requireNonNull(visitor));
+            return this;
+        }
+
+        /**
+         * Add a new group of visitors
+         *
+         * @param visitors the visitors
+         * @return this
+         */
+        public Builder addGroup(final AstVisitor... visitors)
+        {
+            final List<AstVisitor> group = new ArrayList<>();
+            for (final AstVisitor visitor: visitors)
+                group.add(Objects.requireNonNull(visitor));
+            groups.add(group);
+            return this;
+        }
+
+        /**
+         * Set the executor used to walk groups in parallel
+         *
+         * <p>The default is the common fork/join pool.</p>
+         *
+         * @param executor the executor
+         * @return this
+         */
+        public Builder withExecutor(final Executor executor)
+        {
+            this.executor = Objects.requireNonNull(executor);
+            return this;
+        }
+
+        public AstDispatcher build()
+        {
+            if (groups.isEmpty())
+                throw new IllegalStateException("no visitors have been added");
+            return new AstDispatcher(this);
+        }
+    }
+}
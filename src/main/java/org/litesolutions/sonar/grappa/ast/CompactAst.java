@@ -0,0 +1,580 @@
+/*
+ * Copyright (c) 2016 Lite Solutions
+ *
+ *  This code is licensed under the Apache Software License version 2.
+ *  For more information, see the LICENSE file at the root of this package.
+ *
+ *  Should you not have the source code available, and the file above is
+ *  unavailable, you can obtain a copy of the license here:
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ */
+
+package org.litesolutions.sonar.grappa.ast;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import org.sonar.sslr.internal.matchers.LexerfulAstCreator;
+import org.sonar.sslr.internal.vm.ParseNode;
+import org.sonar.sslr.internal.vm.lexerful.TokenTypeExpression;
+
+import com.sonar.sslr.api.AstNode;
+import com.sonar.sslr.api.AstNodeType;
+import com.sonar.sslr.api.Token;
+import com.sonar.sslr.impl.ast.AlwaysSkipFromAst;
+import com.sonar.sslr.impl.ast.NeverSkipFromAst;
+import com.sonar.sslr.impl.ast.SkipFromAstIfOnlyOneChild;
+import com.sonar.sslr.impl.matcher.RuleDefinition;
+
+/**
+ * An array based representation of an AST
+ *
+ * <p>This is the same tree as the one {@link LexerfulAstCreator} builds
+ * (including the application of skipping policies), but each node is an
+ * {@code int}, and its properties are stored in parallel {@code int} arrays:
+ * type, first and last token indices, parent, first child and next sibling.
+ * As in an SSLR tree, the type of a rule node is the key of its rule (see
+ * {@link RuleDefinition#getRealAstNodeType()}).</p>
+ *
+ * <p>SSLR's stock skipping policies (never, always, and if only one child) are
+ * applied from the number of children of a node. Any other policy is called
+ * for each node with an {@link AstNode} built for the occasion, with the
+ * node's token and its children (but not their own children); if the policy
+ * of a rule cannot be read, it is handled in this way too.</p>
+ *
+ * <p>Nodes are numbered in post order: the children of a node, and all their
+ * descendants, come before it, and the subtree of node {@code n} is the
+ * contiguous range from {@link #getSubtreeStart(int) getSubtreeStart(n)} to
+ * {@code n}, inclusive. The root is therefore the last node.</p>
+ *
+ * <p>Regular {@link AstNode}s can be obtained for any subtree using {@link
+ * #materialize(int)}, so that checks only touching a small part of the tree
+ * only pay for this part.</p>
+ */
+@Immutable
+public final class CompactAst
+{
+    /**
+     * Value returned by navigation methods when there is no such node
+     */
+    public static final int NONE = -1;
+
+    private final List<Token> tokens;
+    private final AstNodeType[] typeTable;
+    /*
+     * Indexed by type id; null for token types
+     */
+    private final RuleDefinition[] ruleTable;
+    private final int size;
+
+    private final int[] types;
+    private final int[] fromIndices;
+    private final int[] toIndices;
+    private final int[] parents;
+    private final int[] firstChildren;
+    private final int[] nextSiblings;
+    private final int[] subtreeStarts;
+
+    /**
+     * Build a compact AST from a parse tree
+     *
+     * @param root the root of the parse tree
+     * @param tokens the parsed tokens
+     * @return a new compact AST
+     */
+    public static CompactAst create(final ParseNode root,
+        final List<Token> tokens)
+    {
+        final TreeBuilder builder = new TreeBuilder(tokens);
+        builder.visitRoot(root);
+        return new CompactAst(builder);
+    }
+
+    private CompactAst(final TreeBuilder builder)
+    {
+        tokens = builder.tokens;
+        typeTable = builder.typeTable.toArray(new AstNodeType[0]);
+        ruleTable = builder.ruleTable.toArray(new RuleDefinition[0]);
+        size = builder.size;
+        types = Arrays.copyOf(builder.types, size);
+        fromIndices = Arrays.copyOf(builder.fromIndices, size);
+        toIndices = Arrays.copyOf(builder.toIndices, size);
+        parents = Arrays.copyOf(builder.parents, size);
+        firstChildren = Arrays.copyOf(builder.firstChildren, size);
+        nextSiblings = Arrays.copyOf(builder.nextSiblings, size);
+        subtreeStarts = Arrays.copyOf(builder.subtreeStarts, size);
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public int getRoot()
+    {
+        return size - 1;
+    }
+
+    public List<Token> getTokens()
+    {
+        return tokens;
+    }
+
+    /**
+     * Get the type of a node
+     *
+     * <p>As with {@link AstNode#getType()}, this is the rule key for rule
+     * nodes, and the token type for token nodes.</p>
+     *
+     * @param node the node
+     * @return the type
+     */
+    public AstNodeType getType(final int node)
+    {
+        return typeTable[types[node]];
+    }
+
+    /**
+     * Get the id of the type of a node
+     *
+     * <p>Type ids are dense, and only valid for this tree; see {@link
+     * #getTypeTable()}.</p>
+     *
+     * @param node the node
+     * @return the type id
+     */
+    public int getTypeId(final int node)
+    {
+        return types[node];
+    }
+
+    /**
+     * Get the types of this tree, indexed by type id
+     *
+     * @return a copy of the type table
+     */
+    public AstNodeType[] getTypeTable()
+    {
+        return typeTable.clone();
+    }
+
+    public boolean is(final int node, final AstNodeType... types)
+    {
+        final AstNodeType type = getType(node);
+        for (final AstNodeType candidate: types)
+            if (candidate == type)
+                return true;
+        return false;
+    }
+
+    public boolean isTokenNode(final int node)
+    {
+        return ruleTable[types[node]] == null;
+    }
+
+    public String getName(final int node)
+    {
+        final RuleDefinition rule = ruleTable[types[node]];
+        return rule != null ? rule.getName()
+            : getToken(node).getType().getName();
+    }
+
+    /**
+     * Get the token of a node
+     *
+     * <p>As for {@link AstNode#getToken()}, this is the first token of the
+     * node, or null if the node matched nothing at the end of the input.</p>
+     *
+     * @param node the node
+     * @return the token
+     */
+    @Nullable
+    public Token getToken(final int node)
+    {
+        final int index = fromIndices[node];
+        return index < tokens.size() ? tokens.get(index) : null;
+    }
+
+    public int getFromIndex(final int node)
+    {
+        return fromIndices[node];
+    }
+
+    public int getToIndex(final int node)
+    {
+        return toIndices[node];
+    }
+
+    public int getParent(final int node)
+    {
+        return parents[node];
+    }
+
+    public int getFirstChild(final int node)
+    {
+        return firstChildren[node];
+    }
+
+    public int getNextSibling(final int node)
+    {
+        return nextSiblings[node];
+    }
+
+    public boolean hasChildren(final int node)
+    {
+        return firstChildren[node] != NONE;
+    }
+
+    public int getNumberOfChildren(final int node)
+    {
+        int ret = 0;
+        for (int child = firstChildren[node]; child != NONE;
+            child = nextSiblings[child])
+            ret++;
+        return ret;
+    }
+
+    /**
+     * Get the first node of the subtree of a node, in post order
+     *
+     * @param node the node
+     * @return the first node of its subtree
+     */
+    public int getSubtreeStart(final int node)
+    {
+        return subtreeStarts[node];
+    }
+
+    /**
+     * Find the first child of a node with the given type
+     *
+     * @param node the node
+     * @param type the type
+     * @return the child, or {@link #NONE}
+     */
+    public int getFirstChild(final int node, final AstNodeType type)
+    {
+        for (int child = firstChildren[node]; child != NONE;
+            child = nextSiblings[child])
+            if (getType(child) == type)
+                return child;
+        return NONE;
+    }
+
+    /**
+     * Find all the descendants of a node with a given type
+     *
+     * <p>The node itself is not included. Nodes are returned in post order.
+     * </p>
+     *
+     * @param node the node
+     * @param type the type
+     * @return the matching nodes
+     */
+    public int[] getDescendants(final int node, final AstNodeType type)
+    {
+        int[] ret = new int[16];
+        int count = 0;
+
+        for (int i = subtreeStarts[node]; i < node; i++) {
+            if (getType(i) != type)
+                continue;
+            if (count == ret.length)
+                ret = Arrays.copyOf(ret, count * 2);
+            ret[count++] = i;
+        }
+
+        return Arrays.copyOf(ret, count);
+    }
+
+    /**
+     * Build the {@link AstNode} subtree for a node
+     *
+     * <p>A new subtree is built for each call; the root of this subtree has
+     * no parent. As with {@link LexerfulAstCreator}, all its nodes, including
+     * the root, report the key of their rule as their type.</p>
+     *
+     * @param node the node
+     * @return the equivalent {@link AstNode}
+     */
+    public AstNode materialize(final int node)
+    {
+        final RuleDefinition rule = ruleTable[types[node]];
+        final AstNode ret;
+
+        if (rule != null) {
+            ret = new AstNode(rule, rule.getName(), getToken(node));
+            for (int child = firstChildren[node]; child != NONE;
+                child = nextSiblings[child])
+                ret.addChild(materialize(child));
+            /*
+             * This is how SSLR replaces the rule with its key; the node was
+             * not skipped in the original tree, so the result is ignored
+             */
+            ret.hasToBeSkippedFromAst();
+        } else {
+            ret = new AstNode(getToken(node));
+        }
+
+        ret.setFromIndex(fromIndices[node]);
+        ret.setToIndex(toIndices[node]);
+        return ret;
+    }
+
+    /*
+     * Builds the tree from a ParseNode, in the same way LexerfulAstCreator
+     * does. Building in post order makes skipped nodes free: their children
+     * have already been emitted, and become children of the enclosing node.
+     */
+    private static final class TreeBuilder
+    {
+        private enum SkipPolicy
+        {
+            NEVER,
+            ALWAYS,
+            IF_ONE_CHILD,
+            OTHER,
+        }
+
+        /*
+         * RuleDefinition does not expose its skipping policy; reading it lets
+         * the stock policies be applied without building any AstNode. Null if
+         * the field cannot be read, in which case all rules use OTHER, which
+         * is slower but gives the same tree.
+         */
+        @Nullable
+        private static final MethodHandle POLICY = findPolicyGetter();
+
+        private final List<Token> tokens;
+        private final List<AstNodeType> typeTable = new ArrayList<>();
+        private final List<RuleDefinition> ruleTable = new ArrayList<>();
+        /*
+         * Keyed by rule for rule nodes, by token type for token nodes
+         */
+        private final Map<AstNodeType, Integer> typeIds
+            = new IdentityHashMap<>();
+        private final Map<RuleDefinition, SkipPolicy> policies
+            = new IdentityHashMap<>();
+
+        private int size = 0;
+        private int[] types = new int[64];
+        private int[] fromIndices = new int[64];
+        private int[] toIndices = new int[64];
+        private int[] parents = new int[64];
+        private int[] firstChildren = new int[64];
+        private int[] nextSiblings = new int[64];
+        private int[] subtreeStarts = new int[64];
+
+        private TreeBuilder(final List<Token> tokens)
+        {
+            this.tokens = tokens;
+        }
+
+        private void visitRoot(final ParseNode root)
+        {
+            if (!(root.getMatcher() instanceof RuleDefinition)) {
+                visitTerminal(root);
+                return;
+            }
+
+            final int start = size;
+            emit((RuleDefinition) root.getMatcher(), root, start,
+                visitChildren(root, start));
+        }
+
+        private void visit(final ParseNode node)
+        {
+            if (!(node.getMatcher() instanceof RuleDefinition)) {
+                visitTerminal(node);
+                return;
+            }
+
+            final RuleDefinition rule = (RuleDefinition) node.getMatcher();
+            final int start = size;
+            final int nrChildren = visitChildren(node, start);
+
+            if (!hasToBeSkipped(rule, node, start, nrChildren))
+                emit(rule, node, start, nrChildren);
+        }
+
+        /*
+         * Returns the number of direct children
+         */
+        private int visitChildren(final ParseNode node, final int start)
+        {
+            for (final ParseNode child: node.getChildren())
+                visit(child);
+
+            int ret = 0;
+            for (int i = size - 1; i >= start; i = subtreeStarts[i] - 1)
+                ret++;
+            return ret;
+        }
+
+        private void visitTerminal(final ParseNode node)
+        {
+            final Token token = tokens.get(node.getStartIndex());
+            if (node.getMatcher() instanceof TokenTypeExpression
+                && token.getType().hasToBeSkippedFromAst(null))
+                return;
+
+            final int index = append(token.getType(), null, node);
+            subtreeStarts[index] = index;
+        }
+
+        private void emit(final RuleDefinition rule, final ParseNode node,
+            final int start, final int nrChildren)
+        {
+            final int index = append(rule, rule, node);
+            subtreeStarts[index] = start;
+
+            /*
+             * Link children, last to first
+             */
+            int next = NONE;
+            for (int i = index - 1; i >= start; i = subtreeStarts[i] - 1) {
+                parents[i] = index;
+                nextSiblings[i] = next;
+                next = i;
+            }
+            firstChildren[index] = nrChildren == 0 ? NONE : next;
+        }
+
+        private int append(final AstNodeType type,
+            @Nullable final RuleDefinition rule, final ParseNode node)
+        {
+            if (size == types.length) {
+                final int newLength = size * 2;
+                types = Arrays.copyOf(types, newLength);
+                fromIndices = Arrays.copyOf(fromIndices, newLength);
+                toIndices = Arrays.copyOf(toIndices, newLength);
+                parents = Arrays.copyOf(parents, newLength);
+                firstChildren = Arrays.copyOf(firstChildren, newLength);
+                nextSiblings = Arrays.copyOf(nextSiblings, newLength);
+                subtreeStarts = Arrays.copyOf(subtreeStarts, newLength);
+            }
+
+            final int index = size++;
+            types[index] = typeId(type, rule);
+            fromIndices[index] = node.getStartIndex();
+            toIndices[index] = node.getEndIndex();
+            parents[index] = NONE;
+            firstChildren[index] = NONE;
+            nextSiblings[index] = NONE;
+            return index;
+        }
+
+        private int typeId(final AstNodeType type,
+            @Nullable final RuleDefinition rule)
+        {
+            final Integer id = typeIds.get(type);
+            if (id != null)
+                return id;
+            final int newId = typeTable.size();
+            typeTable.add(rule != null ? rule.getRealAstNodeType() : type);
+            ruleTable.add(rule);
+            typeIds.put(type, newId);
+            return newId;
+        }
+
+        private boolean hasToBeSkipped(final RuleDefinition rule,
+            final ParseNode node, final int start, final int nrChildren)
+        {
+            switch (policies.computeIfAbsent(rule, TreeBuilder::policyOf)) {
+                case NEVER:
+                    return false;
+                case ALWAYS:
+                    return true;
+                case IF_ONE_CHILD:
+                    return nrChildren == 1;
+                default:
+                    return rule.hasToBeSkippedFromAst(
+                        probeNode(rule, node, start, nrChildren));
+            }
+        }
+
+        @Nullable
+        private static MethodHandle findPolicyGetter()
+        {
+            try {
+                final Field field = RuleDefinition.class
+                    .getDeclaredField("astNodeSkippingPolicy");
+                return MethodHandles.privateLookupIn(RuleDefinition.class,
+                    MethodHandles.lookup()).unreflectGetter(field)
+                    .asType(MethodType.methodType(Object.class,
+                        RuleDefinition.class));
+            } catch (ReflectiveOperationException | RuntimeException ignored) {
+                return null;
+            }
+        }
+
+        private static SkipPolicy policyOf(final RuleDefinition rule)
+        {
+            if (POLICY == null)
+                return SkipPolicy.OTHER;
+
+            final Object policy;
+
+            try {
+                policy = POLICY.invokeExact(rule);
+            } catch (Throwable ignored) {
+                return SkipPolicy.OTHER;
+            }
+
+            if (policy == NeverSkipFromAst.INSTANCE)
+                return SkipPolicy.NEVER;
+            if (policy == AlwaysSkipFromAst.INSTANCE)
+                return SkipPolicy.ALWAYS;
+            if (policy == SkipFromAstIfOnlyOneChild.INSTANCE)
+                return SkipPolicy.IF_ONE_CHILD;
+            return SkipPolicy.OTHER;
+        }
+
+        /*
+         * The node a policy other than the stock ones is given: the rule node,
+         * with its token, and its children with their types and tokens. The
+         * children are created with the types they would have in an SSLR tree,
+         * so that adding them does not run their own policies again.
+         */
+        private AstNode probeNode(final RuleDefinition rule,
+            final ParseNode node, final int start, final int nrChildren)
+        {
+            final Token token = node.getStartIndex() < tokens.size()
+                ? tokens.get(node.getStartIndex()) : null;
+            final AstNode ret = new AstNode(rule, rule.getName(), token);
+
+            final int[] children = new int[nrChildren];
+            int count = nrChildren;
+            for (int i = size - 1; i >= start; i = subtreeStarts[i] - 1)
+                children[--count] = i;
+
+            int typeId;
+            RuleDefinition childRule;
+            Token childToken;
+
+            for (final int child: children) {
+                typeId = types[child];
+                childRule = ruleTable.get(typeId);
+                childToken = fromIndices[child] < tokens.size()
+                    ? tokens.get(fromIndices[child]) : null;
+                ret.addChild(childRule == null ? new AstNode(childToken)
+                    : new AstNode(typeTable.get(typeId), childRule.getName(),
+                        childToken));
+            }
+
+            return ret;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2016 Lite Solutions
+ *
+ *  This code is licensed under the Apache Software License version 2.
+ *  For more information, see the LICENSE file at the root of this package.
+ *
+ *  Should you not have the source code available, and the file above is
+ *  unavailable, you can obtain a copy of the license here:
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ */
+
+package org.litesolutions.sonar.grappa.batch;
+
+import java.io.File;
+import java.util.Objects;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * The outcome of one parse run by a {@link ParseScheduler}
+ *
+ * <p>Exactly one of {@link #getResult()} and {@link #getFailure()} is not
+ * null.</p>
+ *
+ * @param <R> type of the result of a parse
+ */
+@Immutable
+public final class ParseOutcome<R>
+{
+    private final File file;
+    @Nullable
+    private final R result;
+    @Nullable
+    private final Throwable failure;
+    private final long estimatedBytes;
+
+    ParseOutcome(final File file, @Nullable final R result,
+        @Nullable final Throwable failure, final long estimatedBytes)
+    {
+        this.file = Objects.requireNonNull(file);
+        this.result = result;
+        this.failure = failure;
+        this.estimatedBytes = estimatedBytes;
+    }
+
+    public File getFile()
+    {
+        return file;
+    }
+
+    public boolean isSuccess()
+    {
+        return failure == null;
+    }
+
+    @Nullable
+    public R getResult()
+    {
+        return result;
+    }
+
+    /**
+     * Get the reason why the parse failed
+     *
+     * <p>This is a {@link RuntimeException}, or a {@link StackOverflowError}
+     * if the input nests too deeply for the grammar.</p>
+     *
+     * @return the failure, or null if the parse succeeded
+     */
+    @Nullable
+    public Throwable getFailure()
+    {
+        return failure;
+    }
+
+    /**
+     * Get the heap the scheduler reserved for this parse
+     *
+     * @return the estimate, in bytes
+     */
+    public long getEstimatedBytes()
+    {
+        return estimatedBytes;
+    }
+
+    @Override
+    public String toString()
+    {
+        return file + ": " + (failure == null ? "success" : failure);
+    }
+}
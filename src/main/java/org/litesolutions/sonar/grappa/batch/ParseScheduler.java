@@ -0,0 +1,412 @@
+/*
+ * Copyright (c) 2016 Lite Solutions
+ *
+ *  This code is licensed under the Apache Software License version 2.
+ *  For more information, see the LICENSE file at the root of this package.
+ *
+ *  Should you not have the source code available, and the file above is
+ *  unavailable, you can obtain a copy of the license here:
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ */
+
+package org.litesolutions.sonar.grappa.batch;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.litesolutions.sonar.grappa.GrappaSslrFactory;
+import org.litesolutions.sonar.grappa.GrappaSslrParser;
+
+import com.sonar.sslr.api.AstNode;
+
+/**
+ * Run many parses concurrently, within a heap budget
+ *
+ * <p>Parsing many files at once with a fixed number of threads either leaves
+ * cores idle, or exhausts the heap when several large files happen to be
+ * parsed at the same time. This scheduler estimates the peak heap of each
+ * parse from the size of the file, and only starts a parse when its estimate
+ * fits in the remaining budget; a file whose estimate exceeds the whole budget
+ * is parsed alone.</p>
+ *
+ * <p>Files are started largest first, so that the longest parses do not end
+ * up last and alone on the critical path.</p>
+ *
+ * <p>The estimate for a file is its size in characters (the contents of the
+ * file are held in memory as such) plus its expected number of tokens times a
+ * fixed cost per token (the token itself, its AST node and the associated
+ * lists). The number of tokens per byte of input is learned from the parses
+ * already completed, as an exponentially weighted moving average; it is kept
+ * from one call to {@link #run(Collection, Function, ToLongFunction)} to the
+ * next.</p>
+ */
+@ThreadSafe
+public final class ParseScheduler
+{
+    private static final double SMOOTHING = 0.2;
+
+    private final long memoryBudget;
+    private final int parallelism;
+    private final long bytesPerToken;
+
+    private final Object lock = new Object();
+    @GuardedBy("lock")
+    private long reserved = 0L;
+    @GuardedBy("lock")
+    private int inFlight = 0;
+    @GuardedBy("lock")
+    private double tokensPerByte;
+
+    public static Builder builder()
+    {
+        return new Builder();
+    }
+
+    private ParseScheduler(final Builder builder)
+    {
+        memoryBudget = builder.memoryBudget;
+        parallelism = builder.parallelism;
+        bytesPerToken = builder.bytesPerToken;
+        tokensPerByte = builder.tokensPerByte;
+    }
+
+    /**
+     * Parse files with one parser of a factory per worker thread
+     *
+     * <p>Each worker thread gets its own parser from {@link
+     * GrappaSslrFactory#getWorkerParser()}, so that the grappa rules used by
+     * the workers share no state.</p>
+     *
+     * @param factory the factory
+     * @param files the files
+     * @return the outcomes, in the order of the files
+     */
+    public List<ParseOutcome<AstNode>> parseAll(
+        final GrappaSslrFactory factory, final Collection<File> files)
+    {
+        Objects.requireNonNull(factory);
+        return parseAll(factory::getWorkerParser, files);
+    }
+
+    /**
+     * Parse files with one {@link GrappaSslrParser} per worker thread
+     *
+     * <p>A parser holds a lexer, which cannot be shared between threads; the
+     * supplier is therefore called once per worker thread.</p>
+     *
+     * <p>The parsers supplied must not share a grappa rule either, since
+     * grappa actions are bound to the parser instance which created them.
+     * This is notably the case of parsers obtained by {@code
+     * factory::getParser}, which all lex with the rule of the factory; use
+     * {@link #parseAll(GrappaSslrFactory, Collection)} instead.</p>
+     *
+     * @param parsers the parser supplier
+     * @param files the files
+     * @return the outcomes, in the order of the files
+     */
+    public List<ParseOutcome<AstNode>> parseAll(
+        final Supplier<? extends GrappaSslrParser<?>> parsers,
+        final Collection<File> files)
+    {
+        final ThreadLocal<GrappaSslrParser<?>> parser
+            = ThreadLocal.withInitial(parsers);
+        return run(files, file -> parser.get().parse(file),
+            ParseScheduler::countTokens);
+    }
+
+    /**
+     * Run a parse function over files
+     *
+     * <p>The function is called concurrently from several threads. Failures of
+     * individual parses are reported in their outcomes and do not stop the
+     * other parses; this includes stack overflows, which deeply nested
+     * inputs can cause in recursive descent parsers.</p>
+     *
+     * <p>Other errors, {@link OutOfMemoryError} first of all, abort the whole
+     * run and are rethrown as is: once the heap is exhausted, the other
+     * parses in flight cannot be trusted to complete either.</p>
+     *
+     * @param files the files
+     * @param parse the parse function
+     * @param tokenCount number of tokens of the result of a parse
+     * @param <R> type of the result of a parse
+     * @return the outcomes, in the order of the files
+     */
+    public <R> List<ParseOutcome<R>> run(final Collection<File> files,
+        final Function<File, R> parse, final ToLongFunction<R> tokenCount)
+    {
+        Objects.requireNonNull(parse);
+        Objects.requireNonNull(tokenCount);
+
+        final List<File> list = new ArrayList<>(files);
+        final int size = list.size();
+        final long[] lengths = new long[size];
+        final List<Integer> sorted = new ArrayList<>(size);
+
+        for (int i = 0; i < size; i++) {
+            lengths[i] = list.get(i).length();
+            sorted.add(i);
+        }
+
+        sorted.sort(Comparator.comparingLong(i -> -lengths[i]));
+
+        final List<Future<ParseOutcome<R>>> futures = new ArrayList<>(size);
+        for (int i = 0; i < size; i++)
+            futures.add(null);
+
+        final ExecutorService executor
+            = Executors.newFixedThreadPool(parallelism, new WorkerFactory());
+
+        try {
+            for (final int index: sorted) {
+                final File file = list.get(index);
+                final long length = lengths[index];
+                final long estimate = reserve(length);
+                futures.set(index, executor.submit(
+                    () -> parseOne(file, length, estimate, parse, tokenCount)
+                ));
+            }
+
+            final List<ParseOutcome<R>> ret = new ArrayList<>(size);
+            for (final Future<ParseOutcome<R>> future: futures)
+                ret.add(future.get());
+            return ret;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while parsing", e);
+        } catch (ExecutionException e) {
+            /*
+             * parseOne() catches runtime exceptions and stack overflows; only
+             * other errors get here
+             */
+            final Throwable cause = e.getCause();
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new IllegalStateException("unexpected exception", cause);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Get the current estimate of the number of tokens per byte of input
+     *
+     * @return the estimate
+     */
+    public double getTokensPerByte()
+    {
+        synchronized (lock) {
+            return tokensPerByte;
+        }
+    }
+
+    /**
+     * Estimate the peak heap of the parse of a file
+     *
+     * @param length the length of the file, in bytes
+     * @return the estimate, in bytes
+     */
+    public long estimate(final long length)
+    {
+        final double tokens;
+        synchronized (lock) {
+            tokens = length * tokensPerByte;
+        }
+        return 2L * length + (long) Math.ceil(tokens * bytesPerToken);
+    }
+
+    private <R> ParseOutcome<R> parseOne(final File file, final long length,
+        final long estimate, final Function<File, R> parse,
+        final ToLongFunction<R> tokenCount)
+    {
+        try {
+            final R result = parse.apply(file);
+            learn(length, tokenCount.applyAsLong(result));
+            return new ParseOutcome<>(file, result, null, estimate);
+        } catch (RuntimeException | StackOverflowError e) {
+            return new ParseOutcome<>(file, null, e, estimate);
+        } finally {
+            release(estimate);
+        }
+    }
+
+    /*
+     * Wait until a parse with the given input length can be started, and
+     * reserve its estimate
+     */
+    private long reserve(final long length)
+        throws InterruptedException
+    {
+        final long estimate = estimate(length);
+
+        synchronized (lock) {
+            while (inFlight > 0 && (inFlight >= parallelism
+                || reserved + estimate > memoryBudget))
+                lock.wait();
+            reserved += estimate;
+            inFlight++;
+        }
+
+        return estimate;
+    }
+
+    private void release(final long estimate)
+    {
+        synchronized (lock) {
+            reserved -= estimate;
+            inFlight--;
+            lock.notifyAll();
+        }
+    }
+
+    private void learn(final long length, final long tokens)
+    {
+        if (length == 0L)
+            return;
+        final double observed = (double) tokens / length;
+        synchronized (lock) {
+            tokensPerByte += SMOOTHING * (observed - tokensPerByte);
+        }
+    }
+
+    private static long countTokens(final AstNode root)
+    {
+        if (root == null)
+            return 0L;
+
+        long ret = 0L;
+        final Deque<AstNode> toVisit = new ArrayDeque<>();
+        toVisit.push(root);
+
+        AstNode node;
+
+        while (!toVisit.isEmpty()) {
+            node = toVisit.pop();
+            if (!node.hasChildren()) {
+                if (node.hasToken())
+                    ret++;
+                continue;
+            }
+            for (final AstNode child: node.getChildren())
+                toVisit.push(child);
+        }
+
+        return ret;
+    }
+
+    private static final class WorkerFactory
+        implements ThreadFactory
+    {
+        private static final AtomicInteger COUNT = new AtomicInteger();
+
+        @Override
+        public Thread newThread(final Runnable r)
+        {
+            final Thread ret = new Thread(r,
+                "grappa-parse-" + COUNT.incrementAndGet());
+            ret.setDaemon(true);
+            return ret;
+        }
+    }
+
+    public static final class Builder
+    {
+        private long memoryBudget = Runtime.getRuntime().maxMemory() / 2L;
+        private int parallelism = Runtime.getRuntime().availableProcessors();
+        private long bytesPerToken = 512L;
+        private double tokensPerByte = 0.25;
+
+        private Builder()
+        {
+        }
+
+        /**
+         * Set the heap budget shared by all running parses
+         *
+         * <p>The default is half of the maximum heap size.</p>
+         *
+         * @param memoryBudget the budget, in bytes
+         * @return this
+         */
+        public Builder withMemoryBudget(final long memoryBudget)
+        {
+            if (memoryBudget <= 0L)
+                throw new IllegalArgumentException("memory budget must be"
+                    + " strictly positive");
+            this.memoryBudget = memoryBudget;
+            return this;
+        }
+
+        /**
+         * Set the maximum number of concurrent parses
+         *
+         * <p>The default is the number of available processors.</p>
+         *
+         * @param parallelism the number of worker threads
+         * @return this
+         */
+        public Builder withParallelism(final int parallelism)
+        {
+            if (parallelism <= 0)
+                throw new IllegalArgumentException("parallelism must be"
+                    + " strictly positive");
+            this.parallelism = parallelism;
+            return this;
+        }
+
+        /**
+         * Set the heap cost of one token, AST node included
+         *
+         * @param bytesPerToken the cost, in bytes (default 512)
+         * @return this
+         */
+        public Builder withBytesPerToken(final long bytesPerToken)
+        {
+            if (bytesPerToken <= 0L)
+                throw new IllegalArgumentException("bytes per token must be"
+                    + " strictly positive");
+            this.bytesPerToken = bytesPerToken;
+            return this;
+        }
+
+        /**
+         * Set the initial estimate of the number of tokens per byte of input
+         *
+         * @param tokensPerByte the estimate (default 0.25)
+         * @return this
+         */
+        public Builder withInitialTokensPerByte(final double tokensPerByte)
+        {
+            if (!(tokensPerByte > 0.0))
+                throw new IllegalArgumentException("tokens per byte must be"
+                    + " strictly positive");
+            this.tokensPerByte = tokensPerByte;
+            return this;
+        }
+
+        public ParseScheduler build()
+        {
+            return new ParseScheduler(this);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2016 Lite Solutions
+ *
+ *  This code is licensed under the Apache Software License version 2.
+ *  For more information, see the LICENSE file at the root of this package.
+ *
+ *  Should you not have the source code available, and the file above is
+ *  unavailable, you can obtain a copy of the license here:
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ */
+
+package org.litesolutions.sonar.grappa.channels;
+
+import org.litesolutions.sonar.grappa.GrappaSslrLexer;
+
+import com.sonar.sslr.api.GenericTokenType;
+import com.sonar.sslr.api.Token;
+import com.sonar.sslr.api.TokenType;
+
+/*
+ * Adding tokens recognized by pre-channels to the lexer
+ */
+final class ChannelTokens
+{
+    private ChannelTokens()
+    {
+        throw new Error("nice try!");
+    }
+
+    /*
+     * Comments are handled as GrappaSslrLexer does for those pushed by the
+     * grappa grammar: added as trivia, or dropped if the lexer says so
+     */
+    static void add(final GrappaSslrLexer lexer, final TokenType type,
+        final String value, final int line, final int column)
+    {
+        final Token token = Token.builder()
+            .setType(type)
+            .setValueAndOriginalValue(value)
+            .setURI(lexer.getURI())
+            .setLine(line)
+            .setColumn(column)
+            .build();
+
+        if (type == GenericTokenType.COMMENT)
+            lexer.addComment(token);
+        else
+            lexer.addToken(token);
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2016 Lite Solutions
+ *
+ *  This code is licensed under the Apache Software License version 2.
+ *  For more information, see the LICENSE file at the root of this package.
+ *
+ *  Should you not have the source code available, and the file above is
+ *  unavailable, you can obtain a copy of the license here:
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ */
+
+package org.litesolutions.sonar.grappa.channels;
+
+import java.util.Objects;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.litesolutions.sonar.grappa.GrappaSslrLexer;
+import org.litesolutions.sonar.grappa.matchers.CharClass;
+import org.sonar.sslr.channel.Channel;
+import org.sonar.sslr.channel.CodeReader;
+
+import com.sonar.sslr.api.TokenType;
+
+/**
+ * A pre-channel consuming a run of characters of a {@link CharClass}
+ *
+ * <p>This is the cheapest way to skip whitespace ahead of a grammar, or to
+ * lex simple tokens such as numbers. The run either becomes a token of the
+ * given type, or is discarded.</p>
+ *
+ * <p>Typical usage:</p>
+ *
+ * <pre>
+ *     new CharRunChannel(CharClass.WHITESPACE)
+ * </pre>
+ *
+ * @see GrappaSslrLexer.Builder#withPreChannel(Channel)
+ */
+@ThreadSafe
+public final class CharRunChannel
+    extends Channel<GrappaSslrLexer>
+{
+    @Nullable
+    private final TokenType type;
+    private final CharClass charClass;
+
+    /**
+     * Constructor for a channel discarding the run
+     *
+     * @param charClass the character class
+     */
+    public CharRunChannel(final CharClass charClass)
+    {
+        this(null, charClass);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param type the type of tokens, or null to discard runs
+     * @param charClass the character class
+     */
+    public CharRunChannel(@Nullable final TokenType type,
+        final CharClass charClass)
+    {
+        this.type = type;
+        this.charClass = Objects.requireNonNull(charClass);
+    }
+
+    @Override
+    public boolean consume(final CodeReader code, final GrappaSslrLexer output)
+    {
+        final int length = code.length();
+        int end = 0;
+
+        while (end < length && charClass.contains(code.charAt(end)))
+            end++;
+
+        if (end == 0)
+            return false;
+
+        if (type == null) {
+            for (int i = 0; i < end; i++)
+                code.pop();
+            return true;
+        }
+
+        final int line = code.getLinePosition();
+        final int column = code.getColumnPosition();
+        final StringBuilder value = new StringBuilder(end);
+
+        for (int i = 0; i < end; i++)
+            code.pop(value);
+
+        ChannelTokens.add(output, type, value.toString(), line, column);
+        return true;
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2016 Lite Solutions
+ *
+ *  This code is licensed under the Apache Software License version 2.
+ *  For more information, see the LICENSE file at the root of this package.
+ *
+ *  Should you not have the source code available, and the file above is
+ *  unavailable, you can obtain a copy of the license here:
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ */
+
+package org.litesolutions.sonar.grappa.channels;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.litesolutions.sonar.grappa.GrappaSslrLexer;
+import org.sonar.sslr.channel.Channel;
+import org.sonar.sslr.channel.CodeReader;
+
+import com.sonar.sslr.api.TokenType;
+
+/**
+ * A pre-channel recognizing punctuators
+ *
+ * <p>The value of a punctuator is the value of its token type; when several
+ * punctuators match, the longest one wins. Candidates are looked up by their
+ * first character, so that the cost of a failed attempt does not depend on
+ * the number of punctuators.</p>
+ *
+ * <p>Typical usage, with an enum of punctuators implementing {@link
+ * TokenType}:</p>
+ *
+ * <pre>
+ *     new PunctuatorChannel(MyPunctuator.values())
+ * </pre>
+ *
+ * @see GrappaSslrLexer.Builder#withPreChannel(Channel)
+ */
+@ThreadSafe
+public final class PunctuatorChannel
+    extends Channel<GrappaSslrLexer>
+{
+    private static final TokenType[] NONE = new TokenType[0];
+
+    /*
+     * Candidates by first character, longest first; ASCII characters are
+     * looked up in an array
+     */
+    private final TokenType[][] ascii = new TokenType[128][];
+    private final Map<Character, TokenType[]> others = new HashMap<>();
+
+    public PunctuatorChannel(final TokenType... punctuators)
+    {
+        final Map<Character, List<TokenType>> map = new HashMap<>();
+
+        for (final TokenType punctuator: punctuators) {
+            if (punctuator.getValue().isEmpty())
+                throw new IllegalArgumentException("punctuator "
+                    + punctuator.getName() + " has an empty value");
+            map.computeIfAbsent(punctuator.getValue().charAt(0),
+                c -> new ArrayList<>()).add(punctuator);
+        }
+
+        final Comparator<TokenType> longestFirst = Comparator.comparingInt(
+            (TokenType type) -> type.getValue().length()).reversed();
+
+        map.forEach((c, list) -> {
+            list.sort(longestFirst);
+            final TokenType[] candidates = list.toArray(NONE);
+            if (c < 128)
+                ascii[c] = candidates;
+            else
+                others.put(c, candidates);
+        });
+
+        for (int i = 0; i < ascii.length; i++)
+            if (ascii[i] == null)
+                ascii[i] = NONE;
+    }
+
+    @Override
+    public boolean consume(final CodeReader code, final GrappaSslrLexer output)
+    {
+        final int length = code.length();
+        if (length == 0)
+            return false;
+
+        final char c = code.charAt(0);
+        final TokenType[] candidates = c < 128 ? ascii[c]
+            : others.getOrDefault(c, NONE);
+
+        for (final TokenType candidate: candidates)
+            if (matches(code, length, candidate.getValue())) {
+                final int line = code.getLinePosition();
+                final int column = code.getColumnPosition();
+                for (int i = 0; i < candidate.getValue().length(); i++)
+                    code.pop();
+                ChannelTokens.add(output, candidate, candidate.getValue(),
+                    line, column);
+                return true;
+            }
+
+        return false;
+    }
+
+    private static boolean matches(final CodeReader code, final int length,
+        final String value)
+    {
+        if (value.length() > length)
+            return false;
+        for (int i = 1; i < value.length(); i++)
+            if (code.charAt(i) != value.charAt(i))
+                return false;
+        return true;
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2016 Lite Solutions
+ *
+ *  This code is licensed under the Apache Software License version 2.
+ *  For more information, see the LICENSE file at the root of this package.
+ *
+ *  Should you not have the source code available, and the file above is
+ *  unavailable, you can obtain a copy of the license here:
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ */
+
+package org.litesolutions.sonar.grappa.channels;
+
+import java.util.Objects;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.litesolutions.sonar.grappa.GrappaSslrLexer;
+import org.sonar.sslr.channel.Channel;
+import org.sonar.sslr.channel.CodeReader;
+
+import com.sonar.sslr.api.GenericTokenType;
+import com.sonar.sslr.api.TokenType;
+
+/**
+ * A pre-channel consuming the text matched by a regular expression
+ *
+ * <p>The matched text either becomes a token of the given type (comments
+ * become trivia), or is discarded.</p>
+ *
+ * <p>Typical usage, for C style line comments:</p>
+ *
+ * <pre>
+ *     new RegexpChannel(GenericTokenType.COMMENT, "//[^\\n\\r]*+")
+ * </pre>
+ *
+ * @see GrappaSslrLexer.Builder#withPreChannel(Channel)
+ */
+@ThreadSafe
+public final class RegexpChannel
+    extends Channel<GrappaSslrLexer>
+{
+    @Nullable
+    private final TokenType type;
+    private final ThreadLocal<State> states;
+
+    /**
+     * Constructor for a channel discarding the matched text
+     *
+     * @param regexp the regular expression
+     */
+    public RegexpChannel(final String regexp)
+    {
+        this(null, regexp);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param type the type of tokens, or null to discard the matched text
+     * @param regexp the regular expression
+     * @see GenericTokenType#COMMENT
+     */
+    public RegexpChannel(@Nullable final TokenType type, final String regexp)
+    {
+        this.type = type;
+        final Pattern pattern = Pattern.compile(Objects.requireNonNull(regexp));
+        states = ThreadLocal.withInitial(() -> new State(pattern));
+    }
+
+    @Override
+    public boolean consume(final CodeReader code, final GrappaSslrLexer output)
+    {
+        final State state = states.get();
+        final int line = code.getLinePosition();
+        final int column = code.getColumnPosition();
+
+        state.value.setLength(0);
+        if (code.popTo(state.matcher, state.value) <= 0)
+            return false;
+
+        if (type != null)
+            ChannelTokens.add(output, type, state.value.toString(), line,
+                column);
+        return true;
+    }
+
+    /*
+     * Matchers are not thread safe
+     */
+    private static final class State
+    {
+        private final Matcher matcher;
+        private final StringBuilder value = new StringBuilder();
+
+        private State(final Pattern pattern)
+        {
+            matcher = pattern.matcher("");
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2016 Lite Solutions
+ *
+ *  This code is licensed under the Apache Software License version 2.
+ *  For more information, see the LICENSE file at the root of this package.
+ *
+ *  Should you not have the source code available, and the file above is
+ *  unavailable, you can obtain a copy of the license here:
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ */
+
+package org.litesolutions.sonar.grappa.listeners;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import com.github.fge.grappa.matchers.base.Matcher;
+
+/**
+ * A parse event, as delivered to an {@link AsyncParseHandler}
+ *
+ * <p>This is a copy of the relevant data of a grappa parse event, made on the
+ * parsing thread; the context of the original event is long gone when the
+ * handler gets to see it.</p>
+ */
+@NotThreadSafe
+public final class AsyncEvent
+{
+    public enum Kind
+    {
+        BEFORE_PARSE,
+        BEFORE_MATCH,
+        MATCH_SUCCESS,
+        MATCH_FAILURE,
+        AFTER_PARSE,
+    }
+
+    private static final Kind[] KINDS = Kind.values();
+
+    Kind kind;
+    @Nullable
+    Matcher matcher;
+    int level;
+    int startIndex;
+    int index;
+    boolean success;
+    long dropped;
+
+    AsyncEvent()
+    {
+    }
+
+    static Kind kind(final int ordinal)
+    {
+        return KINDS[ordinal];
+    }
+
+    public Kind getKind()
+    {
+        return kind;
+    }
+
+    /**
+     * Get the matcher of a match event
+     *
+     * @return the matcher, or null for parse events
+     */
+    @Nullable
+    public Matcher getMatcher()
+    {
+        return matcher;
+    }
+
+    public int getLevel()
+    {
+        return level;
+    }
+
+    /**
+     * Get the index at which the match started
+     *
+     * @return the start index (0 for parse events)
+     */
+    public int getStartIndex()
+    {
+        return startIndex;
+    }
+
+    /**
+     * Get the current index
+     *
+     * <p>For a successful match, this is the index right after the match.</p>
+     *
+     * @return the current index (0 for parse events)
+     */
+    public int getIndex()
+    {
+        return index;
+    }
+
+    /**
+     * Tell whether the match or parse succeeded
+     *
+     * @return true for successful matches and parses
+     */
+    public boolean isSuccess()
+    {
+        return success;
+    }
+
+    /**
+     * Get the number of match events of the parse which were not delivered
+     *
+     * <p>This is only relevant for {@link Kind#AFTER_PARSE} events, and is
+     * always 0 with the {@link AsyncListenerSupplier.OverflowPolicy#BLOCK}
+     * policy.</p>
+     *
+     * @return the number of dropped events
+     */
+    public long getDropped()
+    {
+        return dropped;
+    }
+
+    @Override
+    public String toString()
+    {
+        return kind + (matcher == null ? "" : " " + matcher.getLabel())
+            + " level " + level + " [" + startIndex + ", " + index + ']';
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright (c) 2016 Lite Solutions
+ *
+ *  This code is licensed under the Apache Software License version 2.
+ *  For more information, see the LICENSE file at the root of this package.
+ *
+ *  Should you not have the source code available, and the file above is
+ *  unavailable, you can obtain a copy of the license here:
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ */
+
+package org.litesolutions.sonar.grappa.listeners;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.github.fge.grappa.matchers.base.Matcher;
+
+/**
+ * A single producer, single consumer ring of parse events
+ *
+ * <p>Events are stored in preallocated parallel arrays. The producer (the
+ * parsing thread) publishes an event by filling a slot then moving the tail
+ * forward with an ordered write; the consumer, a daemon thread, delivers all
+ * events up to the tail then moves the head forward the same way. There are no
+ * locks.</p>
+ *
+ * <p>The consumer thread is started when an event is published and no
+ * consumer is running, and exits after the ring has been empty for a while; a
+ * ring whose producer thread has died therefore leaves no thread behind.</p>
+ */
+@ThreadSafe
+final class AsyncEventRing
+{
+    private static final long IDLE_TIMEOUT = TimeUnit.SECONDS.toNanos(1L);
+    private static final long PARK_TIME = TimeUnit.MICROSECONDS.toNanos(50L);
+    private static final int MAX_SPINS = 100;
+    private static final AtomicInteger THREAD_COUNTER = new AtomicInteger();
+
+    private final int capacity;
+    private final int mask;
+    private final byte[] kinds;
+    private final Object[] refs;
+    private final int[] levels;
+    private final int[] startIndices;
+    private final int[] indices;
+    private final boolean[] successes;
+    private final long[] dropped;
+
+    /*
+     * Next slot to consume, next slot to publish
+     */
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    /*
+     * Producer only: last head value read
+     */
+    private long cachedHead = 0L;
+
+    /*
+     * Consumer only (one consumer thread at a time)
+     */
+    private final AsyncEvent event = new AsyncEvent();
+    private AsyncParseHandler handler = null;
+
+    AsyncEventRing(final int capacity)
+    {
+        this.capacity = capacity;
+        mask = capacity - 1;
+        kinds = new byte[capacity];
+        refs = new Object[capacity];
+        levels = new int[capacity];
+        startIndices = new int[capacity];
+        indices = new int[capacity];
+        successes = new boolean[capacity];
+        dropped = new long[capacity];
+    }
+
+    int capacity()
+    {
+        return capacity;
+    }
+
+    /**
+     * Get the number of events not consumed yet (producer only)
+     *
+     * @return the number of pending events
+     */
+    int pending()
+    {
+        return (int) (tail.get() - head.get());
+    }
+
+    /**
+     * Publish an event, if there is room for it (producer only)
+     *
+     * @return true if the event was published
+     */
+    boolean tryPublish(final AsyncEvent.Kind kind, final Object ref,
+        final int level, final int startIndex, final int index,
+        final boolean success, final long nrDropped)
+    {
+        final long position = tail.get();
+
+        if (position - cachedHead >= capacity) {
+            cachedHead = head.get();
+            if (position - cachedHead >= capacity)
+                return false;
+        }
+
+        final int slot = (int) position & mask;
+        kinds[slot] = (byte) kind.ordinal();
+        refs[slot] = ref;
+        levels[slot] = level;
+        startIndices[slot] = startIndex;
+        indices[slot] = index;
+        successes[slot] = success;
+        dropped[slot] = nrDropped;
+
+        /*
+         * Not lazySet(): the store of the tail must not be reordered with the
+         * load of the running flag below, otherwise an exiting consumer may
+         * miss this event while we see it still running
+         */
+        tail.set(position + 1L);
+
+        if (!running.get() && running.compareAndSet(false, true))
+            startConsumer();
+
+        return true;
+    }
+
+    /**
+     * Publish an event, waiting for room if needed (producer only)
+     */
+    void publish(final AsyncEvent.Kind kind, final Object ref,
+        final int level, final int startIndex, final int index,
+        final boolean success, final long nrDropped)
+    {
+        int spins = 0;
+
+        while (!tryPublish(kind, ref, level, startIndex, index, success,
+            nrDropped))
+            if (++spins < MAX_SPINS)
+                Thread.onSpinWait();
+            else
+                LockSupport.parkNanos(PARK_TIME);
+    }
+
+    private void startConsumer()
+    {
+        final Thread thread = new Thread(this::consume,
+            "grappa-async-listener-" + THREAD_COUNTER.incrementAndGet());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void consume()
+    {
+        long idleSince = System.nanoTime();
+        long position;
+        long end;
+
+        while (true) {
+            position = head.get();
+            end = tail.get();
+
+            if (position == end) {
+                if (System.nanoTime() - idleSince < IDLE_TIMEOUT) {
+                    LockSupport.parkNanos(PARK_TIME);
+                    continue;
+                }
+                /*
+                 * Exit, unless an event was published in between and the
+                 * producer did not see us exiting
+                 */
+                running.set(false);
+                if (tail.get() == position
+                    || !running.compareAndSet(false, true))
+                    return;
+                continue;
+            }
+
+            for (; position < end; position++)
+                deliver((int) position & mask);
+
+            head.lazySet(end);
+            idleSince = System.nanoTime();
+        }
+    }
+
+    private void deliver(final int slot)
+    {
+        final AsyncEvent.Kind kind = AsyncEvent.kind(kinds[slot]);
+        final Object ref = refs[slot];
+        refs[slot] = null;
+
+        final boolean parseEvent = kind == AsyncEvent.Kind.BEFORE_PARSE
+            || kind == AsyncEvent.Kind.AFTER_PARSE;
+
+        if (kind == AsyncEvent.Kind.BEFORE_PARSE)
+            handler = (AsyncParseHandler) ref;
+
+        if (handler == null)
+            return;
+
+        event.kind = kind;
+        event.matcher = parseEvent ? null : (Matcher) ref;
+        event.level = levels[slot];
+        event.startIndex = startIndices[slot];
+        event.index = indices[slot];
+        event.success = successes[slot];
+        event.dropped = dropped[slot];
+
+        try {
+            handler.handle(event);
+        } catch (RuntimeException e) {
+            /*
+             * Stop delivering events of this parse to this handler
+             */
+            handler = null;
+            final Thread thread = Thread.currentThread();
+            thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+        }
+
+        if (kind == AsyncEvent.Kind.AFTER_PARSE)
+            handler = null;
+    }
+}
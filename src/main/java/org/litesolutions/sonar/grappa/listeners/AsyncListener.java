@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2016 Lite Solutions
+ *
+ *  This code is licensed under the Apache Software License version 2.
+ *  For more information, see the LICENSE file at the root of this package.
+ *
+ *  Should you not have the source code available, and the file above is
+ *  unavailable, you can obtain a copy of the license here:
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ */
+
+package org.litesolutions.sonar.grappa.listeners;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import com.github.fge.grappa.run.ParseEventListener;
+import com.github.fge.grappa.run.context.MatcherContext;
+import com.github.fge.grappa.run.events.MatchFailureEvent;
+import com.github.fge.grappa.run.events.MatchSuccessEvent;
+import com.github.fge.grappa.run.events.PostParseEvent;
+import com.github.fge.grappa.run.events.PreMatchEvent;
+import com.github.fge.grappa.run.events.PreParseEvent;
+import com.sonar.sslr.api.Token;
+
+/**
+ * The listener created by an {@link AsyncListenerSupplier}
+ *
+ * <p>It only copies events into the ring of the parsing thread. Parse events
+ * are published as soon as this listener receives them, waiting for room if
+ * needed; match events are published according to the overflow policy.</p>
+ */
+@NotThreadSafe
+final class AsyncListener
+    extends ParseEventListener<Token.Builder>
+{
+    /*
+     * With the SAMPLE policy, one match event out of this many is kept while
+     * the ring is at least half full
+     */
+    private static final int SAMPLE_RATE = 16;
+
+    private final AsyncEventRing ring;
+    private final AsyncParseHandler handler;
+    private final AsyncListenerSupplier.OverflowPolicy policy;
+
+    private long dropped = 0L;
+    private long sampleCounter = 0L;
+
+    AsyncListener(final AsyncEventRing ring, final AsyncParseHandler handler,
+        final AsyncListenerSupplier.OverflowPolicy policy)
+    {
+        this.ring = ring;
+        this.handler = handler;
+        this.policy = policy;
+    }
+
+    @Override
+    public void beforeParse(final PreParseEvent<Token.Builder> event)
+    {
+        dropped = 0L;
+        ring.publish(AsyncEvent.Kind.BEFORE_PARSE, handler, 0, 0, 0, false,
+            0L);
+    }
+
+    @Override
+    public void beforeMatch(final PreMatchEvent<Token.Builder> event)
+    {
+        final MatcherContext<Token.Builder> context = event.getContext();
+        final int index = context.getCurrentIndex();
+        offer(AsyncEvent.Kind.BEFORE_MATCH, context, index, index, false);
+    }
+
+    @Override
+    public void matchSuccess(final MatchSuccessEvent<Token.Builder> event)
+    {
+        final MatcherContext<Token.Builder> context = event.getContext();
+        offer(AsyncEvent.Kind.MATCH_SUCCESS, context,
+            context.getStartIndex(), context.getCurrentIndex(), true);
+    }
+
+    @Override
+    public void matchFailure(final MatchFailureEvent<Token.Builder> event)
+    {
+        final MatcherContext<Token.Builder> context = event.getContext();
+        offer(AsyncEvent.Kind.MATCH_FAILURE, context,
+            context.getStartIndex(), context.getCurrentIndex(), false);
+    }
+
+    @Override
+    public void afterParse(final PostParseEvent<Token.Builder> event)
+    {
+        ring.publish(AsyncEvent.Kind.AFTER_PARSE, null, 0, 0, 0,
+            event.getResult().isSuccess(), dropped);
+    }
+
+    private void offer(final AsyncEvent.Kind kind,
+        final MatcherContext<Token.Builder> context, final int startIndex,
+        final int index, final boolean success)
+    {
+        switch (policy) {
+            case BLOCK:
+                ring.publish(kind, context.getMatcher(), context.getLevel(),
+                    startIndex, index, success, 0L);
+                return;
+            case SAMPLE:
+                if (ring.pending() >= ring.capacity() / 2
+                    && sampleCounter++ % SAMPLE_RATE != 0L) {
+                    dropped++;
+                    return;
+                }
+                // fall through
+            case DROP:
+                if (!ring.tryPublish(kind, context.getMatcher(),
+                    context.getLevel(), startIndex, index, success, 0L))
+                    dropped++;
+                return;
+            default:
+                throw new IllegalStateException("unhandled policy " + policy);
+        }
+    }
+}
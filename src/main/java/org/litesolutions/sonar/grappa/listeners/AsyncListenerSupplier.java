@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2016 Lite Solutions
+ *
+ *  This code is licensed under the Apache Software License version 2.
+ *  For more information, see the LICENSE file at the root of this package.
+ *
+ *  Should you not have the source code available, and the file above is
+ *  unavailable, you can obtain a copy of the license here:
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ */
+
+package org.litesolutions.sonar.grappa.listeners;
+
+import java.net.URI;
+import java.util.Objects;
+import java.util.function.Function;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.litesolutions.sonar.grappa.GrappaSslrLexer;
+import org.sonar.sslr.channel.CodeReader;
+
+import com.github.fge.grappa.run.ParseEventListener;
+import com.sonar.sslr.api.Token;
+
+/**
+ * A {@link ListenerSupplier} running its handlers off the parsing thread
+ *
+ * <p>Listeners created by other suppliers run on the parsing thread, for
+ * every matcher event; a slow listener (tracing, metrics...) therefore slows
+ * down lexing directly. With this supplier, the listener registered with the
+ * parser only copies events into a preallocated ring (one per parsing thread,
+ * reused from one parse to the next), and an {@link AsyncParseHandler} created
+ * for each parse receives them on a background thread.</p>
+ *
+ * <p>What happens when the ring is full depends on the {@link
+ * OverflowPolicy}; the start and end of a parse are never dropped, and the
+ * number of match events which were is reported with the end of the parse
+ * (see {@link AsyncEvent#getDropped()}).</p>
+ *
+ * <p>The end of a parse is delivered for failed parses too, since a {@link
+ * org.litesolutions.sonar.grappa.GrappaChannel} calls supplied listeners
+ * before the listener which throws on failure. It is missing only if the
+ * parse aborts with an exception (thrown by a grammar action, for instance);
+ * the handler of the next parse then simply takes over.</p>
+ *
+ * <p>Typical usage:</p>
+ *
+ * <pre>
+ *     GrappaSslrFactory.withParserClass(MyParser.class)
+ *         .addListenerSupplier(new AsyncListenerSupplier(MyMetrics::new,
+ *             AsyncListenerSupplier.DEFAULT_CAPACITY,
+ *             AsyncListenerSupplier.OverflowPolicy.SAMPLE))
+ *         ...
+ * </pre>
+ */
+@ThreadSafe
+public final class AsyncListenerSupplier
+    implements ListenerSupplier
+{
+    /**
+     * Default ring capacity, in events
+     */
+    public static final int DEFAULT_CAPACITY = 1 << 14;
+
+    public enum OverflowPolicy
+    {
+        /**
+         * Wait for the handler to catch up; no event is lost
+         */
+        BLOCK,
+        /**
+         * Drop match events which do not fit in the ring
+         */
+        DROP,
+        /**
+         * Only keep a sample of match events when the ring is at least half
+         * full, and drop those which do not fit
+         */
+        SAMPLE,
+    }
+
+    private final Function<URI, ? extends AsyncParseHandler> handlers;
+    private final OverflowPolicy policy;
+    private final ThreadLocal<AsyncEventRing> rings;
+
+    /**
+     * Constructor with the default capacity and the {@link
+     * OverflowPolicy#BLOCK} policy
+     *
+     * @param handlers the handler factory, given the URI of the parsed file
+     */
+    public AsyncListenerSupplier(
+        final Function<URI, ? extends AsyncParseHandler> handlers)
+    {
+        this(handlers, DEFAULT_CAPACITY, OverflowPolicy.BLOCK);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param handlers the handler factory, given the URI of the parsed file
+     * @param capacity the ring capacity, rounded up to a power of two
+     * @param policy the policy when the ring is full
+     */
+    public AsyncListenerSupplier(
+        final Function<URI, ? extends AsyncParseHandler> handlers,
+        final int capacity, final OverflowPolicy policy)
+    {
+        if (capacity <= 0 || capacity > 1 << 30)
+            throw new IllegalArgumentException("capacity must be between 1 and"
+                + " 2^30");
+        this.handlers = Objects.requireNonNull(handlers);
+        this.policy = Objects.requireNonNull(policy);
+        final int size = Integer.highestOneBit(capacity) == capacity
+            ? capacity : Integer.highestOneBit(capacity) << 1;
+        rings = ThreadLocal.withInitial(() -> new AsyncEventRing(size));
+    }
+
+    @Nonnull
+    @Override
+    public ParseEventListener<Token.Builder> create(final CodeReader reader,
+        final GrappaSslrLexer lexer)
+    {
+        return new AsyncListener(rings.get(),
+            Objects.requireNonNull(handlers.apply(lexer.getURI())), policy);
+    }
+}
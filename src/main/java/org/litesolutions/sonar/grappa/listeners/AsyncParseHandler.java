@@ -0,0 +1,30 @@
+/*
+ * Copyright (c) 2016 Lite Solutions
+ *
+ *  This code is licensed under the Apache Software License version 2.
+ *  For more information, see the LICENSE file at the root of this package.
+ *
+ *  Should you not have the source code available, and the file above is
+ *  unavailable, you can obtain a copy of the license here:
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ */
+
+package org.litesolutions.sonar.grappa.listeners;
+
+/**
+ * A handler for parse events delivered off the parsing thread
+ *
+ * <p>A handler is created for each parse by an {@link AsyncListenerSupplier},
+ * on the parsing thread; all events of this parse are then delivered to it,
+ * in order, on a background thread.</p>
+ *
+ * <p>The event passed as an argument is a view which is reused for the next
+ * event; it must not be retained.</p>
+ */
+@FunctionalInterface
+public interface AsyncParseHandler
+{
+    void handle(AsyncEvent event);
+}
@@ -0,0 +1,323 @@
+/*
+ * Copyright (c) 2016 Lite Solutions
+ *
+ *  This code is licensed under the Apache Software License version 2.
+ *  For more information, see the LICENSE file at the root of this package.
+ *
+ *  Should you not have the source code available, and the file above is
+ *  unavailable, you can obtain a copy of the license here:
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ */
+
+package org.litesolutions.sonar.grappa.listeners;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import org.litesolutions.sonar.grappa.GrappaSslrLexer;
+
+import com.github.fge.grappa.buffers.InputBuffer;
+import com.github.fge.grappa.matchers.base.Matcher;
+import com.github.fge.grappa.run.ParseEventListener;
+import com.github.fge.grappa.run.context.MatcherContext;
+import com.github.fge.grappa.run.events.MatchFailureEvent;
+import com.github.fge.grappa.run.events.MatchSuccessEvent;
+import com.github.fge.grappa.run.events.PostParseEvent;
+import com.github.fge.grappa.run.events.PreMatchEvent;
+import com.github.fge.grappa.run.events.PreParseEvent;
+import com.sonar.sslr.api.Token;
+
+/**
+ * The listener created by a {@link RingTraceListenerSupplier}
+ */
+@NotThreadSafe
+final class RingTraceListener
+    extends ParseEventListener<Token.Builder>
+{
+    private static final char CSV_SEPARATOR = ';';
+    private static final AtomicLong TRACE_COUNTER = new AtomicLong();
+
+    private final Path directory;
+    private final Ring ring;
+    private final GrappaSslrLexer lexer;
+
+    private InputBuffer inputBuffer = null;
+    private long startDate = 0L;
+    private int rootEnd = -1;
+
+    RingTraceListener(final Path directory, final Ring ring,
+        final GrappaSslrLexer lexer)
+    {
+        this.directory = directory;
+        this.ring = ring;
+        this.lexer = lexer;
+    }
+
+    @Override
+    public void beforeParse(final PreParseEvent<Token.Builder> event)
+    {
+        inputBuffer = event.getContext().getInputBuffer();
+        startDate = System.currentTimeMillis();
+        ring.reset();
+    }
+
+    @Override
+    public void beforeMatch(final PreMatchEvent<Token.Builder> event)
+    {
+        final MatcherContext<Token.Builder> context = event.getContext();
+        ring.open(context.getLevel(), ring.matcherId(context.getMatcher()),
+            context.getCurrentIndex());
+    }
+
+    @Override
+    public void matchSuccess(final MatchSuccessEvent<Token.Builder> event)
+    {
+        final MatcherContext<Token.Builder> context = event.getContext();
+        ring.close(context.getLevel(), context.getCurrentIndex(), true);
+        if (context.getLevel() == 0)
+            rootEnd = context.getCurrentIndex();
+    }
+
+    @Override
+    public void matchFailure(final MatchFailureEvent<Token.Builder> event)
+    {
+        final MatcherContext<Token.Builder> context = event.getContext();
+        ring.close(context.getLevel(), context.getCurrentIndex(), false);
+    }
+
+    /*
+     * GrappaChannel calls supplied listeners before its CodeReaderListener,
+     * which throws on failure; see ForwardingListener
+     */
+    @Override
+    public void afterParse(final PostParseEvent<Token.Builder> event)
+    {
+        /*
+         * Same conditions as those for which CodeReaderListener throws; in
+         * partial match mode, it never does
+         */
+        if (lexer.hasPreChannels())
+            return;
+        if (event.getResult().isSuccess()
+            && rootEnd == inputBuffer.length())
+            return;
+
+        try {
+            dump();
+        } catch (IOException e) {
+            throw new UncheckedIOException("unable to write trace file", e);
+        }
+    }
+
+    private void dump()
+        throws IOException
+    {
+        Files.createDirectories(directory);
+        final Path path = directory.resolve(traceFileName());
+
+        try (
+            final OutputStream out = Files.newOutputStream(path);
+            final ZipOutputStream zip = new ZipOutputStream(out);
+        ) {
+            final String input = inputBuffer.extract(0, inputBuffer.length());
+
+            writeEntry(zip, "input.txt", input);
+            writeEntry(zip, "matchers.csv", ring.matchersCsv());
+            writeEntry(zip, "nodes.csv", ring.nodesCsv());
+
+            final String info = String.valueOf(startDate) + CSV_SEPARATOR
+                + ring.treeDepth + CSV_SEPARATOR
+                + ring.matchers.size() + CSV_SEPARATOR
+                + inputBuffer.getLineCount() + CSV_SEPARATOR
+                + input.length() + CSV_SEPARATOR
+                + input.codePointCount(0, input.length()) + CSV_SEPARATOR
+                + ring.recordedCount() + '\n';
+            writeEntry(zip, "info.csv", info);
+        }
+    }
+
+    private String traceFileName()
+    {
+        final URI uri = lexer.getURI();
+        String name = uri == null || uri.getPath() == null ? "input"
+            : uri.getPath().substring(uri.getPath().lastIndexOf('/') + 1);
+        name = name.replaceAll("[^A-Za-z0-9._-]", "_");
+        return "trace-" + name + '-' + TRACE_COUNTER.incrementAndGet()
+            + ".zip";
+    }
+
+    private static void writeEntry(final ZipOutputStream zip,
+        final String name, final String contents)
+        throws IOException
+    {
+        zip.putNextEntry(new ZipEntry(name));
+        zip.write(contents.getBytes(StandardCharsets.UTF_8));
+        zip.closeEntry();
+    }
+
+    /*
+     * The recorded data. One instance per thread and per supplier; it is
+     * reset at the start of each parse, matcher ids included: matchers are
+     * not necessarily reused from one parse to the next (each parser obtained
+     * from a factory has its own), and keeping them would make the registry
+     * grow without bounds.
+     */
+    @NotThreadSafe
+    static final class Ring
+    {
+        private final int capacity;
+
+        private final int[] nodeIds;
+        private final int[] parentIds;
+        private final int[] levels;
+        private final int[] matcherIds;
+        private final int[] starts;
+        private final int[] ends;
+        private final boolean[] successes;
+        private long count = 0L;
+
+        /*
+         * Matches in progress, indexed by level
+         */
+        private int[] openNodeIds = new int[64];
+        private int[] openMatcherIds = new int[64];
+        private int[] openStarts = new int[64];
+        private int nextNodeId = 0;
+        private int treeDepth = 0;
+
+        private final Map<Matcher, Integer> matcherIdMap
+            = new IdentityHashMap<>();
+        private final List<Matcher> matchers = new ArrayList<>();
+
+        Ring(final int capacity)
+        {
+            this.capacity = capacity;
+            nodeIds = new int[capacity];
+            parentIds = new int[capacity];
+            levels = new int[capacity];
+            matcherIds = new int[capacity];
+            starts = new int[capacity];
+            ends = new int[capacity];
+            successes = new boolean[capacity];
+        }
+
+        void reset()
+        {
+            count = 0L;
+            nextNodeId = 0;
+            treeDepth = 0;
+            matcherIdMap.clear();
+            matchers.clear();
+        }
+
+        int matcherId(final Matcher matcher)
+        {
+            final Integer id = matcherIdMap.get(matcher);
+            if (id != null)
+                return id;
+            final int newId = matchers.size();
+            matchers.add(matcher);
+            matcherIdMap.put(matcher, newId);
+            return newId;
+        }
+
+        void open(final int level, final int matcherId, final int start)
+        {
+            if (level >= openNodeIds.length) {
+                final int newLength = Math.max(level + 1,
+                    openNodeIds.length * 2);
+                openNodeIds = Arrays.copyOf(openNodeIds, newLength);
+                openMatcherIds = Arrays.copyOf(openMatcherIds, newLength);
+                openStarts = Arrays.copyOf(openStarts, newLength);
+            }
+            openNodeIds[level] = nextNodeId++;
+            openMatcherIds[level] = matcherId;
+            openStarts[level] = start;
+            treeDepth = Math.max(treeDepth, level + 1);
+        }
+
+        void close(final int level, final int end, final boolean success)
+        {
+            final int slot = (int) (count % capacity);
+            nodeIds[slot] = openNodeIds[level];
+            parentIds[slot] = level == 0 ? -1 : openNodeIds[level - 1];
+            levels[slot] = level;
+            matcherIds[slot] = openMatcherIds[level];
+            starts[slot] = openStarts[level];
+            ends[slot] = end;
+            successes[slot] = success;
+            count++;
+        }
+
+        int recordedCount()
+        {
+            return (int) Math.min(count, capacity);
+        }
+
+        String matchersCsv()
+        {
+            final StringBuilder sb = new StringBuilder();
+            Matcher matcher;
+
+            for (int id = 0; id < matchers.size(); id++) {
+                matcher = matchers.get(id);
+                sb.append(id).append(CSV_SEPARATOR)
+                    .append(matcher.getClass().getSimpleName())
+                    .append(CSV_SEPARATOR)
+                    .append(matcher.getType()).append(CSV_SEPARATOR)
+                    .append(matcher.getLabel()).append('\n');
+            }
+
+            return sb.toString();
+        }
+
+        String nodesCsv()
+        {
+            final int recorded = recordedCount();
+            final int first = (int) ((count - recorded) % capacity);
+            final Set<Integer> present = new HashSet<>();
+
+            for (int i = 0; i < recorded; i++)
+                present.add(nodeIds[(first + i) % capacity]);
+
+            final StringBuilder sb = new StringBuilder();
+            int slot;
+            int parentId;
+
+            for (int i = 0; i < recorded; i++) {
+                slot = (first + i) % capacity;
+                parentId = present.contains(parentIds[slot])
+                    ? parentIds[slot] : -1;
+                sb.append(parentId).append(CSV_SEPARATOR)
+                    .append(nodeIds[slot]).append(CSV_SEPARATOR)
+                    .append(levels[slot]).append(CSV_SEPARATOR)
+                    .append(successes[slot] ? 1 : 0).append(CSV_SEPARATOR)
+                    .append(matcherIds[slot]).append(CSV_SEPARATOR)
+                    .append(starts[slot]).append(CSV_SEPARATOR)
+                    .append(ends[slot]).append(CSV_SEPARATOR)
+                    .append(0).append('\n');
+            }
+
+            return sb.toString();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2016 Lite Solutions
+ *
+ *  This code is licensed under the Apache Software License version 2.
+ *  For more information, see the LICENSE file at the root of this package.
+ *
+ *  Should you not have the source code available, and the file above is
+ *  unavailable, you can obtain a copy of the license here:
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ */
+
+package org.litesolutions.sonar.grappa.listeners;
+
+import java.nio.file.Path;
+import java.util.Objects;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.litesolutions.sonar.grappa.GrappaSslrLexer;
+import org.sonar.sslr.channel.CodeReader;
+
+import com.github.fge.grappa.run.ParseEventListener;
+import com.github.fge.grappa.run.trace.TracingListener;
+import com.sonar.sslr.api.Token;
+
+/**
+ * A {@link ListenerSupplier} recording the last match events of each parse,
+ * and writing a trace file only when the parse fails
+ *
+ * <p>Unlike a {@link TracingListener}, which writes a trace file for each and
+ * every parsing run, the listeners created by this supplier record the last
+ * {@code capacity} completed matches into a preallocated ring of primitive
+ * arrays (one per thread, reused from one parse to the next). A trace file is
+ * only written if the parse fails, or does not consume the whole input; that
+ * is, when the lexer is about to throw an exception.</p>
+ *
+ * <p>Trace files are zip files with the same layout as those written by a
+ * {@link TracingListener}, and can therefore be opened with the grappa
+ * debugger. Since only the last matches are recorded, the oldest recorded
+ * nodes may have parents which are not part of the trace; their parent id is
+ * then {@code -1}. Match times are not recorded, and are always 0.</p>
+ *
+ * <p>Typical usage:</p>
+ *
+ * <pre>
+ *     GrappaSslrFactory.withParserClass(MyParser.class)
+ *         .addListenerSupplier(new RingTraceListenerSupplier(traceDir))
+ *         ...
+ * </pre>
+ */
+@ThreadSafe
+public final class RingTraceListenerSupplier
+    implements ListenerSupplier
+{
+    /**
+     * Default number of recorded matches
+     */
+    public static final int DEFAULT_CAPACITY = 1 << 14;
+
+    private final Path directory;
+    private final ThreadLocal<RingTraceListener.Ring> rings;
+
+    /**
+     * Constructor with the default capacity
+     *
+     * @param directory the directory where trace files are written
+     */
+    public RingTraceListenerSupplier(final Path directory)
+    {
+        this(directory, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param directory the directory where trace files are written
+     * @param capacity the number of recorded matches
+     */
+    public RingTraceListenerSupplier(final Path directory, final int capacity)
+    {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("capacity must be strictly"
+                + " positive");
+        this.directory = Objects.requireNonNull(directory);
+        rings = ThreadLocal.withInitial(
+            () -> new RingTraceListener.Ring(capacity));
+    }
+
+    @Nonnull
+    @Override
+    public ParseEventListener<Token.Builder> create(final CodeReader reader,
+        final GrappaSslrLexer lexer)
+    {
+        return new RingTraceListener(directory, rings.get(), lexer);
+    }
+}
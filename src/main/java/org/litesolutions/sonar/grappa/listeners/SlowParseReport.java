@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2016 Lite Solutions
+ *
+ *  This code is licensed under the Apache Software License version 2.
+ *  For more information, see the LICENSE file at the root of this package.
+ *
+ *  Should you not have the source code available, and the file above is
+ *  unavailable, you can obtain a copy of the license here:
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ */
+
+package org.litesolutions.sonar.grappa.listeners;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.List;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * A report of a parse which took longer than its threshold
+ *
+ * <p>The report is a snapshot of the parse while it is still running: the
+ * matchers in progress, from the outermost (level 0) to the innermost, and the
+ * farthest input index reached so far. Since it is taken from another thread,
+ * without stopping the parse, it is a best effort snapshot: the innermost
+ * frames may already have completed when the report is read.</p>
+ *
+ * @see WatchdogListenerSupplier
+ */
+@Immutable
+public final class SlowParseReport
+{
+    private final URI uri;
+    private final String threadName;
+    private final Duration elapsed;
+    private final Duration threshold;
+    private final int inputLength;
+    private final int farthestIndex;
+    private final List<Frame> frames;
+
+    SlowParseReport(@Nullable final URI uri, final String threadName,
+        final Duration elapsed, final Duration threshold,
+        final int inputLength, final int farthestIndex,
+        final List<Frame> frames)
+    {
+        this.uri = uri;
+        this.threadName = threadName;
+        this.elapsed = elapsed;
+        this.threshold = threshold;
+        this.inputLength = inputLength;
+        this.farthestIndex = farthestIndex;
+        this.frames = List.copyOf(frames);
+    }
+
+    /**
+     * Get the URI of the source being parsed
+     *
+     * @return the URI, or null if unknown
+     */
+    @Nullable
+    public URI getUri()
+    {
+        return uri;
+    }
+
+    public String getThreadName()
+    {
+        return threadName;
+    }
+
+    public Duration getElapsed()
+    {
+        return elapsed;
+    }
+
+    public Duration getThreshold()
+    {
+        return threshold;
+    }
+
+    public int getInputLength()
+    {
+        return inputLength;
+    }
+
+    public int getFarthestIndex()
+    {
+        return farthestIndex;
+    }
+
+    /**
+     * Get the matchers in progress
+     *
+     * @return the frames, outermost first
+     */
+    public List<Frame> getFrames()
+    {
+        return frames;
+    }
+
+    @Override
+    public String toString()
+    {
+        final StringBuilder sb = new StringBuilder("slow parse of ")
+            .append(uri).append(" on thread ").append(threadName)
+            .append(": ").append(elapsed.toMillis()).append(" ms (threshold ")
+            .append(threshold.toMillis()).append(" ms), farthest index ")
+            .append(farthestIndex).append('/').append(inputLength);
+
+        for (final Frame frame: frames)
+            sb.append("\n    ").append(frame);
+
+        return sb.toString();
+    }
+
+    /**
+     * A matcher in progress
+     */
+    @Immutable
+    public static final class Frame
+    {
+        private final int level;
+        private final String label;
+        private final String matcherType;
+        private final int startIndex;
+
+        Frame(final int level, final String label, final String matcherType,
+            final int startIndex)
+        {
+            this.level = level;
+            this.label = label;
+            this.matcherType = matcherType;
+            this.startIndex = startIndex;
+        }
+
+        public int getLevel()
+        {
+            return level;
+        }
+
+        /**
+         * Get the label of the matcher
+         *
+         * <p>For rules, this is the rule name.</p>
+         *
+         * @return the label
+         */
+        public String getLabel()
+        {
+            return label;
+        }
+
+        public String getMatcherType()
+        {
+            return matcherType;
+        }
+
+        public int getStartIndex()
+        {
+            return startIndex;
+        }
+
+        @Override
+        public String toString()
+        {
+            return level + ": " + label + " (" + matcherType + ") at "
+                + startIndex;
+        }
+    }
+}
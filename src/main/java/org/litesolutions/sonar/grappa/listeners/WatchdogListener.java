@@ -0,0 +1,229 @@
+/*
+ * Copyright (c) 2016 Lite Solutions
+ *
+ *  This code is licensed under the Apache Software License version 2.
+ *  For more information, see the LICENSE file at the root of this package.
+ *
+ *  Should you not have the source code available, and the file above is
+ *  unavailable, you can obtain a copy of the license here:
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ */
+
+package org.litesolutions.sonar.grappa.listeners;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import org.litesolutions.sonar.grappa.GrappaSslrLexer;
+
+import com.github.fge.grappa.matchers.base.Matcher;
+import com.github.fge.grappa.run.ParseEventListener;
+import com.github.fge.grappa.run.context.MatcherContext;
+import com.github.fge.grappa.run.events.MatchFailureEvent;
+import com.github.fge.grappa.run.events.MatchSuccessEvent;
+import com.github.fge.grappa.run.events.PostParseEvent;
+import com.github.fge.grappa.run.events.PreMatchEvent;
+import com.github.fge.grappa.run.events.PreParseEvent;
+import com.sonar.sslr.api.Token;
+
+/**
+ * The listener created by a {@link WatchdogListenerSupplier}
+ */
+@NotThreadSafe
+final class WatchdogListener
+    extends ParseEventListener<Token.Builder>
+{
+    private final WatchdogListenerSupplier supplier;
+    private final Stack stack;
+    private final GrappaSslrLexer lexer;
+
+    private URI uri = null;
+    private String threadName = null;
+    private long startNanos = 0L;
+    private int inputLength = 0;
+    private Duration threshold = Duration.ZERO;
+
+    WatchdogListener(final WatchdogListenerSupplier supplier,
+        final Stack stack, final GrappaSslrLexer lexer)
+    {
+        this.supplier = supplier;
+        this.stack = stack;
+        this.lexer = lexer;
+    }
+
+    @Override
+    public void beforeParse(final PreParseEvent<Token.Builder> event)
+    {
+        /*
+         * The stack is reused from one parse to the next on this thread; the
+         * check of a previous parse must not report on this one
+         */
+        final long generation = stack.reset();
+        uri = lexer.getURI();
+        threadName = Thread.currentThread().getName();
+        inputLength = event.getContext().getInputBuffer().length();
+        threshold = supplier.thresholdFor(inputLength);
+        startNanos = System.nanoTime();
+        stack.check = supplier.schedule(() -> report(generation), threshold);
+    }
+
+    @Override
+    public void beforeMatch(final PreMatchEvent<Token.Builder> event)
+    {
+        final MatcherContext<Token.Builder> context = event.getContext();
+        stack.push(context.getLevel(), context.getMatcher(),
+            context.getCurrentIndex());
+    }
+
+    @Override
+    public void matchSuccess(final MatchSuccessEvent<Token.Builder> event)
+    {
+        final MatcherContext<Token.Builder> context = event.getContext();
+        stack.pop(context.getLevel(), context.getCurrentIndex());
+    }
+
+    @Override
+    public void matchFailure(final MatchFailureEvent<Token.Builder> event)
+    {
+        final MatcherContext<Token.Builder> context = event.getContext();
+        stack.pop(context.getLevel(), context.getCurrentIndex());
+    }
+
+    /*
+     * GrappaChannel calls supplied listeners at the end of every parse, even
+     * one which fails or aborts with an exception (see ForwardingListener);
+     * the check is therefore always cancelled here, and the new generation
+     * makes a check which is already running report nothing
+     */
+    @Override
+    public void afterParse(final PostParseEvent<Token.Builder> event)
+    {
+        stack.finish();
+    }
+
+    /*
+     * Called from the watchdog thread; all fields read here were written
+     * before the check was scheduled
+     */
+    private void report(final long generation)
+    {
+        final Duration elapsed = Duration.ofNanos(System.nanoTime()
+            - startNanos);
+        final List<SlowParseReport.Frame> frames = new ArrayList<>();
+        final int farthest = stack.snapshot(generation, frames);
+
+        if (farthest < 0)
+            return;
+
+        supplier.report(new SlowParseReport(uri, threadName, elapsed,
+            threshold, inputLength, farthest, frames));
+    }
+
+    /*
+     * The matchers in progress, indexed by level. One instance per thread and
+     * per supplier, reused from one parse to the next.
+     *
+     * The parsing thread writes the arrays and the farthest index with plain
+     * stores, then publishes the depth with a release store; the watchdog
+     * thread reads the depth first. The snapshot may be stale or partly
+     * overwritten, but never inconsistent enough to fail.
+     */
+    @NotThreadSafe
+    static final class Stack
+    {
+        private Matcher[] matchers = new Matcher[64];
+        private int[] starts = new int[64];
+        private int farthest = 0;
+        private final AtomicInteger depth = new AtomicInteger();
+
+        /*
+         * Incremented at the start and at the end of each parse
+         */
+        private final AtomicLong generation = new AtomicLong();
+        private ScheduledFuture<?> check = null;
+
+        /*
+         * Cancel the check of the previous parse, if still pending, and
+         * return the generation of the new parse
+         */
+        long reset()
+        {
+            finish();
+            farthest = 0;
+            depth.set(0);
+            return generation.incrementAndGet();
+        }
+
+        void finish()
+        {
+            generation.incrementAndGet();
+            if (check != null) {
+                check.cancel(false);
+                check = null;
+            }
+        }
+
+        void push(final int level, final Matcher matcher, final int start)
+        {
+            if (level >= matchers.length) {
+                final int newLength = Math.max(level + 1,
+                    matchers.length * 2);
+                starts = Arrays.copyOf(starts, newLength);
+                matchers = Arrays.copyOf(matchers, newLength);
+            }
+            matchers[level] = matcher;
+            starts[level] = start;
+            if (start > farthest)
+                farthest = start;
+            depth.lazySet(level + 1);
+        }
+
+        void pop(final int level, final int index)
+        {
+            if (index > farthest)
+                farthest = index;
+            depth.lazySet(level);
+        }
+
+        /*
+         * Returns -1 if the parse of the given generation is over
+         */
+        int snapshot(final long expected,
+            final List<SlowParseReport.Frame> frames)
+        {
+            if (generation.get() != expected)
+                return -1;
+
+            final int size = depth.get();
+            final int ret = farthest;
+            final Matcher[] m = matchers;
+            final int[] s = starts;
+            final int length = Math.min(size, Math.min(m.length, s.length));
+            Matcher matcher;
+
+            for (int level = 0; level < length; level++) {
+                matcher = m[level];
+                if (matcher == null)
+                    continue;
+                frames.add(new SlowParseReport.Frame(level,
+                    matcher.getLabel(), matcher.getType().name(), s[level]));
+            }
+
+            /*
+             * The parse may have ended, and another started, while the
+             * snapshot was taken
+             */
+            return generation.get() == expected ? ret : -1;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2016 Lite Solutions
+ *
+ *  This code is licensed under the Apache Software License version 2.
+ *  For more information, see the LICENSE file at the root of this package.
+ *
+ *  Should you not have the source code available, and the file above is
+ *  unavailable, you can obtain a copy of the license here:
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ */
+
+package org.litesolutions.sonar.grappa.listeners;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.litesolutions.sonar.grappa.GrappaSslrLexer;
+import org.sonar.sslr.channel.CodeReader;
+
+import com.github.fge.grappa.run.ParseEventListener;
+import com.sonar.sslr.api.Token;
+
+/**
+ * A {@link ListenerSupplier} reporting parses which take too long
+ *
+ * <p>The listeners created by this supplier keep track of the matchers in
+ * progress, indexed by level, and of the farthest input index reached. If a
+ * parse is still running once its threshold has elapsed, a {@link
+ * SlowParseReport} is built from a snapshot of this state and sent to the
+ * reporter; the parse itself goes on undisturbed. At most one report is sent
+ * per parse.</p>
+ *
+ * <p>The threshold of a parse is a fixed duration, plus an optional allowance
+ * proportional to the length of the input. Checks are run by a single daemon
+ * thread, shared by all suppliers; the reporter is called from this thread,
+ * and should therefore return quickly.</p>
+ *
+ * <p>Typical usage:</p>
+ *
+ * <pre>
+ *     GrappaSslrFactory.withParserClass(MyParser.class)
+ *         .addListenerSupplier(new WatchdogListenerSupplier(
+ *             Duration.ofSeconds(5), Duration.ofSeconds(10),
+ *             report -&gt; LOG.warn("{}", report)))
+ *         ...
+ * </pre>
+ */
+@ThreadSafe
+public final class WatchdogListenerSupplier
+    implements ListenerSupplier
+{
+    private final Duration threshold;
+    private final Duration perMillionChars;
+    private final Consumer<SlowParseReport> reporter;
+    private final ThreadLocal<WatchdogListener.Stack> stacks
+        = ThreadLocal.withInitial(WatchdogListener.Stack::new);
+
+    /**
+     * Constructor with a fixed threshold
+     *
+     * @param threshold the threshold
+     * @param reporter the consumer of reports
+     */
+    public WatchdogListenerSupplier(final Duration threshold,
+        final Consumer<SlowParseReport> reporter)
+    {
+        this(threshold, Duration.ZERO, reporter);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param threshold the fixed part of the threshold
+     * @param perMillionChars the threshold added per million characters of
+     * input
+     * @param reporter the consumer of reports
+     */
+    public WatchdogListenerSupplier(final Duration threshold,
+        final Duration perMillionChars,
+        final Consumer<SlowParseReport> reporter)
+    {
+        if (threshold.isNegative() || threshold.isZero())
+            throw new IllegalArgumentException("threshold must be strictly"
+                + " positive");
+        if (perMillionChars.isNegative())
+            throw new IllegalArgumentException("threshold per million"
+                + " characters cannot be negative");
+        this.threshold = threshold;
+        this.perMillionChars = perMillionChars;
+        this.reporter = Objects.requireNonNull(reporter);
+    }
+
+    @Nonnull
+    @Override
+    public ParseEventListener<Token.Builder> create(final CodeReader reader,
+        final GrappaSslrLexer lexer)
+    {
+        return new WatchdogListener(this, stacks.get(), lexer);
+    }
+
+    Duration thresholdFor(final int inputLength)
+    {
+        return threshold.plus(perMillionChars.multipliedBy(inputLength)
+            .dividedBy(1_000_000L));
+    }
+
+    ScheduledFuture<?> schedule(final Runnable check, final Duration delay)
+    {
+        return Scheduler.INSTANCE.schedule(check, delay.toNanos(),
+            TimeUnit.NANOSECONDS);
+    }
+
+    void report(final SlowParseReport report)
+    {
+        reporter.accept(report);
+    }
+
+    /*
+     * Created on first use only; cancelled checks are removed right away,
+     * since almost all of them are.
+     */
+    private static final class Scheduler
+    {
+        private static final ScheduledThreadPoolExecutor INSTANCE
+            = new ScheduledThreadPoolExecutor(1, runnable -> {
+                final Thread thread = new Thread(runnable, "grappa-watchdog");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+        static {
+            INSTANCE.setRemoveOnCancelPolicy(true);
+        }
+
+        private Scheduler()
+        {
+        }
+    }
+}
@@ -0,0 +1,265 @@
+/*
+ * Copyright (c) 2016 Lite Solutions
+ *
+ *  This code is licensed under the Apache Software License version 2.
+ *  For more information, see the LICENSE file at the root of this package.
+ *
+ *  Should you not have the source code available, and the file above is
+ *  unavailable, you can obtain a copy of the license here:
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ */
+
+package org.litesolutions.sonar.grappa.matchers;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.function.IntPredicate;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * A set of characters, optimized for ASCII
+ *
+ * <p>ASCII characters are looked up in a 128-bit bitset. Other characters are
+ * looked up in a sorted list of ranges and/or tested against a predicate
+ * (typically, a method of {@link Character}).</p>
+ *
+ * <p>Instances of this class are immutable; {@link #or(CharClass)} and {@link
+ * #negate()} return new instances.</p>
+ *
+ * @see CharClassMatcher
+ * @see CharRunMatcher
+ * @see TriviaMatcher
+ */
+@Immutable
+public final class CharClass
+{
+    private static final int[] NO_RANGES = new int[0];
+
+    /**
+     * Space, tab, form feed, carriage return and line feed
+     */
+    public static final CharClass WHITESPACE = anyOf(" \t\f\r\n");
+
+    /**
+     * ASCII letters
+     */
+    public static final CharClass ASCII_LETTERS
+        = range('a', 'z').or(range('A', 'Z'));
+
+    /**
+     * ASCII digits
+     */
+    public static final CharClass ASCII_DIGITS = range('0', '9');
+
+    /*
+     * Characters 0 to 63, and 64 to 127
+     */
+    private final long low;
+    private final long high;
+    /*
+     * Non ASCII ranges, as sorted, non overlapping pairs of inclusive bounds
+     */
+    private final int[] ranges;
+    @Nullable
+    private final IntPredicate predicate;
+    private final boolean negated;
+
+    private CharClass(final long low, final long high, final int[] ranges,
+        @Nullable final IntPredicate predicate, final boolean negated)
+    {
+        this.low = low;
+        this.high = high;
+        this.ranges = ranges;
+        this.predicate = predicate;
+        this.negated = negated;
+    }
+
+    /**
+     * Build a class from a set of characters
+     *
+     * @param chars the characters
+     * @return a new class
+     */
+    public static CharClass anyOf(final String chars)
+    {
+        CharClass ret = new CharClass(0L, 0L, NO_RANGES, null, false);
+        for (int i = 0; i < chars.length(); i++)
+            ret = ret.or(range(chars.charAt(i), chars.charAt(i)));
+        return ret;
+    }
+
+    /**
+     * Build a class from a range of characters
+     *
+     * @param from the first character (inclusive)
+     * @param to the last character (inclusive)
+     * @return a new class
+     */
+    public static CharClass range(final int from, final int to)
+    {
+        if (from > to)
+            throw new IllegalArgumentException("invalid range");
+
+        long low = 0L;
+        long high = 0L;
+
+        for (int c = from; c <= Math.min(to, 127); c++)
+            if (c < 64)
+                low |= 1L << c;
+            else
+                high |= 1L << c - 64;
+
+        final int[] ranges = to < 128 ? NO_RANGES
+            : new int[] { Math.max(from, 128), to };
+        return new CharClass(low, high, ranges, null, false);
+    }
+
+    /**
+     * Build a class from a predicate
+     *
+     * <p>The predicate is evaluated once for all ASCII characters, and for
+     * each lookup of other characters. For instance, {@code
+     * CharClass.matching(Character::isJavaIdentifierPart)}.</p>
+     *
+     * @param predicate the predicate
+     * @return a new class
+     */
+    public static CharClass matching(final IntPredicate predicate)
+    {
+        Objects.requireNonNull(predicate);
+
+        long low = 0L;
+        long high = 0L;
+
+        for (int c = 0; c < 128; c++) {
+            if (!predicate.test(c))
+                continue;
+            if (c < 64)
+                low |= 1L << c;
+            else
+                high |= 1L << c - 64;
+        }
+
+        return new CharClass(low, high, NO_RANGES, predicate, false);
+    }
+
+    /**
+     * Return the union of this class and another one
+     *
+     * @param other the other class
+     * @return a new class
+     */
+    public CharClass or(final CharClass other)
+    {
+        if (negated || other.negated) {
+            final CharClass self = this;
+            return matching(c -> self.contains(c) || other.contains(c));
+        }
+
+        final IntPredicate newPredicate;
+        if (predicate == null)
+            newPredicate = other.predicate;
+        else if (other.predicate == null)
+            newPredicate = predicate;
+        else
+            newPredicate = predicate.or(other.predicate);
+
+        return new CharClass(low | other.low, high | other.high,
+            mergeRanges(ranges, other.ranges), newPredicate, false);
+    }
+
+    /**
+     * Return the complement of this class
+     *
+     * @return a new class
+     */
+    public CharClass negate()
+    {
+        return new CharClass(~low, ~high, ranges, predicate, !negated);
+    }
+
+    /**
+     * Tell whether a character (or code point) belongs to this class
+     *
+     * @param c the character
+     * @return true if the character belongs to this class
+     */
+    public boolean contains(final int c)
+    {
+        if (c < 0)
+            return false;
+        if (c < 64)
+            return (low & 1L << c) != 0L;
+        if (c < 128)
+            return (high & 1L << c - 64) != 0L;
+        return negated != containsNonAscii(c);
+    }
+
+    /**
+     * Tell whether this class contains ASCII characters only
+     *
+     * @return true if this is the case
+     */
+    boolean isAsciiOnly()
+    {
+        return !negated && predicate == null && ranges.length == 0;
+    }
+
+    private boolean containsNonAscii(final int c)
+    {
+        int lowIndex = 0;
+        int highIndex = ranges.length / 2 - 1;
+        int middle;
+
+        while (lowIndex <= highIndex) {
+            middle = (lowIndex + highIndex) >>> 1;
+            if (c < ranges[2 * middle])
+                highIndex = middle - 1;
+            else if (c > ranges[2 * middle + 1])
+                lowIndex = middle + 1;
+            else
+                return true;
+        }
+
+        return predicate != null && predicate.test(c);
+    }
+
+    private static int[] mergeRanges(final int[] first, final int[] second)
+    {
+        if (second.length == 0)
+            return first;
+        if (first.length == 0)
+            return second;
+
+        final int[] all = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, all, first.length, second.length);
+
+        final int nrRanges = all.length / 2;
+        final long[] sorted = new long[nrRanges];
+        for (int i = 0; i < nrRanges; i++)
+            sorted[i] = (long) all[2 * i] << 32 | all[2 * i + 1];
+        Arrays.sort(sorted);
+
+        final int[] merged = new int[all.length];
+        int size = 0;
+        int from;
+        int to;
+
+        for (final long range: sorted) {
+            from = (int) (range >>> 32);
+            to = (int) range;
+            if (size > 0 && from <= merged[size - 1] + 1) {
+                merged[size - 1] = Math.max(merged[size - 1], to);
+                continue;
+            }
+            merged[size++] = from;
+            merged[size++] = to;
+        }
+
+        return Arrays.copyOf(merged, size);
+    }
+}
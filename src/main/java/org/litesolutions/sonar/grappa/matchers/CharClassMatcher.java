@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2016 Lite Solutions
+ *
+ *  This code is licensed under the Apache Software License version 2.
+ *  For more information, see the LICENSE file at the root of this package.
+ *
+ *  Should you not have the source code available, and the file above is
+ *  unavailable, you can obtain a copy of the license here:
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ */
+
+package org.litesolutions.sonar.grappa.matchers;
+
+import java.util.Objects;
+
+import com.github.fge.grappa.matchers.base.CustomMatcher;
+import com.github.fge.grappa.run.context.MatcherContext;
+
+/**
+ * A matcher for a single character of a {@link CharClass}
+ *
+ * <p>This is the equivalent of {@code anyOf()}, {@code charRange()} or a
+ * {@code firstOf()} of those, in a single matcher and with a single bitset
+ * lookup for ASCII characters.</p>
+ *
+ * <p>Only characters in the Basic Multilingual Plane are matched; a surrogate
+ * pair is seen as two characters, as is the case for grappa's own character
+ * matchers.</p>
+ */
+public final class CharClassMatcher
+    extends CustomMatcher
+{
+    private final CharClass charClass;
+
+    /**
+     * Constructor
+     *
+     * @param charClass the character class
+     * @param label the label of this matcher
+     */
+    public CharClassMatcher(final CharClass charClass, final String label)
+    {
+        super(label);
+        this.charClass = Objects.requireNonNull(charClass);
+    }
+
+    public CharClass getCharClass()
+    {
+        return charClass;
+    }
+
+    @Override
+    public boolean isSingleCharMatcher()
+    {
+        return true;
+    }
+
+    @Override
+    public boolean canMatchEmpty()
+    {
+        return false;
+    }
+
+    @Override
+    public boolean isStarterChar(final char c)
+    {
+        return charClass.contains(c);
+    }
+
+    @Override
+    public char getStarterChar()
+    {
+        for (char c = 0; c < 128; c++)
+            if (charClass.contains(c))
+                return c;
+        throw new IllegalStateException("no ASCII starter character");
+    }
+
+    @Override
+    public <V> boolean match(final MatcherContext<V> context)
+    {
+        final int index = context.getCurrentIndex();
+        if (index >= context.getInputBuffer().length())
+            return false;
+        if (!charClass.contains(context.getInputBuffer().charAt(index)))
+            return false;
+        context.advanceIndex(1);
+        return true;
+    }
+}
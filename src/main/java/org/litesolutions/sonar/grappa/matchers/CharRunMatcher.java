@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2016 Lite Solutions
+ *
+ *  This code is licensed under the Apache Software License version 2.
+ *  For more information, see the LICENSE file at the root of this package.
+ *
+ *  Should you not have the source code available, and the file above is
+ *  unavailable, you can obtain a copy of the license here:
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ */
+
+package org.litesolutions.sonar.grappa.matchers;
+
+import java.util.Objects;
+
+import com.github.fge.grappa.buffers.InputBuffer;
+import com.github.fge.grappa.matchers.base.CustomMatcher;
+import com.github.fge.grappa.run.context.MatcherContext;
+
+/**
+ * A matcher for a run of characters of a {@link CharClass}
+ *
+ * <p>This is the equivalent of {@code oneOrMore(anyOf(...))} (or {@code
+ * zeroOrMore(...)}, if the minimum length is 0), except that the whole run is
+ * consumed in a tight loop within a single matcher call, instead of one
+ * matcher frame (and one set of parsing events) per character.</p>
+ */
+public final class CharRunMatcher
+    extends CustomMatcher
+{
+    private final CharClass charClass;
+    private final int minLength;
+
+    /**
+     * Constructor
+     *
+     * @param charClass the character class
+     * @param minLength the minimum length of the run
+     * @param label the label of this matcher
+     */
+    public CharRunMatcher(final CharClass charClass, final int minLength,
+        final String label)
+    {
+        super(label);
+        if (minLength < 0)
+            throw new IllegalArgumentException("minimum length cannot be "
+                + "negative");
+        this.charClass = Objects.requireNonNull(charClass);
+        this.minLength = minLength;
+    }
+
+    public CharClass getCharClass()
+    {
+        return charClass;
+    }
+
+    @Override
+    public boolean isSingleCharMatcher()
+    {
+        return false;
+    }
+
+    @Override
+    public boolean canMatchEmpty()
+    {
+        return minLength == 0;
+    }
+
+    @Override
+    public boolean isStarterChar(final char c)
+    {
+        return charClass.contains(c);
+    }
+
+    @Override
+    public char getStarterChar()
+    {
+        for (char c = 0; c < 128; c++)
+            if (charClass.contains(c))
+                return c;
+        throw new IllegalStateException("no ASCII starter character");
+    }
+
+    @Override
+    public <V> boolean match(final MatcherContext<V> context)
+    {
+        final InputBuffer buffer = context.getInputBuffer();
+        final int start = context.getCurrentIndex();
+        final int length = buffer.length();
+
+        int index = start;
+        while (index < length && charClass.contains(buffer.charAt(index)))
+            index++;
+
+        if (index - start < minLength)
+            return false;
+
+        context.advanceIndex(index - start);
+        return true;
+    }
+}
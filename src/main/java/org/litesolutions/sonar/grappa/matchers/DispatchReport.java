@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2016 Lite Solutions
+ *
+ *  This code is licensed under the Apache Software License version 2.
+ *  For more information, see the LICENSE file at the root of this package.
+ *
+ *  Should you not have the source code available, and the file above is
+ *  unavailable, you can obtain a copy of the license here:
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ */
+
+package org.litesolutions.sonar.grappa.matchers;
+
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * The result of the analysis of one {@link DispatchingChoiceMatcher}
+ *
+ * @see FirstCharDispatch
+ */
+@Immutable
+public final class DispatchReport
+{
+    private final String label;
+    private final int nrAlternatives;
+    private final double averageCandidates;
+    private final int maxCandidates;
+
+    DispatchReport(final String label, final int nrAlternatives,
+        final double averageCandidates, final int maxCandidates)
+    {
+        this.label = label;
+        this.nrAlternatives = nrAlternatives;
+        this.averageCandidates = averageCandidates;
+        this.maxCandidates = maxCandidates;
+    }
+
+    /**
+     * Get the label of the choice
+     *
+     * <p>This is the label of the enclosing rule if the choice is the body of
+     * a rule method, {@code dispatchFirstOf} otherwise.</p>
+     *
+     * @return the label
+     */
+    public String getLabel()
+    {
+        return label;
+    }
+
+    public int getNrAlternatives()
+    {
+        return nrAlternatives;
+    }
+
+    /**
+     * Get the average number of alternatives tried, over all ASCII characters
+     *
+     * @return the average number of candidates
+     */
+    public double getAverageCandidates()
+    {
+        return averageCandidates;
+    }
+
+    /**
+     * Get the maximum number of alternatives tried for an ASCII character
+     *
+     * @return the maximum number of candidates
+     */
+    public int getMaxCandidates()
+    {
+        return maxCandidates;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s: %d alternatives, %.2f tried on average"
+            + " (max %d)", label, nrAlternatives, averageCandidates,
+            maxCandidates);
+    }
+}
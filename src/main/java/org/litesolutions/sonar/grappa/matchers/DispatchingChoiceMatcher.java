@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2016 Lite Solutions
+ *
+ *  This code is licensed under the Apache Software License version 2.
+ *  For more information, see the LICENSE file at the root of this package.
+ *
+ *  Should you not have the source code available, and the file above is
+ *  unavailable, you can obtain a copy of the license here:
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ */
+
+package org.litesolutions.sonar.grappa.matchers;
+
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+import org.litesolutions.sonar.grappa.SonarParserBase;
+
+import com.github.fge.grappa.matchers.MatcherType;
+import com.github.fge.grappa.matchers.base.AbstractMatcher;
+import com.github.fge.grappa.matchers.base.Matcher;
+import com.github.fge.grappa.rules.Rule;
+import com.github.fge.grappa.run.context.MatcherContext;
+
+/**
+ * An ordered choice which only tries the alternatives able to start with the
+ * current character
+ *
+ * <p>Until {@link FirstCharDispatch#optimize(Rule)} has been run over a rule
+ * containing this matcher, it behaves exactly like {@code firstOf()}. After
+ * that, for an ASCII current character, only the alternatives which can
+ * possibly match starting with this character are tried, in their original
+ * order; since the other alternatives would have failed anyway, the result is
+ * the same as with {@code firstOf()}. For other characters, and at the end of
+ * input, all alternatives are tried.</p>
+ *
+ * @see SonarParserBase#dispatchFirstOf(Object, Object, Object...)
+ */
+public final class DispatchingChoiceMatcher
+    extends AbstractMatcher
+{
+    /*
+     * Indexed by ASCII character; null until the analysis has been run.
+     */
+    @Nullable
+    private volatile Matcher[][] table = null;
+
+    /**
+     * Constructor
+     *
+     * @param subRules the alternatives
+     */
+    public DispatchingChoiceMatcher(final Rule[] subRules)
+    {
+        super(subRules, "dispatchFirstOf");
+    }
+
+    @Override
+    public MatcherType getType()
+    {
+        return MatcherType.COMPOSITE;
+    }
+
+    @Override
+    public <V> boolean match(final MatcherContext<V> context)
+    {
+        final Matcher[][] dispatch = table;
+        final char c = context.getInputBuffer()
+            .charAt(context.getCurrentIndex());
+
+        if (dispatch != null && c < 128) {
+            for (final Matcher matcher: dispatch[c])
+                if (context.getSubContext(matcher).runMatcher())
+                    return true;
+            return false;
+        }
+
+        final List<Matcher> children = getChildren();
+        for (final Matcher matcher: children)
+            if (context.getSubContext(matcher).runMatcher())
+                return true;
+        return false;
+    }
+
+    boolean isOptimized()
+    {
+        return table != null;
+    }
+
+    void setTable(final Matcher[][] table)
+    {
+        this.table = table;
+    }
+}
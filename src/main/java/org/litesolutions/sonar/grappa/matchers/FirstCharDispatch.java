@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2016 Lite Solutions
+ *
+ *  This code is licensed under the Apache Software License version 2.
+ *  For more information, see the LICENSE file at the root of this package.
+ *
+ *  Should you not have the source code available, and the file above is
+ *  unavailable, you can obtain a copy of the license here:
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ */
+
+package org.litesolutions.sonar.grappa.matchers;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.github.fge.grappa.matchers.MatcherType;
+import com.github.fge.grappa.matchers.base.Matcher;
+import com.github.fge.grappa.matchers.wrap.ProxyMatcher;
+import com.github.fge.grappa.rules.Rule;
+import com.github.fge.grappa.run.ParseEventListener;
+import com.github.fge.grappa.run.ParseRunner;
+import com.github.fge.grappa.run.events.PreMatchEvent;
+
+/**
+ * Build the dispatch tables of all {@link DispatchingChoiceMatcher}s reachable
+ * from a rule
+ *
+ * <p>The set of ASCII characters each alternative can start with is computed
+ * by running the alternative against an input of which only the first
+ * character is known (see {@link ProbeInputBuffer}), for each ASCII character.
+ * A character is excluded only if the alternative fails without looking at
+ * anything but this first character, and without running any action; in all
+ * other cases (success, access to the rest of the input, actions), the
+ * alternative is kept. The analysis is therefore conservative, whatever the
+ * matchers involved, as long as matchers other than actions only depend on
+ * the input.</p>
+ *
+ * <p>Note that actions met while probing an alternative are run (against a
+ * throwaway value stack); this is why this analysis is meant to be run once,
+ * when the parser is built, and not while parsing.</p>
+ */
+public final class FirstCharDispatch
+{
+    private static final int ASCII_SIZE = 128;
+
+    private FirstCharDispatch()
+    {
+        throw new Error("nice try!");
+    }
+
+    /**
+     * Build the dispatch tables of all choices reachable from a rule
+     *
+     * <p>Choices which have already been optimized are not reported again.
+     * </p>
+     *
+     * @param rule the rule
+     * @return a report for each newly optimized choice
+     */
+    public static List<DispatchReport> optimize(final Rule rule)
+    {
+        final List<DispatchReport> reports = new ArrayList<>();
+        final Set<Matcher> seen
+            = Collections.newSetFromMap(new IdentityHashMap<>());
+        final Deque<Matcher> toVisit = new ArrayDeque<>();
+        final Map<Matcher, boolean[]> cache = new IdentityHashMap<>();
+
+        toVisit.push((Matcher) rule);
+
+        Matcher matcher;
+
+        while (!toVisit.isEmpty()) {
+            matcher = unwrap(toVisit.pop());
+            if (!seen.add(matcher))
+                continue;
+            if (matcher instanceof DispatchingChoiceMatcher
+                && !((DispatchingChoiceMatcher) matcher).isOptimized())
+                reports.add(optimize((DispatchingChoiceMatcher) matcher,
+                    cache));
+            for (final Matcher child: matcher.getChildren())
+                toVisit.push(child);
+        }
+
+        return reports;
+    }
+
+    private static DispatchReport optimize(
+        final DispatchingChoiceMatcher choice,
+        final Map<Matcher, boolean[]> cache)
+    {
+        final List<Matcher> alternatives = choice.getChildren();
+        final int nrAlternatives = alternatives.size();
+        final boolean[][] starts = new boolean[nrAlternatives][];
+
+        for (int i = 0; i < nrAlternatives; i++)
+            starts[i] = cache.computeIfAbsent(alternatives.get(i),
+                FirstCharDispatch::startChars);
+
+        /*
+         * Share identical candidate arrays between characters
+         */
+        final Map<List<Matcher>, Matcher[]> shared = new HashMap<>();
+        final Matcher[][] table = new Matcher[ASCII_SIZE][];
+        final List<Matcher> candidates = new ArrayList<>(nrAlternatives);
+        int total = 0;
+        int max = 0;
+
+        for (int c = 0; c < ASCII_SIZE; c++) {
+            candidates.clear();
+            for (int i = 0; i < nrAlternatives; i++)
+                if (starts[i][c])
+                    candidates.add(alternatives.get(i));
+            table[c] = shared.computeIfAbsent(new ArrayList<>(candidates),
+                list -> list.toArray(new Matcher[0]));
+            total += candidates.size();
+            max = Math.max(max, candidates.size());
+        }
+
+        choice.setTable(table);
+
+        return new DispatchReport(choice.getLabel(), nrAlternatives,
+            (double) total / ASCII_SIZE, max);
+    }
+
+    /*
+     * Compute the ASCII characters an alternative can start with
+     */
+    private static boolean[] startChars(final Matcher alternative)
+    {
+        final boolean[] ret = new boolean[ASCII_SIZE];
+        final ProbeInputBuffer buffer = new ProbeInputBuffer();
+        final ActionDetector detector = new ActionDetector();
+        final ParseRunner<Object> runner = new ParseRunner<>(alternative);
+        runner.registerListener(detector);
+
+        boolean success;
+
+        for (char c = 0; c < ASCII_SIZE; c++) {
+            buffer.reset(c);
+            detector.sawAction = false;
+            try {
+                success = runner.run(buffer).isSuccess();
+            } catch (RuntimeException ignored) {
+                success = true;
+            }
+            ret[c] = success || buffer.isAborted() || detector.sawAction;
+        }
+
+        return ret;
+    }
+
+    private static Matcher unwrap(final Matcher matcher)
+    {
+        return matcher instanceof ProxyMatcher
+            ? ProxyMatcher.unwrap(matcher) : matcher;
+    }
+
+    private static final class ActionDetector
+        extends ParseEventListener<Object>
+    {
+        private boolean sawAction = false;
+
+        @Override
+        public void beforeMatch(final PreMatchEvent<Object> event)
+        {
+            if (event.getContext().getMatcher().getType() == MatcherType.ACTION)
+                sawAction = true;
+        }
+    }
+}
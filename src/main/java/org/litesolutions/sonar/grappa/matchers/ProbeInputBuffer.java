@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2016 Lite Solutions
+ *
+ *  This code is licensed under the Apache Software License version 2.
+ *  For more information, see the LICENSE file at the root of this package.
+ *
+ *  Should you not have the source code available, and the file above is
+ *  unavailable, you can obtain a copy of the license here:
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ */
+
+package org.litesolutions.sonar.grappa.matchers;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import com.github.fge.grappa.buffers.InputBuffer;
+import com.github.fge.grappa.support.IndexRange;
+import com.github.fge.grappa.support.Position;
+
+/**
+ * An input buffer of which only the first character is known
+ *
+ * <p>Any access to the input other than the first character (or the length,
+ * which is reported as very large) marks the probe as {@link #isAborted()
+ * aborted} and throws an exception, so that the matcher being probed stops
+ * right away. If a matcher fails on this buffer without the probe having been
+ * aborted, then its failure only depends on the first character.</p>
+ *
+ * @see FirstCharDispatch
+ */
+@NotThreadSafe
+final class ProbeInputBuffer
+    implements InputBuffer
+{
+    private static final int LENGTH = Integer.MAX_VALUE / 2;
+
+    private char first;
+    private boolean aborted;
+
+    void reset(final char first)
+    {
+        this.first = first;
+        aborted = false;
+    }
+
+    boolean isAborted()
+    {
+        return aborted;
+    }
+
+    @Override
+    public char charAt(final int index)
+    {
+        if (index != 0)
+            throw abort();
+        return first;
+    }
+
+    @Override
+    public CharSequence subSequence(final int start, final int end)
+    {
+        throw abort();
+    }
+
+    @Override
+    public int codePointAt(final int index)
+    {
+        if (index != 0)
+            throw abort();
+        return first;
+    }
+
+    @Override
+    public String extract(final int start, final int end)
+    {
+        throw abort();
+    }
+
+    @Override
+    public String extract(final IndexRange range)
+    {
+        throw abort();
+    }
+
+    @Override
+    public Position getPosition(final int index)
+    {
+        throw abort();
+    }
+
+    @Override
+    public String extractLine(final int lineNumber)
+    {
+        throw abort();
+    }
+
+    @Override
+    public IndexRange getLineRange(final int lineNumber)
+    {
+        throw abort();
+    }
+
+    @Override
+    public int getLineCount()
+    {
+        throw abort();
+    }
+
+    @Override
+    public int length()
+    {
+        return LENGTH;
+    }
+
+    private ProbeAbortedException abort()
+    {
+        aborted = true;
+        return ProbeAbortedException.INSTANCE;
+    }
+
+    private static final class ProbeAbortedException
+        extends RuntimeException
+    {
+        private static final ProbeAbortedException INSTANCE
+            = new ProbeAbortedException();
+
+        private ProbeAbortedException()
+        {
+            super("probe aborted", null, false, false);
+        }
+    }
+}
@@ -0,0 +1,280 @@
+/*
+ * Copyright (c) 2016 Lite Solutions
+ *
+ *  This code is licensed under the Apache Software License version 2.
+ *  For more information, see the LICENSE file at the root of this package.
+ *
+ *  Should you not have the source code available, and the file above is
+ *  unavailable, you can obtain a copy of the license here:
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ */
+
+package org.litesolutions.sonar.grappa.matchers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+import org.litesolutions.sonar.grappa.ScanKernels;
+import org.litesolutions.sonar.grappa.SonarParserBase;
+import org.litesolutions.sonar.grappa.TokenBuilders;
+
+import com.github.fge.grappa.buffers.InputBuffer;
+import com.github.fge.grappa.matchers.base.CustomMatcher;
+import com.github.fge.grappa.run.context.MatcherContext;
+import com.github.fge.grappa.stack.ValueStack;
+import com.github.fge.grappa.support.Position;
+import com.sonar.sslr.api.GenericTokenType;
+import com.sonar.sslr.api.Token;
+
+/**
+ * A matcher skipping whitespace and comments in a single matcher call
+ *
+ * <p>This matcher consumes, in a loop, runs of whitespace characters and any
+ * of the configured comment forms, until none of them matches. It always
+ * succeeds (it can match empty).</p>
+ *
+ * <p>Comments can optionally be pushed as {@link GenericTokenType#COMMENT}
+ * tokens, exactly as {@code sequence(comment(),
+ * pushToken(GenericTokenType.COMMENT))} would do; no token is pushed while in
+ * a predicate.</p>
+ *
+ * <p>A block comment which is not terminated is not consumed, so that the
+ * grammar can report the error at this point.</p>
+ *
+ * <p>Build an instance using {@link #builder()}:</p>
+ *
+ * <pre>
+ *     private static final TriviaMatcher.Builder TRIVIA = TriviaMatcher.builder()
+ *         .lineComment("//").blockComment("/*", "*&#47;").pushComments(true);
+ * </pre>
+ *
+ * @see SonarParserBase#trivia(TriviaMatcher.Builder)
+ */
+public final class TriviaMatcher
+    extends CustomMatcher
+{
+    private final CharClass whitespace;
+    private final char[][] lineComments;
+    private final char[][] blockOpens;
+    private final char[][] blockCloses;
+    private final boolean pushComments;
+
+    public static Builder builder()
+    {
+        return new Builder();
+    }
+
+    private TriviaMatcher(final Builder builder, final String label)
+    {
+        super(label);
+        whitespace = builder.whitespace;
+        lineComments = builder.lineComments.toArray(new char[0][]);
+        blockOpens = builder.blockOpens.toArray(new char[0][]);
+        blockCloses = builder.blockCloses.toArray(new char[0][]);
+        pushComments = builder.pushComments;
+    }
+
+    @Override
+    public boolean isSingleCharMatcher()
+    {
+        return false;
+    }
+
+    @Override
+    public boolean canMatchEmpty()
+    {
+        return true;
+    }
+
+    @Override
+    public boolean isStarterChar(final char c)
+    {
+        if (whitespace.contains(c))
+            return true;
+        for (final char[] prefix: lineComments)
+            if (prefix[0] == c)
+                return true;
+        for (final char[] prefix: blockOpens)
+            if (prefix[0] == c)
+                return true;
+        return false;
+    }
+
+    @Override
+    public char getStarterChar()
+    {
+        return ' ';
+    }
+
+    @Override
+    public <V> boolean match(final MatcherContext<V> context)
+    {
+        final InputBuffer buffer = context.getInputBuffer();
+        final int length = buffer.length();
+        final int start = context.getCurrentIndex();
+        final boolean push = pushComments && !context.inPredicate();
+
+        int index = start;
+        int end;
+
+        outer:
+        while (index < length) {
+            if (whitespace.contains(buffer.charAt(index))) {
+                index++;
+                while (index < length
+                    && whitespace.contains(buffer.charAt(index)))
+                    index++;
+                continue;
+            }
+
+            for (final char[] prefix: lineComments) {
+                if (!startsWith(buffer, index, prefix))
+                    continue;
+                end = ScanKernels.indexOfEither(buffer, '\n', '\r',
+                    index + prefix.length, length);
+                if (end == -1)
+                    end = length;
+                if (push)
+                    pushComment(context, buffer, index, end);
+                index = end;
+                continue outer;
+            }
+
+            for (int i = 0; i < blockOpens.length; i++) {
+                if (!startsWith(buffer, index, blockOpens[i]))
+                    continue;
+                end = indexOf(buffer, index + blockOpens[i].length,
+                    blockCloses[i]);
+                if (end == -1)
+                    break outer;
+                if (push)
+                    pushComment(context, buffer, index, end);
+                index = end;
+                continue outer;
+            }
+
+            break;
+        }
+
+        context.advanceIndex(index - start);
+        return true;
+    }
+
+    private static boolean startsWith(final InputBuffer buffer,
+        final int index, final char[] prefix)
+    {
+        if (index + prefix.length > buffer.length())
+            return false;
+        for (int i = 0; i < prefix.length; i++)
+            if (buffer.charAt(index + i) != prefix[i])
+                return false;
+        return true;
+    }
+
+    /*
+     * Returns the index right after the closing sequence, or -1
+     */
+    private static int indexOf(final InputBuffer buffer, final int from,
+        final char[] close)
+    {
+        final int last = buffer.length() - close.length;
+        int index = from;
+
+        while (index <= last) {
+            index = ScanKernels.indexOf(buffer, close[0], index, last + 1);
+            if (index == -1)
+                return -1;
+            if (startsWith(buffer, index, close))
+                return index + close.length;
+            index++;
+        }
+
+        return -1;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <V> void pushComment(final MatcherContext<V> context,
+        final InputBuffer buffer, final int start, final int end)
+    {
+        final Position position = buffer.getPosition(start);
+        final Token.Builder token = TokenBuilders.create(
+            GenericTokenType.COMMENT, buffer.extract(start, end),
+            position.getLine(), position.getColumn());
+        ((ValueStack<Token.Builder>) context.getValueStack()).push(token);
+    }
+
+    /**
+     * A builder for a {@link TriviaMatcher}
+     *
+     * <p>By default, whitespace is {@link CharClass#WHITESPACE}, there are no
+     * comment forms and comments are not pushed.</p>
+     */
+    public static final class Builder
+    {
+        private CharClass whitespace = CharClass.WHITESPACE;
+        private final List<char[]> lineComments = new ArrayList<>();
+        private final List<char[]> blockOpens = new ArrayList<>();
+        private final List<char[]> blockCloses = new ArrayList<>();
+        private boolean pushComments = false;
+
+        private Builder()
+        {
+        }
+
+        public Builder whitespace(final CharClass whitespace)
+        {
+            this.whitespace = Objects.requireNonNull(whitespace);
+            return this;
+        }
+
+        /**
+         * Add a line comment form
+         *
+         * <p>The comment extends up to, but not including, the next line
+         * terminator.</p>
+         *
+         * @param prefix the comment prefix
+         * @return this
+         */
+        public Builder lineComment(final String prefix)
+        {
+            lineComments.add(nonEmpty(prefix).toCharArray());
+            return this;
+        }
+
+        /**
+         * Add a block comment form
+         *
+         * @param open the opening sequence
+         * @param close the closing sequence
+         * @return this
+         */
+        public Builder blockComment(final String open, final String close)
+        {
+            blockOpens.add(nonEmpty(open).toCharArray());
+            blockCloses.add(nonEmpty(close).toCharArray());
+            return this;
+        }
+
+        public Builder pushComments(final boolean pushComments)
+        {
+            this.pushComments = pushComments;
+            return this;
+        }
+
+        public TriviaMatcher build(final String label)
+        {
+            return new TriviaMatcher(this, label);
+        }
+
+        private static String nonEmpty(final String s)
+        {
+            if (s.isEmpty())
+                throw new IllegalArgumentException("empty delimiter");
+            return s;
+        }
+    }
+}
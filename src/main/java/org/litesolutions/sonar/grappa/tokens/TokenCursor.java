@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2016 Lite Solutions
+ *
+ *  This code is licensed under the Apache Software License version 2.
+ *  For more information, see the LICENSE file at the root of this package.
+ *
+ *  Should you not have the source code available, and the file above is
+ *  unavailable, you can obtain a copy of the license here:
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ */
+
+package org.litesolutions.sonar.grappa.tokens;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import com.sonar.sslr.api.Token;
+import com.sonar.sslr.api.TokenType;
+
+/**
+ * A flyweight cursor over a range of tokens of a {@link TokenStore}
+ *
+ * <p>A cursor is positioned on one token at a time; its accessors read the
+ * token's record directly from the store, without creating any object. Value
+ * ids can be compared instead of values: two tokens have the same value if and
+ * only if they have the same value id.</p>
+ *
+ * <p>Typical usage:</p>
+ *
+ * <pre>
+ *     final TokenCursor cursor = store.cursor(fileId);
+ *     while (cursor.next())
+ *         hash = 31 * hash + cursor.getValueId();
+ * </pre>
+ *
+ * <p>A cursor is not thread safe, but several cursors over the same store can
+ * be used concurrently.</p>
+ */
+@NotThreadSafe
+public final class TokenCursor
+{
+    private final TokenStore store;
+    private final int start;
+    private final int end;
+
+    private int index;
+
+    TokenCursor(final TokenStore store, final int start, final int end)
+    {
+        this.store = store;
+        this.start = start;
+        this.end = end;
+        index = start - 1;
+    }
+
+    /**
+     * Move to the next token
+     *
+     * @return false if there are no more tokens
+     */
+    public boolean next()
+    {
+        if (index >= end - 1) {
+            index = end;
+            return false;
+        }
+        index++;
+        return true;
+    }
+
+    /**
+     * Move to a given token
+     *
+     * @param position the position of the token, relative to the start of the
+     * range of this cursor
+     */
+    public void moveTo(final int position)
+    {
+        if (position < 0 || position >= end - start)
+            throw new IndexOutOfBoundsException("invalid position "
+                + position);
+        index = start + position;
+    }
+
+    /**
+     * Get the position of the current token, relative to the start of the
+     * range of this cursor
+     *
+     * @return the position
+     */
+    public int getPosition()
+    {
+        return index - start;
+    }
+
+    /**
+     * Get the index of the current token in the whole store
+     *
+     * @return the index
+     */
+    public int getIndex()
+    {
+        checkPosition();
+        return index;
+    }
+
+    public TokenType getType()
+    {
+        checkPosition();
+        return store.getType(index);
+    }
+
+    public int getTypeId()
+    {
+        checkPosition();
+        return store.getInt(index, TokenStore.TYPE);
+    }
+
+    public int getLine()
+    {
+        checkPosition();
+        return store.getInt(index, TokenStore.LINE);
+    }
+
+    public int getColumn()
+    {
+        checkPosition();
+        return store.getInt(index, TokenStore.COLUMN);
+    }
+
+    public String getValue()
+    {
+        checkPosition();
+        return store.getValue(index, TokenStore.VALUE);
+    }
+
+    public int getValueId()
+    {
+        checkPosition();
+        return store.getInt(index, TokenStore.VALUE);
+    }
+
+    public String getOriginalValue()
+    {
+        checkPosition();
+        return store.getValue(index, TokenStore.ORIGINAL_VALUE);
+    }
+
+    public int getOriginalValueId()
+    {
+        checkPosition();
+        return store.getInt(index, TokenStore.ORIGINAL_VALUE);
+    }
+
+    /**
+     * Convert the current token to an SSLR {@link Token}
+     *
+     * @return a new token
+     */
+    public Token toToken()
+    {
+        checkPosition();
+        return store.toToken(index, store.getURIOf(index));
+    }
+
+    private void checkPosition()
+    {
+        if (index < start || index >= end)
+            throw new IllegalStateException("cursor is not positioned on a "
+                + "token");
+    }
+}
@@ -0,0 +1,355 @@
+/*
+ * Copyright (c) 2016 Lite Solutions
+ *
+ *  This code is licensed under the Apache Software License version 2.
+ *  For more information, see the LICENSE file at the root of this package.
+ *
+ *  Should you not have the source code available, and the file above is
+ *  unavailable, you can obtain a copy of the license here:
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ */
+
+package org.litesolutions.sonar.grappa.tokens;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import org.litesolutions.sonar.grappa.GrappaSslrLexer;
+
+import com.sonar.sslr.api.Token;
+import com.sonar.sslr.api.TokenType;
+import com.sonar.sslr.api.Trivia;
+
+/**
+ * Secondary indexes over a list of tokens, by type and by line
+ *
+ * <p>An index is built while tokens are added to the list (see {@link
+ * GrappaSslrLexer.Builder#withTokenIndex(boolean)}), and holds, as primitive
+ * arrays:</p>
+ *
+ * <ul>
+ *     <li>for each token type, the sorted positions in the list of the tokens
+ *     of this type;</li>
+ *     <li>for each line, the position of the first token on or after this
+ *     line;</li>
+ *     <li>the sorted lines spanned by comments attached as trivia.</li>
+ * </ul>
+ *
+ * <p>Finding the tokens on a line is therefore a constant time operation, and
+ * finding or counting the tokens of a type in a range is a binary search.
+ * Lines are those of the tokens, which are assumed to be in increasing line
+ * order, as they are in the output of a lexer; a token spanning several lines
+ * belongs to the line it starts on.</p>
+ */
+@Immutable
+public final class TokenIndex
+{
+    private static final int[] NO_POSITIONS = new int[0];
+
+    private final int size;
+    private final Map<TokenType, int[]> positions;
+    private final int[] lineStarts;
+    private final int[] commentLines;
+
+    public static Builder builder()
+    {
+        return new Builder();
+    }
+
+    private TokenIndex(final Builder builder)
+    {
+        size = builder.size;
+
+        positions = new IdentityHashMap<>(builder.positions.size());
+        builder.positions.forEach((type, list) ->
+            positions.put(type, Arrays.copyOf(list.values, list.size)));
+
+        /*
+         * Close the table: the start of the line after the last one is the
+         * end of the list
+         */
+        final int lastLine = builder.lastLine;
+        lineStarts = Arrays.copyOf(builder.lineStarts, lastLine + 2);
+        lineStarts[lastLine + 1] = size;
+
+        commentLines = Arrays.copyOf(builder.commentLines.values,
+            builder.commentLines.size);
+    }
+
+    /**
+     * Get the number of indexed tokens
+     *
+     * @return the number of tokens
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Get the last line with a token
+     *
+     * @return the line, or 0 if there are no tokens
+     */
+    public int getLastLine()
+    {
+        return lineStarts.length - 2;
+    }
+
+    /**
+     * Get the number of tokens of a given type
+     *
+     * @param type the type
+     * @return the number of tokens
+     */
+    public int count(final TokenType type)
+    {
+        return positionsOf(type).length;
+    }
+
+    /**
+     * Get the positions of the tokens of a given type
+     *
+     * @param type the type
+     * @return a copy of the sorted positions
+     */
+    public int[] getPositions(final TokenType type)
+    {
+        return positionsOf(type).clone();
+    }
+
+    /**
+     * Get the position of the first token of a given type at or after a
+     * position
+     *
+     * @param type the type
+     * @param from the position
+     * @return the position, or -1 if there is no such token
+     */
+    public int nextPosition(final TokenType type, final int from)
+    {
+        final int[] array = positionsOf(type);
+        final int index = lowerBound(array, from);
+        return index == array.length ? -1 : array[index];
+    }
+
+    /**
+     * Count the tokens of a given type starting on a range of lines
+     *
+     * @param type the type
+     * @param fromLine the first line (inclusive)
+     * @param toLine the last line (inclusive)
+     * @return the number of tokens
+     */
+    public int countInLines(final TokenType type, final int fromLine,
+        final int toLine)
+    {
+        if (fromLine > toLine)
+            return 0;
+        final int[] array = positionsOf(type);
+        return lowerBound(array, lineEnd(toLine))
+            - lowerBound(array, lineStart(fromLine));
+    }
+
+    /**
+     * Get the position of the first token starting on a line
+     *
+     * @param line the line
+     * @return the position, or -1 if no token starts on this line
+     */
+    public int firstOnLine(final int line)
+    {
+        final int start = lineStart(line);
+        return start < lineEnd(line) ? start : -1;
+    }
+
+    /**
+     * Get the tokens starting on a line
+     *
+     * @param tokens the indexed token list
+     * @param line the line
+     * @return a view of the tokens, which may be empty
+     */
+    public List<Token> getTokensOnLine(final List<Token> tokens,
+        final int line)
+    {
+        final int start = lineStart(line);
+        final int end = lineEnd(line);
+        return start < end ? tokens.subList(start, end)
+            : Collections.emptyList();
+    }
+
+    /**
+     * Get the lines spanned by comments
+     *
+     * @return a copy of the sorted, distinct lines
+     */
+    public int[] getCommentLines()
+    {
+        return commentLines.clone();
+    }
+
+    /**
+     * Get the number of lines spanned by comments
+     *
+     * @return the number of lines
+     */
+    public int getCommentLineCount()
+    {
+        return commentLines.length;
+    }
+
+    /**
+     * Tell whether a comment spans a given line
+     *
+     * @param line the line
+     * @return true if this is the case
+     */
+    public boolean hasComment(final int line)
+    {
+        return Arrays.binarySearch(commentLines, line) >= 0;
+    }
+
+    private int[] positionsOf(final TokenType type)
+    {
+        return positions.getOrDefault(type, NO_POSITIONS);
+    }
+
+    private int lineStart(final int line)
+    {
+        if (line < 1)
+            return 0;
+        return line < lineStarts.length ? lineStarts[line] : size;
+    }
+
+    private int lineEnd(final int line)
+    {
+        return lineStart(line + 1);
+    }
+
+    /*
+     * Index of the first element greater than or equal to the key
+     */
+    private static int lowerBound(final int[] array, final int key)
+    {
+        int low = 0;
+        int high = array.length;
+        int mid;
+
+        while (low < high) {
+            mid = (low + high) >>> 1;
+            if (array[mid] < key)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+
+        return low;
+    }
+
+    /**
+     * A builder for a {@link TokenIndex}
+     *
+     * <p>Tokens must be added in the order of the indexed list.</p>
+     */
+    @NotThreadSafe
+    public static final class Builder
+    {
+        private final Map<TokenType, IntList> positions
+            = new IdentityHashMap<>();
+        private int[] lineStarts = new int[256];
+        private final IntList commentLines = new IntList();
+        private int size = 0;
+        private int lastLine = 0;
+
+        private TokenType lastType = null;
+        private IntList lastList = null;
+
+        private Builder()
+        {
+        }
+
+        /**
+         * Add the next token of the list
+         *
+         * @param token the token
+         * @return this
+         */
+        public Builder add(final Token token)
+        {
+            final TokenType type = token.getType();
+
+            /*
+             * Tokens of the same type often come in runs (identifiers,
+             * punctuation), which saves a lookup
+             */
+            if (type != lastType) {
+                lastType = type;
+                lastList = positions.computeIfAbsent(type,
+                    ignored -> new IntList());
+            }
+            lastList.add(size);
+
+            final int line = token.getLine();
+            if (line > lastLine) {
+                if (line + 1 >= lineStarts.length)
+                    lineStarts = Arrays.copyOf(lineStarts,
+                        Math.max(line + 2, lineStarts.length * 2));
+                Arrays.fill(lineStarts, lastLine + 1, line + 1, size);
+                lastLine = line;
+            }
+
+            if (token.hasTrivia())
+                for (final Trivia trivia: token.getTrivia())
+                    if (trivia.isComment())
+                        addComment(trivia.getToken());
+
+            size++;
+            return this;
+        }
+
+        private void addComment(final Token comment)
+        {
+            final String value = comment.getOriginalValue();
+            int line = comment.getLine();
+
+            addCommentLine(line);
+            for (int i = value.indexOf('\n'); i != -1;
+                i = value.indexOf('\n', i + 1))
+                addCommentLine(++line);
+        }
+
+        private void addCommentLine(final int line)
+        {
+            final int count = commentLines.size;
+            if (count == 0 || commentLines.values[count - 1] < line)
+                commentLines.add(line);
+        }
+
+        public TokenIndex build()
+        {
+            return new TokenIndex(this);
+        }
+    }
+
+    private static final class IntList
+    {
+        private int[] values = new int[16];
+        private int size = 0;
+
+        void add(final int value)
+        {
+            if (size == values.length)
+                values = Arrays.copyOf(values, size * 2);
+            values[size++] = value;
+        }
+    }
+}
@@ -0,0 +1,421 @@
+/*
+ * Copyright (c) 2016 Lite Solutions
+ *
+ *  This code is licensed under the Apache Software License version 2.
+ *  For more information, see the LICENSE file at the root of this package.
+ *
+ *  Should you not have the source code available, and the file above is
+ *  unavailable, you can obtain a copy of the license here:
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ */
+
+package org.litesolutions.sonar.grappa.tokens;
+
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.litesolutions.sonar.grappa.GrappaSslrLexer;
+
+import com.sonar.sslr.api.Token;
+import com.sonar.sslr.api.TokenType;
+
+/**
+ * A project wide, off heap store of tokens
+ *
+ * <p>Keeping the token lists produced by {@link GrappaSslrLexer#getTokens()}
+ * for all the files of a project (as cross file analyses such as copy/paste
+ * detection do) means keeping millions of {@link Token} objects alive on the
+ * heap. This store instead packs each token into a fixed size record in direct
+ * byte buffers:</p>
+ *
+ * <ul>
+ *     <li>the token type, as an index into a table of types;</li>
+ *     <li>the line and column;</li>
+ *     <li>the value and original value, as indices into a table of
+ *     deduplicated strings.</li>
+ * </ul>
+ *
+ * <p>Only the type and value tables, and one entry per file, live on the
+ * heap. Trivia (comments) attached to tokens are not stored.</p>
+ *
+ * <p>Tokens are read back either through a flyweight {@link TokenCursor},
+ * which allocates nothing per token, or converted back to SSLR tokens on
+ * demand with {@link #getToken(int)} or {@link #getTokens(int)}.</p>
+ *
+ * <p>Adding tokens is synchronized, so that files lexed concurrently can be
+ * added to the same store; the tokens of a file can be read as soon as the
+ * call to {@link #add(URI, List)} which added them has returned.</p>
+ */
+@ThreadSafe
+public final class TokenStore
+{
+    /*
+     * Record layout: type, line, column, value, original value
+     */
+    static final int TYPE = 0;
+    static final int LINE = 4;
+    static final int COLUMN = 8;
+    static final int VALUE = 12;
+    static final int ORIGINAL_VALUE = 16;
+    static final int RECORD_SIZE = 20;
+
+    /**
+     * Default number of records per page
+     */
+    public static final int DEFAULT_PAGE_SIZE = 1 << 16;
+
+    private final int pageShift;
+    private final int pageMask;
+
+    private final Map<TokenType, Integer> typeIds = new IdentityHashMap<>();
+    private final Map<String, Integer> valueIds = new HashMap<>();
+
+    private final List<URI> uris = new ArrayList<>();
+    private int[] fileStarts = new int[16];
+    private int[] fileSizes = new int[16];
+
+    /*
+     * Readers do not take the lock: these arrays are only ever appended to,
+     * or replaced by larger copies, and size is written last by add(), which
+     * publishes everything else to readers.
+     */
+    private volatile ByteBuffer[] pages = new ByteBuffer[0];
+    private volatile TokenType[] types = new TokenType[16];
+    private volatile String[] values = new String[1024];
+    private volatile int size = 0;
+
+    /**
+     * Create a store with the default page size
+     */
+    public TokenStore()
+    {
+        this(DEFAULT_PAGE_SIZE);
+    }
+
+    /**
+     * Create a store with a given page size
+     *
+     * @param pageSize the number of records per page; must be a power of two
+     */
+    public TokenStore(final int pageSize)
+    {
+        if (pageSize <= 0 || Integer.bitCount(pageSize) != 1)
+            throw new IllegalArgumentException("page size must be a strictly"
+                + " positive power of two");
+        pageShift = Integer.numberOfTrailingZeros(pageSize);
+        pageMask = pageSize - 1;
+    }
+
+    /**
+     * Add the tokens of a file
+     *
+     * @param uri the URI of the file
+     * @param tokens the tokens
+     * @return the id of the file in this store
+     */
+    public synchronized int add(final URI uri, final List<Token> tokens)
+    {
+        Objects.requireNonNull(uri);
+
+        final int fileId = uris.size();
+        final int start = size;
+        final int end = start + tokens.size();
+
+        if (end < start)
+            throw new IllegalStateException("token store is full");
+
+        ensureCapacity(end);
+
+        if (fileId == fileStarts.length) {
+            fileStarts = Arrays.copyOf(fileStarts, fileId * 2);
+            fileSizes = Arrays.copyOf(fileSizes, fileId * 2);
+        }
+
+        final ByteBuffer[] currentPages = pages;
+        int index = start;
+        ByteBuffer page;
+        int offset;
+
+        for (final Token token: tokens) {
+            page = currentPages[index >>> pageShift];
+            offset = (index & pageMask) * RECORD_SIZE;
+            page.putInt(offset + TYPE, typeId(token.getType()));
+            page.putInt(offset + LINE, token.getLine());
+            page.putInt(offset + COLUMN, token.getColumn());
+            page.putInt(offset + VALUE, valueId(token.getValue()));
+            page.putInt(offset + ORIGINAL_VALUE,
+                valueId(token.getOriginalValue()));
+            index++;
+        }
+
+        uris.add(uri);
+        fileStarts[fileId] = start;
+        fileSizes[fileId] = tokens.size();
+        size = end;
+        return fileId;
+    }
+
+    /**
+     * Add the tokens last produced by a lexer
+     *
+     * @param lexer the lexer
+     * @return the id of the file in this store
+     */
+    public int add(final GrappaSslrLexer lexer)
+    {
+        return add(lexer.getURI(), lexer.getTokens());
+    }
+
+    /**
+     * Get the total number of tokens in this store
+     *
+     * @return the number of tokens
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    public synchronized int getFileCount()
+    {
+        return uris.size();
+    }
+
+    public synchronized URI getURI(final int fileId)
+    {
+        return uris.get(fileId);
+    }
+
+    /**
+     * Get the global index of the first token of a file
+     *
+     * @param fileId the file id
+     * @return the index
+     */
+    public synchronized int getFileStart(final int fileId)
+    {
+        checkFileId(fileId);
+        return fileStarts[fileId];
+    }
+
+    /**
+     * Get the number of tokens of a file
+     *
+     * @param fileId the file id
+     * @return the number of tokens
+     */
+    public synchronized int getFileSize(final int fileId)
+    {
+        checkFileId(fileId);
+        return fileSizes[fileId];
+    }
+
+    /**
+     * Get a cursor over all the tokens of this store
+     *
+     * <p>The cursor is positioned before the first token.</p>
+     *
+     * @return a new cursor
+     */
+    public TokenCursor cursor()
+    {
+        return new TokenCursor(this, 0, size);
+    }
+
+    /**
+     * Get a cursor over the tokens of a file
+     *
+     * <p>The cursor is positioned before the first token of the file.</p>
+     *
+     * @param fileId the file id
+     * @return a new cursor
+     */
+    public TokenCursor cursor(final int fileId)
+    {
+        final int start;
+        final int end;
+
+        synchronized (this) {
+            checkFileId(fileId);
+            start = fileStarts[fileId];
+            end = start + fileSizes[fileId];
+        }
+
+        return new TokenCursor(this, start, end);
+    }
+
+    /**
+     * Convert a stored token back to an SSLR {@link Token}
+     *
+     * @param index the global index of the token
+     * @return a new token
+     */
+    public Token getToken(final int index)
+    {
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException("invalid token index "
+                + index);
+
+        final URI uri;
+        synchronized (this) {
+            uri = uris.get(fileOf(index));
+        }
+
+        return toToken(index, uri);
+    }
+
+    /**
+     * Get a view of the tokens of a file as SSLR {@link Token}s
+     *
+     * <p>Tokens are converted on each access to the returned list.</p>
+     *
+     * @param fileId the file id
+     * @return an unmodifiable list
+     */
+    public List<Token> getTokens(final int fileId)
+    {
+        final int start;
+        final int tokenCount;
+        final URI uri;
+
+        synchronized (this) {
+            checkFileId(fileId);
+            start = fileStarts[fileId];
+            tokenCount = fileSizes[fileId];
+            uri = uris.get(fileId);
+        }
+
+        return new AbstractList<Token>()
+        {
+            @Override
+            public Token get(final int index)
+            {
+                if (index < 0 || index >= tokenCount)
+                    throw new IndexOutOfBoundsException("invalid token index "
+                        + index);
+                return toToken(start + index, uri);
+            }
+
+            @Override
+            public int size()
+            {
+                return tokenCount;
+            }
+        };
+    }
+
+    Token toToken(final int index, final URI uri)
+    {
+        return Token.builder()
+            .setType(getType(index))
+            .setLine(getInt(index, LINE))
+            .setColumn(getInt(index, COLUMN))
+            .setValueAndOriginalValue(getValue(index, VALUE),
+                getValue(index, ORIGINAL_VALUE))
+            .setURI(uri)
+            .build();
+    }
+
+    int getInt(final int index, final int field)
+    {
+        return pages[index >>> pageShift]
+            .getInt((index & pageMask) * RECORD_SIZE + field);
+    }
+
+    TokenType getType(final int index)
+    {
+        return types[getInt(index, TYPE)];
+    }
+
+    String getValue(final int index, final int field)
+    {
+        return values[getInt(index, field)];
+    }
+
+    synchronized URI getURIOf(final int index)
+    {
+        return uris.get(fileOf(index));
+    }
+
+    /*
+     * Must be called with the lock held
+     */
+    private int fileOf(final int index)
+    {
+        int low = 0;
+        int high = uris.size() - 1;
+        int middle;
+
+        while (low < high) {
+            middle = (low + high + 1) >>> 1;
+            if (fileStarts[middle] <= index)
+                low = middle;
+            else
+                high = middle - 1;
+        }
+
+        return low;
+    }
+
+    private void checkFileId(final int fileId)
+    {
+        if (fileId < 0 || fileId >= uris.size())
+            throw new IndexOutOfBoundsException("invalid file id " + fileId);
+    }
+
+    private int typeId(final TokenType type)
+    {
+        final Integer id = typeIds.get(type);
+        if (id != null)
+            return id;
+
+        final int newId = typeIds.size();
+        if (newId == types.length)
+            types = Arrays.copyOf(types, newId * 2);
+        types[newId] = type;
+        typeIds.put(type, newId);
+        return newId;
+    }
+
+    private int valueId(final String value)
+    {
+        final Integer id = valueIds.get(value);
+        if (id != null)
+            return id;
+
+        final int newId = valueIds.size();
+        if (newId == values.length)
+            values = Arrays.copyOf(values, newId * 2);
+        values[newId] = value;
+        valueIds.put(value, newId);
+        return newId;
+    }
+
+    private void ensureCapacity(final int nrRecords)
+    {
+        final ByteBuffer[] currentPages = pages;
+        final int nrPages = (int) (((long) nrRecords + pageMask) >>> pageShift);
+
+        if (nrPages <= currentPages.length)
+            return;
+
+        final ByteBuffer[] newPages = Arrays.copyOf(currentPages, nrPages);
+        for (int i = currentPages.length; i < nrPages; i++)
+            newPages[i] = ByteBuffer.allocateDirect((pageMask + 1) * RECORD_SIZE)
+                .order(ByteOrder.nativeOrder());
+        pages = newPages;
+    }
+}
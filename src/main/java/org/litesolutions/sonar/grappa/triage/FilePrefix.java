@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2016 Lite Solutions
+ *
+ *  This code is licensed under the Apache Software License version 2.
+ *  For more information, see the LICENSE file at the root of this package.
+ *
+ *  Should you not have the source code available, and the file above is
+ *  unavailable, you can obtain a copy of the license here:
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ */
+
+package org.litesolutions.sonar.grappa.triage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * The first bytes of a file, as seen by {@link TriageRule}s
+ *
+ * <p>Only the prefix is read, however large the file is; rules must therefore
+ * account for the fact that the prefix may end in the middle of a line, or in
+ * the middle of a multibyte character.</p>
+ */
+@NotThreadSafe
+public final class FilePrefix
+{
+    private final Path path;
+    private final long fileSize;
+    private final byte[] bytes;
+    private final Charset charset;
+
+    private String text = null;
+
+    static FilePrefix read(final Path path, final Charset charset,
+        final int maxLength)
+        throws IOException
+    {
+        final long fileSize = Files.size(path);
+        final byte[] bytes;
+
+        try (
+            final InputStream in = Files.newInputStream(path);
+        ) {
+            bytes = in.readNBytes((int) Math.min(fileSize, maxLength));
+        }
+
+        return new FilePrefix(path, fileSize, bytes, charset);
+    }
+
+    private FilePrefix(final Path path, final long fileSize,
+        final byte[] bytes, final Charset charset)
+    {
+        this.path = path;
+        this.fileSize = fileSize;
+        this.bytes = bytes;
+        this.charset = charset;
+    }
+
+    public Path getPath()
+    {
+        return path;
+    }
+
+    public long getFileSize()
+    {
+        return fileSize;
+    }
+
+    /**
+     * Get the bytes of the prefix
+     *
+     * <p>The returned array is not a copy, and must not be modified.</p>
+     *
+     * @return the bytes
+     */
+    public byte[] getBytes()
+    {
+        return bytes;
+    }
+
+    public int length()
+    {
+        return bytes.length;
+    }
+
+    /**
+     * Tell whether the prefix is the whole file
+     *
+     * @return true if this is the case
+     */
+    public boolean isComplete()
+    {
+        return bytes.length == fileSize;
+    }
+
+    /**
+     * Get the prefix decoded as text
+     *
+     * <p>The prefix is decoded on first use; malformed input is replaced.</p>
+     *
+     * @return the text
+     */
+    public String getText()
+    {
+        if (text == null)
+            try {
+                text = charset.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE)
+                    .decode(ByteBuffer.wrap(bytes))
+                    .toString();
+            } catch (IOException e) {
+                // Can't happen with REPLACE
+                throw new IllegalStateException(e);
+            }
+        return text;
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 2016 Lite Solutions
+ *
+ *  This code is licensed under the Apache Software License version 2.
+ *  For more information, see the LICENSE file at the root of this package.
+ *
+ *  Should you not have the source code available, and the file above is
+ *  unavailable, you can obtain a copy of the license here:
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ */
+
+package org.litesolutions.sonar.grappa.triage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.BiConsumer;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A pre-parse triage of files
+ *
+ * <p>A triage reads only a prefix of each file, and evaluates its rules over
+ * this prefix; rules are evaluated in order until one of them skips the file,
+ * and a verdict to skip the file wins over any verdict to downgrade it.</p>
+ *
+ * <p>Typical usage, with {@link
+ * org.litesolutions.sonar.grappa.GrappaSslrLexer.Builder#withTriage(FileTriage)}
+ * for instance:</p>
+ *
+ * <pre>
+ *     final FileTriage triage = FileTriage.builder()
+ *         .addRule(TriageRules.nulBytes())
+ *         .addRule(TriageRules.maxLineLength(10_000))
+ *         .addRule(TriageRules.generatedHeader())
+ *         .withListener((file, verdict) -&gt; LOG.info("{}: {}", file, verdict))
+ *         .build();
+ * </pre>
+ *
+ * @see TriageRules
+ */
+@ThreadSafe
+public final class FileTriage
+{
+    /**
+     * The default size of the prefix read from each file
+     */
+    public static final int DEFAULT_PREFIX_SIZE = 64 * 1024;
+
+    private static final BiConsumer<File, TriageVerdict> NO_LISTENER
+        = (file, verdict) -> {};
+
+    private final List<TriageRule> rules;
+    private final int prefixSize;
+    private final BiConsumer<File, TriageVerdict> listener;
+
+    public static Builder builder()
+    {
+        return new Builder();
+    }
+
+    /**
+     * Get a triage using all predefined rules with default settings
+     *
+     * <p>Files with a NUL byte, a line of more than 10000 bytes, or more than
+     * 10% control characters are skipped; generated files are
+     * downgraded.</p>
+     *
+     * @return a triage
+     */
+    public static FileTriage defaults()
+    {
+        return builder()
+            .addRule(TriageRules.nulBytes())
+            .addRule(TriageRules.charDistribution(0.1))
+            .addRule(TriageRules.maxLineLength(10_000))
+            .addRule(TriageRules.generatedHeader())
+            .build();
+    }
+
+    private FileTriage(final Builder builder)
+    {
+        rules = List.copyOf(builder.rules);
+        prefixSize = builder.prefixSize;
+        listener = builder.listener;
+    }
+
+    /**
+     * Triage a file
+     *
+     * @param file the file
+     * @param charset the charset of the file
+     * @return the verdict, or null if the file should be parsed normally
+     * @throws IOException failed to read the file
+     */
+    @Nullable
+    public TriageVerdict triage(final File file, final Charset charset)
+        throws IOException
+    {
+        final FilePrefix prefix = FilePrefix.read(file.toPath(), charset,
+            prefixSize);
+
+        TriageVerdict ret = null;
+        TriageVerdict verdict;
+
+        for (final TriageRule rule: rules) {
+            verdict = rule.evaluate(prefix);
+            if (verdict == null)
+                continue;
+            if (verdict.isSkip()) {
+                ret = verdict;
+                break;
+            }
+            if (ret == null)
+                ret = verdict;
+        }
+
+        if (ret != null)
+            listener.accept(file, ret);
+
+        return ret;
+    }
+
+    public static final class Builder
+    {
+        private final List<TriageRule> rules = new ArrayList<>();
+        private int prefixSize = DEFAULT_PREFIX_SIZE;
+        private BiConsumer<File, TriageVerdict> listener = NO_LISTENER;
+
+        private Builder()
+        {
+        }
+
+        /**
+         * Add a rule
+         *
+         * <p>Rules are evaluated in the order they are added; cheap rules
+         * which skip files should come first.</p>
+         *
+         * @param rule the rule
+         * @return this
+         */
+        public Builder addRule(final TriageRule rule)
+        {
+            rules.add(Objects.requireNonNull(rule));
+            return this;
+        }
+
+        /**
+         * Set the size of the prefix read from each file
+         *
+         * @param prefixSize the size, in bytes
+         * @return this
+         */
+        public Builder withPrefixSize(final int prefixSize)
+        {
+            checkArgument(prefixSize > 0, "prefix size must be strictly "
+                + "positive");
+            this.prefixSize = prefixSize;
+            return this;
+        }
+
+        /**
+         * Set a listener called with each file which is skipped or downgraded
+         *
+         * <p>The listener is called from the thread triaging the file.</p>
+         *
+         * @param listener the listener
+         * @return this
+         */
+        public Builder withListener(
+            final BiConsumer<File, TriageVerdict> listener)
+        {
+            this.listener = Objects.requireNonNull(listener);
+            return this;
+        }
+
+        public FileTriage build()
+        {
+            if (rules.isEmpty())
+                throw new IllegalStateException("no rules have been added");
+            return new FileTriage(this);
+        }
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright (c) 2016 Lite Solutions
+ *
+ *  This code is licensed under the Apache Software License version 2.
+ *  For more information, see the LICENSE file at the root of this package.
+ *
+ *  Should you not have the source code available, and the file above is
+ *  unavailable, you can obtain a copy of the license here:
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ */
+
+package org.litesolutions.sonar.grappa.triage;
+
+import java.io.File;
+
+import com.sonar.sslr.impl.LexerException;
+
+/**
+ * Exception thrown by a lexer when a {@link FileTriage} decides that a file
+ * should not be lexed
+ */
+public final class SkippedFileException
+    extends LexerException
+{
+    private final transient TriageVerdict verdict;
+
+    public SkippedFileException(final File file, final TriageVerdict verdict)
+    {
+        super("Skipped file: " + file.getAbsolutePath() + ": " + verdict);
+        this.verdict = verdict;
+    }
+
+    public TriageVerdict getVerdict()
+    {
+        return verdict;
+    }
+}
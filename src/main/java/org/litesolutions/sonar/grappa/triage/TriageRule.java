@@ -0,0 +1,34 @@
+/*
+ * Copyright (c) 2016 Lite Solutions
+ *
+ *  This code is licensed under the Apache Software License version 2.
+ *  For more information, see the LICENSE file at the root of this package.
+ *
+ *  Should you not have the source code available, and the file above is
+ *  unavailable, you can obtain a copy of the license here:
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ */
+
+package org.litesolutions.sonar.grappa.triage;
+
+import javax.annotation.Nullable;
+
+/**
+ * A rule of a {@link FileTriage}
+ *
+ * @see TriageRules
+ */
+@FunctionalInterface
+public interface TriageRule
+{
+    /**
+     * Evaluate the prefix of a file
+     *
+     * @param prefix the prefix
+     * @return a verdict, or null if this rule has nothing to say about the file
+     */
+    @Nullable
+    TriageVerdict evaluate(FilePrefix prefix);
+}
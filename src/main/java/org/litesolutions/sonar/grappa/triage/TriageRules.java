@@ -0,0 +1,225 @@
+/*
+ * Copyright (c) 2016 Lite Solutions
+ *
+ *  This code is licensed under the Apache Software License version 2.
+ *  For more information, see the LICENSE file at the root of this package.
+ *
+ *  Should you not have the source code available, and the file above is
+ *  unavailable, you can obtain a copy of the license here:
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ */
+
+package org.litesolutions.sonar.grappa.triage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Predefined {@link TriageRule}s
+ */
+public final class TriageRules
+{
+    /**
+     * The default number of leading lines searched by {@link
+     * #generatedHeader(TriageVerdict.Action, String...)}
+     */
+    public static final int HEADER_LINES = 20;
+
+    /**
+     * Markers of generated code recognized by {@link #generatedHeader()}
+     */
+    public static final List<String> GENERATED_MARKERS = List.of(
+        "@generated", "do not edit", "auto-generated", "autogenerated",
+        "generated by"
+    );
+
+    /**
+     * The number of bytes sampled by {@link #charDistribution(double)}
+     */
+    public static final int SAMPLE_SIZE = 4096;
+
+    private TriageRules()
+    {
+        throw new Error("nice try!");
+    }
+
+    /**
+     * Skip files containing a NUL byte
+     *
+     * <p>Text files in single byte or UTF-8 encodings never contain NUL
+     * bytes; do not use this rule with UTF-16 sources.</p>
+     *
+     * @return the rule
+     */
+    public static TriageRule nulBytes()
+    {
+        return prefix -> {
+            final byte[] bytes = prefix.getBytes();
+            for (int i = 0; i < bytes.length; i++)
+                if (bytes[i] == 0)
+                    return TriageVerdict.skip("nulBytes",
+                        "NUL byte at offset " + i);
+            return null;
+        };
+    }
+
+    /**
+     * Skip files with a line longer than a given length
+     *
+     * <p>This detects minified files. The length is measured in bytes; only
+     * the lines in the prefix are measured, and if the prefix ends within a
+     * line, the length of this line so far is used.</p>
+     *
+     * @param maxLength the maximum line length
+     * @return the rule
+     */
+    public static TriageRule maxLineLength(final int maxLength)
+    {
+        return maxLineLength(TriageVerdict.Action.SKIP, maxLength);
+    }
+
+    /**
+     * Report files with a line longer than a given length
+     *
+     * @param action the action on such files
+     * @param maxLength the maximum line length
+     * @return the rule
+     * @see #maxLineLength(int)
+     */
+    public static TriageRule maxLineLength(final TriageVerdict.Action action,
+        final int maxLength)
+    {
+        Objects.requireNonNull(action);
+        checkArgument(maxLength > 0, "maximum line length must be strictly "
+            + "positive");
+
+        return prefix -> {
+            final byte[] bytes = prefix.getBytes();
+            int lineStart = 0;
+            int line = 1;
+
+            for (int i = 0; i <= bytes.length; i++) {
+                if (i < bytes.length && bytes[i] != '\n')
+                    continue;
+                if (i - lineStart > maxLength)
+                    return TriageVerdict.of(action, "maxLineLength",
+                        "line " + line + " is longer than " + maxLength
+                        + " bytes");
+                lineStart = i + 1;
+                line++;
+            }
+
+            return null;
+        };
+    }
+
+    /**
+     * Downgrade files whose header says they are generated
+     *
+     * <p>The markers are those of {@link #GENERATED_MARKERS}.</p>
+     *
+     * @return the rule
+     */
+    public static TriageRule generatedHeader()
+    {
+        return generatedHeader(TriageVerdict.Action.DOWNGRADE,
+            GENERATED_MARKERS.toArray(new String[0]));
+    }
+
+    /**
+     * Report files whose header contains one of the given markers
+     *
+     * <p>The first {@link #HEADER_LINES} lines are searched; markers are
+     * matched regardless of case.</p>
+     *
+     * @param action the action on such files
+     * @param markers the markers
+     * @return the rule
+     */
+    public static TriageRule generatedHeader(final TriageVerdict.Action action,
+        final String... markers)
+    {
+        Objects.requireNonNull(action);
+        checkArgument(markers.length > 0, "no markers given");
+
+        final List<String> quoted = new ArrayList<>();
+        for (final String marker: markers)
+            quoted.add(Pattern.quote(Objects.requireNonNull(marker)));
+
+        final Pattern pattern = Pattern.compile(String.join("|", quoted),
+            Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+
+        return prefix -> {
+            final String text = prefix.getText();
+            int end = -1;
+
+            for (int i = 0; i < HEADER_LINES; i++) {
+                end = text.indexOf('\n', end + 1);
+                if (end == -1) {
+                    end = text.length();
+                    break;
+                }
+            }
+
+            final Matcher matcher = pattern.matcher(text).region(0, end);
+            return matcher.find()
+                ? TriageVerdict.of(action, "generatedHeader", "header "
+                    + "contains \"" + matcher.group() + '"')
+                : null;
+        };
+    }
+
+    /**
+     * Skip files which do not look like text
+     *
+     * <p>Up to {@link #SAMPLE_SIZE} bytes, evenly spaced over the prefix, are
+     * sampled; control characters other than tab, line feed, form feed and
+     * carriage return are counted as binary. The file is skipped if the
+     * proportion of binary bytes in the sample is greater than the given
+     * ratio.</p>
+     *
+     * @param maxBinaryRatio the maximum ratio of binary bytes, between 0 and 1
+     * @return the rule
+     */
+    public static TriageRule charDistribution(final double maxBinaryRatio)
+    {
+        checkArgument(maxBinaryRatio >= 0.0 && maxBinaryRatio < 1.0,
+            "ratio must be between 0 (inclusive) and 1 (exclusive)");
+
+        final boolean[] binary = new boolean[256];
+        Arrays.fill(binary, 0, 32, true);
+        binary['\t'] = binary['\n'] = binary['\f'] = binary['\r'] = false;
+        binary[0x7f] = true;
+
+        return prefix -> {
+            final byte[] bytes = prefix.getBytes();
+            if (bytes.length == 0)
+                return null;
+
+            final int step = Math.max(1, bytes.length / SAMPLE_SIZE);
+            int sampled = 0;
+            int count = 0;
+
+            for (int i = 0; i < bytes.length; i += step) {
+                sampled++;
+                if (binary[bytes[i] & 0xff])
+                    count++;
+            }
+
+            final double ratio = (double) count / sampled;
+            return ratio > maxBinaryRatio
+                ? TriageVerdict.skip("charDistribution", String.format(
+                    "%.1f%% of sampled bytes are control characters",
+                    ratio * 100))
+                : null;
+        };
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2016 Lite Solutions
+ *
+ *  This code is licensed under the Apache Software License version 2.
+ *  For more information, see the LICENSE file at the root of this package.
+ *
+ *  Should you not have the source code available, and the file above is
+ *  unavailable, you can obtain a copy of the license here:
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ */
+
+package org.litesolutions.sonar.grappa.triage;
+
+import java.util.Objects;
+
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * The verdict of a {@link TriageRule} on a file
+ */
+@Immutable
+public final class TriageVerdict
+{
+    public enum Action
+    {
+        /**
+         * The file is lexed and parsed normally, but consumers should treat
+         * its results as low value (for instance, not report issues on it)
+         */
+        DOWNGRADE,
+        /**
+         * The file is not lexed at all
+         */
+        SKIP,
+    }
+
+    private final Action action;
+    private final String ruleName;
+    private final String reason;
+
+    public static TriageVerdict skip(final String ruleName,
+        final String reason)
+    {
+        return new TriageVerdict(Action.SKIP, ruleName, reason);
+    }
+
+    public static TriageVerdict downgrade(final String ruleName,
+        final String reason)
+    {
+        return new TriageVerdict(Action.DOWNGRADE, ruleName, reason);
+    }
+
+    public static TriageVerdict of(final Action action, final String ruleName,
+        final String reason)
+    {
+        return new TriageVerdict(action, ruleName, reason);
+    }
+
+    private TriageVerdict(final Action action, final String ruleName,
+        final String reason)
+    {
+        this.action = Objects.requireNonNull(action);
+        this.ruleName = Objects.requireNonNull(ruleName);
+        this.reason = Objects.requireNonNull(reason);
+    }
+
+    public Action getAction()
+    {
+        return action;
+    }
+
+    public boolean isSkip()
+    {
+        return action == Action.SKIP;
+    }
+
+    public String getRuleName()
+    {
+        return ruleName;
+    }
+
+    public String getReason()
+    {
+        return reason;
+    }
+
+    @Override
+    public String toString()
+    {
+        return action + " (" + ruleName + "): " + reason;
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2016 Lite Solutions
+ *
+ *  This code is licensed under the Apache Software License version 2.
+ *  For more information, see the LICENSE file at the root of this package.
+ *
+ *  Should you not have the source code available, and the file above is
+ *  unavailable, you can obtain a copy of the license here:
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ */
+
+package org.litesolutions.sonar.grappa;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.sonar.sslr.api.Token;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public final class ChunkedLexerTest
+{
+    /*
+     * About 110 KB of source
+     */
+    private static final String SOURCE = TestLanguage.source(2000);
+
+    private static final int MIN_CHUNK_SIZE = 4096;
+
+    /*
+     * Split before lines starting with the given prefix
+     */
+    private static final class PrefixStrategy
+        implements SplitPointStrategy
+    {
+        private final String prefix;
+        private final boolean verifySeams;
+        private final AtomicInteger nrSplits = new AtomicInteger();
+
+        private PrefixStrategy(final String prefix, final boolean verifySeams)
+        {
+            this.prefix = prefix;
+            this.verifySeams = verifySeams;
+        }
+
+        @Override
+        public boolean isSplitPoint(final CharSequence input, final int index)
+        {
+            final int end = Math.min(index + prefix.length(), input.length());
+            if (!input.subSequence(index, end).toString().equals(prefix))
+                return false;
+            nrSplits.incrementAndGet();
+            return true;
+        }
+
+        @Override
+        public int getMinChunkSize()
+        {
+            return MIN_CHUNK_SIZE;
+        }
+
+        @Override
+        public boolean verifySeams()
+        {
+            return verifySeams;
+        }
+    }
+
+    /*
+     * Functions start with "def f", lines in comments with "def is"; this
+     * strategy is exact, and seams are not verified: if the input was lexed
+     * sequentially, it is because a chunk failed to lex
+     */
+    @Test
+    public void chunksLexLikeTheWholeInput()
+    {
+        final PrefixStrategy strategy = new PrefixStrategy("def f", false);
+
+        final List<Token> expected = TestLanguage.factoryBuilder().build()
+            .getParser().getLexer().lex(SOURCE);
+        final List<Token> actual = TestLanguage.factoryBuilder()
+            .withSplitPointStrategy(strategy).build()
+            .getParser().getLexer().lex(SOURCE);
+
+        assertTrue(strategy.nrSplits.get() > 1);
+        assertSameTokens(expected, actual);
+    }
+
+    /*
+     * This strategy also splits within comments; seam verification must
+     * catch it
+     */
+    @Test
+    public void wrongSplitPointsFallBackToSequentialLexing()
+    {
+        final PrefixStrategy strategy = new PrefixStrategy("def ", true);
+
+        final List<Token> expected = TestLanguage.factoryBuilder().build()
+            .getParser().getLexer().lex(SOURCE);
+        final List<Token> actual = TestLanguage.factoryBuilder()
+            .withSplitPointStrategy(strategy).build()
+            .getParser().getLexer().lex(SOURCE);
+
+        assertTrue(strategy.nrSplits.get() > 1);
+        assertSameTokens(expected, actual);
+    }
+
+    private static void assertSameTokens(final List<Token> expected,
+        final List<Token> actual)
+    {
+        assertEquals(expected.size(), actual.size());
+
+        Token t1;
+        Token t2;
+
+        for (int i = 0; i < expected.size(); i++) {
+            t1 = expected.get(i);
+            t2 = actual.get(i);
+            assertSame(t1.getType(), t2.getType());
+            assertEquals(t1.getOriginalValue(), t2.getOriginalValue());
+            assertEquals(t1.getLine(), t2.getLine());
+            assertEquals(t1.getColumn(), t2.getColumn());
+            assertEquals(t1.getURI(), t2.getURI());
+            assertEquals(t1.getTrivia().size(), t2.getTrivia().size());
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2016 Lite Solutions
+ *
+ *  This code is licensed under the Apache Software License version 2.
+ *  For more information, see the LICENSE file at the root of this package.
+ *
+ *  Should you not have the source code available, and the file above is
+ *  unavailable, you can obtain a copy of the license here:
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ */
+
+package org.litesolutions.sonar.grappa;
+
+import java.util.List;
+
+import org.junit.Test;
+import org.litesolutions.sonar.grappa.TestLanguage.Keywords;
+import org.litesolutions.sonar.grappa.TestLanguage.Rules;
+import org.litesolutions.sonar.grappa.TestLanguage.Tokens;
+
+import com.github.fge.grappa.rules.Rule;
+import com.sonar.sslr.api.Token;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/*
+ * pushKeywordOrToken() against the usual firstOf() of keywords followed by
+ * the identifier rule: same tokens, and no more expensive
+ */
+public final class KeywordLexingTest
+{
+    private static final String SOURCE = TestLanguage.source(20_000);
+
+    private static final int NR_RUNS = 10;
+
+    /*
+     * Timing is noisy on shared machines; the best of several runs is
+     * compared, and some slack is allowed
+     */
+    private static final double SLACK = 1.5;
+
+    /**
+     * The grappa parser of {@link TestLanguage}, matching keywords with
+     * {@code firstOf()}
+     */
+    public static class FirstOfParser
+        extends TestParser
+    {
+        @Override
+        public Rule word()
+        {
+            return firstOf(
+                sequence("def", testNot(wordChar()), pushToken(Keywords.DEF)),
+                sequence("return", testNot(wordChar()),
+                    pushToken(Keywords.RETURN)),
+                sequence(wordText(), pushToken(Tokens.IDENTIFIER))
+            );
+        }
+
+        public Rule wordChar()
+        {
+            return firstOf(charRange('a', 'z'), charRange('0', '9'));
+        }
+    }
+
+    private static GrappaSslrLexer tableLexer()
+    {
+        return TestLanguage.factoryBuilder().build().getParser().getLexer();
+    }
+
+    private static GrappaSslrLexer firstOfLexer()
+    {
+        return GrappaSslrFactory.withParserClass(FirstOfParser.class)
+            .withMainRule(TestParser::file)
+            .withGrammarInjector(TestLanguage::injectInto)
+            .withEntryPoint(Rules.FILE)
+            .build().getParser().getLexer();
+    }
+
+    @Test
+    public void keywordTableLexesLikeFirstOf()
+    {
+        final List<Token> expected = firstOfLexer().lex(SOURCE);
+        final List<Token> actual = tableLexer().lex(SOURCE);
+
+        assertEquals(expected.size(), actual.size());
+
+        Token t1;
+        Token t2;
+
+        for (int i = 0; i < expected.size(); i++) {
+            t1 = expected.get(i);
+            t2 = actual.get(i);
+            assertSame(t1.getType(), t2.getType());
+            assertEquals(t1.getOriginalValue(), t2.getOriginalValue());
+            assertEquals(t1.getLine(), t2.getLine());
+            assertEquals(t1.getColumn(), t2.getColumn());
+            assertEquals(t1.getTrivia().size(), t2.getTrivia().size());
+        }
+    }
+
+    @Test
+    public void keywordTableIsNotSlowerThanFirstOf()
+    {
+        final GrappaSslrLexer firstOf = firstOfLexer();
+        final GrappaSslrLexer table = tableLexer();
+
+        long baseline = Long.MAX_VALUE;
+        long actual = Long.MAX_VALUE;
+        long start;
+
+        for (int i = 0; i < NR_RUNS; i++) {
+            start = System.nanoTime();
+            firstOf.lex(SOURCE);
+            baseline = Math.min(baseline, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            table.lex(SOURCE);
+            actual = Math.min(actual, System.nanoTime() - start);
+        }
+
+        assertTrue("keyword table: " + actual + " ns, firstOf: " + baseline
+            + " ns", actual <= baseline * SLACK);
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2016 Lite Solutions
+ *
+ *  This code is licensed under the Apache Software License version 2.
+ *  For more information, see the LICENSE file at the root of this package.
+ *
+ *  Should you not have the source code available, and the file above is
+ *  unavailable, you can obtain a copy of the license here:
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ */
+
+
+package org.litesolutions.sonar.grappa;
+
+import org.junit.Test;
+
+import com.sonar.sslr.api.AstNode;
+import com.sonar.sslr.api.TokenType;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public final class KeywordTableTest
+{
+    private enum Colliding
+        implements TokenType
+    {
+        /*
+         * "Aa" and "BB" have the same String.hashCode(), and so do all
+         * concatenations of them
+         */
+        AA("Aa"),
+        BB("BB"),
+        AAAA("AaAa"),
+        AABB("AaBB"),
+        BBAA("BBAa"),
+        BBBB("BBBB"),
+        ;
+
+        private final String value;
+
+        Colliding(final String value)
+        {
+            this.value = value;
+        }
+
+        @Override
+        public String getName()
+        {
+            return name();
+        }
+
+        @Override
+        public String getValue()
+        {
+            return value;
+        }
+
+        @Override
+        public boolean hasToBeSkippedFromAst(final AstNode node)
+        {
+            return false;
+        }
+    }
+
+    @Test
+    public void keywordsWithCollidingStringHashesAreFound()
+    {
+        final KeywordTable table = KeywordTable.of(Colliding.class);
+
+        for (final Colliding keyword: Colliding.values())
+            assertSame(keyword, table.lookup(keyword.getValue()));
+
+        assertNull(table.lookup("AB"));
+        assertNull(table.lookup("BBBa"));
+    }
+
+    @Test
+    public void collidingKeywordsAreFoundIgnoringCase()
+    {
+        final KeywordTable table = KeywordTable.ofIgnoreCase(Colliding.class);
+
+        assertSame(Colliding.AABB, table.lookup("aAbB"));
+        assertSame(Colliding.BBAA, table.lookup("bbaa"));
+        assertNull(table.lookup("abab"));
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2016 Lite Solutions
+ *
+ *  This code is licensed under the Apache Software License version 2.
+ *  For more information, see the LICENSE file at the root of this package.
+ *
+ *  Should you not have the source code available, and the file above is
+ *  unavailable, you can obtain a copy of the license here:
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ */
+
+package org.litesolutions.sonar.grappa;
+
+import org.junit.Test;
+import org.sonar.sslr.channel.CodeReader;
+
+import com.github.fge.grappa.buffers.LineCounter;
+import com.github.fge.grappa.support.IndexRange;
+import com.github.fge.grappa.support.Position;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/*
+ * LineOffsets replaced grappa's LineCounter in CodeReaderInputBuffer; it must
+ * give the same answers, and must not be slower to build
+ */
+public final class LineOffsetsTest
+{
+    /*
+     * About 5 MB of source
+     */
+    private static final String SOURCE = TestLanguage.source(100_000);
+
+    private static final int NR_RUNS = 10;
+
+    /*
+     * Timing is noisy on shared machines; the best of several runs is
+     * compared, and some slack is allowed
+     */
+    private static final double SLACK = 1.5;
+
+    @Test
+    public void linesAreTheSameAsThoseOfLineCounter()
+    {
+        final CodeReader reader = new CodeReader(SOURCE);
+        final LineCounter counter = new LineCounter(reader);
+        final LineOffsets offsets = new LineOffsets();
+        offsets.addLines(reader);
+
+        final int nrLines = counter.getNrLines();
+        assertEquals(nrLines, offsets.getNrLines());
+
+        IndexRange range;
+
+        for (int line = 1; line <= nrLines; line++) {
+            range = counter.getLineRange(line);
+            assertEquals(range.start, offsets.getLineStart(line));
+            assertEquals(line, offsets.getLineNumber(range.start));
+            assertEquals(line, offsets.getLineNumber(range.end - 1));
+        }
+    }
+
+    @Test
+    public void positionsAreTheSameAsThoseOfLineCounter()
+    {
+        final CodeReader reader = new CodeReader(SOURCE);
+        final LineCounter counter = new LineCounter(reader);
+        final CodeReaderInputBuffer buffer = new CodeReaderInputBuffer(reader);
+
+        Position expected;
+        Position actual;
+
+        for (int index = 0; index < SOURCE.length(); index += 97) {
+            expected = counter.toPosition(index);
+            actual = buffer.getPosition(index);
+            assertEquals(expected.getLine(), actual.getLine());
+            assertEquals(expected.getColumn(), actual.getColumn());
+        }
+    }
+
+    @Test
+    public void arrayKernelFindsTheSameNewlinesAsAPlainLoop()
+    {
+        final char[] chars = SOURCE.substring(0, 10_000).toCharArray();
+
+        for (int from = 0; from < 64; from++)
+            for (int to = chars.length - 64; to <= chars.length; to++)
+                assertEquals(plainIndexOf(chars, '\n', from, to),
+                    ScanKernels.indexOf(chars, '\n', from, to));
+
+        final LineOffsets offsets = new LineOffsets();
+        offsets.addLines(chars, 0, chars.length, 0);
+        final LineCounter counter = new LineCounter(new String(chars));
+        assertEquals(counter.getNrLines(), offsets.getNrLines());
+    }
+
+    @Test
+    public void lineOffsetsAreNotSlowerThanLineCounter()
+    {
+        final CodeReader reader = new CodeReader(SOURCE);
+
+        long baseline = Long.MAX_VALUE;
+        long actual = Long.MAX_VALUE;
+        long start;
+        int nrLines = 0;
+
+        for (int i = 0; i < NR_RUNS; i++) {
+            start = System.nanoTime();
+            nrLines += new LineCounter(reader).getNrLines();
+            baseline = Math.min(baseline, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            final LineOffsets offsets = new LineOffsets();
+            offsets.addLines(reader);
+            nrLines -= offsets.getNrLines();
+            actual = Math.min(actual, System.nanoTime() - start);
+        }
+
+        assertEquals(0, nrLines);
+        assertTrue("LineOffsets: " + actual + " ns, LineCounter: " + baseline
+            + " ns", actual <= baseline * SLACK);
+    }
+
+    private static int plainIndexOf(final char[] chars, final char c,
+        final int from, final int to)
+    {
+        for (int index = from; index < to; index++)
+            if (chars[index] == c)
+                return index;
+        return -1;
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2016 Lite Solutions
+ *
+ *  This code is licensed under the Apache Software License version 2.
+ *  For more information, see the LICENSE file at the root of this package.
+ *
+ *  Should you not have the source code available, and the file above is
+ *  unavailable, you can obtain a copy of the license here:
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ */
+
+package org.litesolutions.sonar.grappa;
+
+import java.util.List;
+
+import org.junit.Test;
+import org.litesolutions.sonar.grappa.TestLanguage.Keywords;
+import org.litesolutions.sonar.grappa.TestLanguage.Rules;
+
+import com.sonar.sslr.api.AstNode;
+import com.sonar.sslr.api.Grammar;
+import com.sonar.sslr.api.Token;
+import com.sonar.sslr.impl.matcher.RuleDefinition;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public final class SegmentedParserTest
+{
+    /*
+     * Well over SegmentedParser.MIN_TOKENS tokens
+     */
+    private static final String SOURCE = TestLanguage.source(2000);
+
+    @Test
+    public void segmentsParseLikeTheWholeInput()
+    {
+        final GrappaSslrParser<Grammar> parser
+            = TestLanguage.factoryBuilder().build().getParser();
+        final List<Token> tokens = parser.getLexer().lex(SOURCE);
+        assertTrue(tokens.size() > SegmentedParser.MIN_TOKENS);
+
+        final Grammar grammar = parser.getGrammar();
+        final SegmentedParser segmented = new SegmentedParser(
+            (RuleDefinition) grammar.rule(Rules.FILE),
+            (RuleDefinition) grammar.rule(Rules.FUNCTION),
+            token -> token.getType() == Keywords.DEF);
+
+        final AstNode expected = parser.parse(tokens);
+        final AstNode actual = segmented.parse(tokens);
+
+        assertNotNull(actual);
+        assertSameTree(expected, actual);
+    }
+
+    @Test
+    public void parsersWithSegmentsParseLikeParsersWithout()
+    {
+        final AstNode expected = TestLanguage.factoryBuilder().build()
+            .getParser().parse(SOURCE);
+        final AstNode actual = TestLanguage.factoryBuilder()
+            .withParallelSegments(Rules.FUNCTION,
+                token -> token.getType() == Keywords.DEF)
+            .build().getParser().parse(SOURCE);
+
+        assertSameTree(expected, actual);
+    }
+
+    private static void assertSameTree(final AstNode expected,
+        final AstNode actual)
+    {
+        assertSame(expected.getType(), actual.getType());
+        assertEquals(expected.getName(), actual.getName());
+        assertEquals(expected.getTokenOriginalValue(),
+            actual.getTokenOriginalValue());
+        assertEquals(expected.getTokenLine(), actual.getTokenLine());
+        assertEquals(expected.getFromIndex(), actual.getFromIndex());
+        assertEquals(expected.getToIndex(), actual.getToIndex());
+        assertEquals(expected.getNumberOfChildren(),
+            actual.getNumberOfChildren());
+
+        for (int i = 0; i < expected.getNumberOfChildren(); i++)
+            assertSameTree(expected.getChildren().get(i),
+                actual.getChildren().get(i));
+    }
+}
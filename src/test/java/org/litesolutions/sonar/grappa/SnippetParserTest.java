@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2016 Lite Solutions
+ *
+ *  This code is licensed under the Apache Software License version 2.
+ *  For more information, see the LICENSE file at the root of this package.
+ *
+ *  Should you not have the source code available, and the file above is
+ *  unavailable, you can obtain a copy of the license here:
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ */
+
+package org.litesolutions.sonar.grappa;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.Test;
+import org.litesolutions.sonar.grappa.TestLanguage.Rules;
+
+import com.sonar.sslr.api.Token;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public final class SnippetParserTest
+{
+    private static final int NR_SNIPPETS = 5000;
+
+    private static String snippet(final int i)
+    {
+        return "x" + i + " = " + i + " + (y" + i + " + " + (i * 7) + ");";
+    }
+
+    @Test
+    public void parallelSnippetsAreLexedWithTheirOwnActions()
+    {
+        final SnippetParser parser = TestLanguage.factoryBuilder().build()
+            .getSnippetParser();
+
+        final List<SnippetParser.Result> results = parser.parseAll(
+            IntStream.range(0, NR_SNIPPETS).mapToObj(i ->
+                SnippetParser.Snippet.of(Rules.STATEMENT, snippet(i))), true);
+
+        assertEquals(NR_SNIPPETS, results.size());
+
+        SnippetParser.Result result;
+        List<String> values;
+
+        for (int i = 0; i < NR_SNIPPETS; i++) {
+            result = results.get(i);
+            assertTrue(result.toString(), result.isSuccess());
+            assertTrue(result.toString(), result.isFullMatch());
+            values = result.getNode().getTokens().stream()
+                .map(Token::getOriginalValue)
+                .collect(Collectors.toList());
+            assertEquals(Arrays.asList(snippet(i).replace("(", "( ")
+                .replace(")", " )").replace(";", " ;").split(" ")), values);
+        }
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright (c) 2016 Lite Solutions
+ *
+ *  This code is licensed under the Apache Software License version 2.
+ *  For more information, see the LICENSE file at the root of this package.
+ *
+ *  Should you not have the source code available, and the file above is
+ *  unavailable, you can obtain a copy of the license here:
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ */
+
+package org.litesolutions.sonar.grappa;
+
+import org.sonar.sslr.grammar.GrammarRuleKey;
+import org.sonar.sslr.grammar.LexerfulGrammarBuilder;
+
+import com.sonar.sslr.api.AstNode;
+import com.sonar.sslr.api.GenericTokenType;
+import com.sonar.sslr.api.TokenType;
+
+/**
+ * A small language for tests
+ *
+ * <p>A file is a list of functions, and comments are C style block comments:
+ * </p>
+ *
+ * <pre>
+ *     def f() {
+ *         x = 1 + y;
+ *         return x;
+ *     }
+ * </pre>
+ *
+ * @see TestParser
+ */
+public final class TestLanguage
+{
+    public static final KeywordTable KEYWORDS = KeywordTable.of(Keywords.class);
+
+    private TestLanguage()
+    {
+        throw new Error("nice try!");
+    }
+
+    public enum Tokens
+        implements TokenType
+    {
+        IDENTIFIER,
+        NUMBER,
+        ;
+
+        @Override
+        public String getName()
+        {
+            return name();
+        }
+
+        @Override
+        public String getValue()
+        {
+            return name();
+        }
+
+        @Override
+        public boolean hasToBeSkippedFromAst(final AstNode node)
+        {
+            return false;
+        }
+    }
+
+    public enum Keywords
+        implements TokenType
+    {
+        DEF("def"),
+        RETURN("return"),
+        ;
+
+        private final String value;
+
+        Keywords(final String value)
+        {
+            this.value = value;
+        }
+
+        @Override
+        public String getName()
+        {
+            return name();
+        }
+
+        @Override
+        public String getValue()
+        {
+            return value;
+        }
+
+        @Override
+        public boolean hasToBeSkippedFromAst(final AstNode node)
+        {
+            return false;
+        }
+    }
+
+    public enum Punctuators
+        implements TokenType
+    {
+        LPAREN("("),
+        RPAREN(")"),
+        LBRACE("{"),
+        RBRACE("}"),
+        SEMICOLON(";"),
+        EQUALS("="),
+        PLUS("+"),
+        ;
+
+        private final String value;
+
+        Punctuators(final String value)
+        {
+            this.value = value;
+        }
+
+        @Override
+        public String getName()
+        {
+            return name();
+        }
+
+        @Override
+        public String getValue()
+        {
+            return value;
+        }
+
+        @Override
+        public boolean hasToBeSkippedFromAst(final AstNode node)
+        {
+            return false;
+        }
+    }
+
+    /*
+     * EXPRESSION is skipped if it has only one child, and PRIMARY always is
+     */
+    public enum Rules
+        implements GrammarRuleKey
+    {
+        FILE,
+        FUNCTION,
+        BLOCK,
+        STATEMENT,
+        ASSIGNMENT,
+        RETURN_STATEMENT,
+        EXPRESSION,
+        PRIMARY,
+    }
+
+    public static void injectInto(final LexerfulGrammarBuilder builder)
+    {
+        builder.rule(Rules.FILE).is(builder.zeroOrMore(Rules.FUNCTION),
+            GenericTokenType.EOF);
+        builder.rule(Rules.FUNCTION).is(Keywords.DEF, Tokens.IDENTIFIER,
+            Punctuators.LPAREN, Punctuators.RPAREN, Rules.BLOCK);
+        builder.rule(Rules.BLOCK).is(Punctuators.LBRACE,
+            builder.zeroOrMore(Rules.STATEMENT), Punctuators.RBRACE);
+        builder.rule(Rules.STATEMENT).is(builder.firstOf(Rules.ASSIGNMENT,
+            Rules.RETURN_STATEMENT));
+        builder.rule(Rules.ASSIGNMENT).is(Tokens.IDENTIFIER,
+            Punctuators.EQUALS, Rules.EXPRESSION, Punctuators.SEMICOLON);
+        builder.rule(Rules.RETURN_STATEMENT).is(Keywords.RETURN,
+            Rules.EXPRESSION, Punctuators.SEMICOLON);
+        builder.rule(Rules.EXPRESSION).is(Rules.PRIMARY,
+            builder.zeroOrMore(Punctuators.PLUS, Rules.PRIMARY))
+            .skipIfOneChild();
+        builder.rule(Rules.PRIMARY).is(builder.firstOf(Tokens.IDENTIFIER,
+            Tokens.NUMBER, builder.sequence(Punctuators.LPAREN,
+                Rules.EXPRESSION, Punctuators.RPAREN)))
+            .skip();
+    }
+
+    /**
+     * Get a factory builder for this language
+     *
+     * @return a builder, with the main rule, grammar and entry point set
+     */
+    public static GrappaSslrFactory.Builder<TestParser> factoryBuilder()
+    {
+        return GrappaSslrFactory.withParserClass(TestParser.class)
+            .withMainRule(TestParser::file)
+            .withGrammarInjector(TestLanguage::injectInto)
+            .withEntryPoint(Rules.FILE);
+    }
+
+    /**
+     * Generate a source file
+     *
+     * <p>Each function starts on a new line with {@code def}, and every
+     * fourth function is preceded by a comment spanning several lines, some
+     * of which also start with {@code def}.</p>
+     *
+     * @param nrFunctions the number of functions
+     * @return the source
+     */
+    public static String source(final int nrFunctions)
+    {
+        final StringBuilder sb = new StringBuilder();
+
+        for (int i = 0; i < nrFunctions; i++) {
+            if (i % 4 == 0)
+                sb.append("/* function f").append(i).append(":\n")
+                    .append("def is not a keyword here\n")
+                    .append("*/\n");
+            sb.append("def f").append(i).append("() {\n")
+                .append("    x = ").append(i).append(" + (y + 2);\n")
+                .append("    return x;\n")
+                .append("}\n");
+        }
+
+        return sb.toString();
+    }
+}
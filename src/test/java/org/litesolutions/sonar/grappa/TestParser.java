@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2016 Lite Solutions
+ *
+ *  This code is licensed under the Apache Software License version 2.
+ *  For more information, see the LICENSE file at the root of this package.
+ *
+ *  Should you not have the source code available, and the file above is
+ *  unavailable, you can obtain a copy of the license here:
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ */
+
+package org.litesolutions.sonar.grappa;
+
+import org.litesolutions.sonar.grappa.TestLanguage.Punctuators;
+import org.litesolutions.sonar.grappa.TestLanguage.Tokens;
+
+import com.github.fge.grappa.rules.Rule;
+import com.sonar.sslr.api.GenericTokenType;
+
+/**
+ * The grappa parser of {@link TestLanguage}
+ *
+ * <p>All tokens are pushed by actions.</p>
+ */
+public class TestParser
+    extends SonarParserBase
+{
+    public Rule file()
+    {
+        return sequence(zeroOrMore(token()), EOI);
+    }
+
+    public Rule token()
+    {
+        return firstOf(spacing(), comment(), word(), number(), punctuator());
+    }
+
+    public Rule spacing()
+    {
+        return oneOrMore(anyOf(" \t\r\n"));
+    }
+
+    public Rule comment()
+    {
+        return sequence(commentText(), pushToken(GenericTokenType.COMMENT));
+    }
+
+    public Rule commentText()
+    {
+        return sequence("/*", zeroOrMore(testNot("*/"), ANY), "*/");
+    }
+
+    public Rule word()
+    {
+        return sequence(wordText(),
+            pushKeywordOrToken(TestLanguage.KEYWORDS, Tokens.IDENTIFIER));
+    }
+
+    public Rule wordText()
+    {
+        return sequence(charRange('a', 'z'),
+            zeroOrMore(firstOf(charRange('a', 'z'), charRange('0', '9'))));
+    }
+
+    public Rule number()
+    {
+        return sequence(oneOrMore(charRange('0', '9')),
+            pushToken(Tokens.NUMBER));
+    }
+
+    public Rule punctuator()
+    {
+        return firstOf(
+            sequence('(', pushToken(Punctuators.LPAREN)),
+            sequence(')', pushToken(Punctuators.RPAREN)),
+            sequence('{', pushToken(Punctuators.LBRACE)),
+            sequence('}', pushToken(Punctuators.RBRACE)),
+            sequence(';', pushToken(Punctuators.SEMICOLON)),
+            sequence('=', pushToken(Punctuators.EQUALS)),
+            sequence('+', pushToken(Punctuators.PLUS))
+        );
+    }
+}
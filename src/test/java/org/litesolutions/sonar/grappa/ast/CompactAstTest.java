@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2016 Lite Solutions
+ *
+ *  This code is licensed under the Apache Software License version 2.
+ *  For more information, see the LICENSE file at the root of this package.
+ *
+ *  Should you not have the source code available, and the file above is
+ *  unavailable, you can obtain a copy of the license here:
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ */
+
+package org.litesolutions.sonar.grappa.ast;
+
+import java.util.List;
+
+import org.junit.Test;
+import org.litesolutions.sonar.grappa.GrappaSslrParser;
+import org.litesolutions.sonar.grappa.TestLanguage;
+import org.litesolutions.sonar.grappa.TestLanguage.Rules;
+
+import com.sonar.sslr.api.AstNode;
+import com.sonar.sslr.api.Grammar;
+import com.sonar.sslr.api.Token;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public final class CompactAstTest
+{
+    private static final int NR_FUNCTIONS = 20;
+
+    @Test
+    public void compactTreeIsTheSameAsTheSslrTree()
+    {
+        final GrappaSslrParser<Grammar> parser
+            = TestLanguage.factoryBuilder().build().getParser();
+        final List<Token> tokens
+            = parser.getLexer().lex(TestLanguage.source(NR_FUNCTIONS));
+
+        final AstNode expected = parser.parse(tokens);
+        final CompactAst compact = parser.parseCompact(tokens);
+        final int root = compact.getRoot();
+
+        assertSame(Rules.FILE, expected.getType());
+        assertSameTree(expected, compact, root);
+        assertSameTree(expected, compact.materialize(root));
+    }
+
+    @Test
+    public void ruleNodesAreTypedByTheirKey()
+    {
+        final GrappaSslrParser<Grammar> parser
+            = TestLanguage.factoryBuilder().build().getParser();
+        final CompactAst compact
+            = parser.parseCompact(TestLanguage.source(NR_FUNCTIONS));
+        final int root = compact.getRoot();
+
+        assertTrue(compact.is(root, Rules.FILE));
+        assertEquals(NR_FUNCTIONS,
+            compact.getDescendants(root, Rules.FUNCTION).length);
+
+        final int function = compact.getFirstChild(root, Rules.FUNCTION);
+        assertTrue(compact.is(function, Rules.FUNCTION));
+        assertSame(Rules.FUNCTION, compact.materialize(function).getType());
+    }
+
+    private static void assertSameTree(final AstNode expected,
+        final CompactAst compact, final int node)
+    {
+        assertSame(expected.getType(), compact.getType(node));
+        assertEquals(expected.getName(), compact.getName(node));
+        assertSame(expected.getToken(), compact.getToken(node));
+        assertEquals(expected.getFromIndex(), compact.getFromIndex(node));
+        assertEquals(expected.getToIndex(), compact.getToIndex(node));
+        assertEquals(expected.getNumberOfChildren(),
+            compact.getNumberOfChildren(node));
+
+        int child = compact.getFirstChild(node);
+        for (final AstNode expectedChild: expected.getChildren()) {
+            assertEquals(node, compact.getParent(child));
+            assertSameTree(expectedChild, compact, child);
+            child = compact.getNextSibling(child);
+        }
+    }
+
+    private static void assertSameTree(final AstNode expected,
+        final AstNode actual)
+    {
+        assertSame(expected.getType(), actual.getType());
+        assertEquals(expected.getName(), actual.getName());
+        assertSame(expected.getToken(), actual.getToken());
+        assertEquals(expected.getFromIndex(), actual.getFromIndex());
+        assertEquals(expected.getToIndex(), actual.getToIndex());
+        assertEquals(expected.getNumberOfChildren(),
+            actual.getNumberOfChildren());
+
+        for (int i = 0; i < expected.getNumberOfChildren(); i++)
+            assertSameTree(expected.getChildren().get(i),
+                actual.getChildren().get(i));
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2016 Lite Solutions
+ *
+ *  This code is licensed under the Apache Software License version 2.
+ *  For more information, see the LICENSE file at the root of this package.
+ *
+ *  Should you not have the source code available, and the file above is
+ *  unavailable, you can obtain a copy of the license here:
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ */
+
+package org.litesolutions.sonar.grappa.batch;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.litesolutions.sonar.grappa.TestLanguage;
+import org.litesolutions.sonar.grappa.TestLanguage.Rules;
+
+import com.sonar.sslr.api.AstNode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public final class ParseSchedulerTest
+{
+    private static final int NR_FILES = 40;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final ParseScheduler scheduler = ParseScheduler.builder()
+        .withParallelism(4).build();
+
+    @Test
+    public void workersParseWithTheirOwnRules()
+        throws IOException
+    {
+        final List<File> files = createFiles();
+
+        final List<ParseOutcome<AstNode>> outcomes = scheduler.parseAll(
+            TestLanguage.factoryBuilder().build(), files);
+
+        assertEquals(NR_FILES, outcomes.size());
+
+        ParseOutcome<AstNode> outcome;
+
+        for (int i = 0; i < NR_FILES; i++) {
+            outcome = outcomes.get(i);
+            assertSame(files.get(i), outcome.getFile());
+            assertTrue(outcome.toString(), outcome.isSuccess());
+            assertEquals(i + 1, outcome.getResult()
+                .getDescendants(Rules.FUNCTION).size());
+        }
+    }
+
+    @Test
+    public void stackOverflowsAreReportedInOutcomes()
+        throws IOException
+    {
+        final List<File> files = createFiles();
+        final File overflowing = files.get(NR_FILES / 2);
+
+        final List<ParseOutcome<File>> outcomes = scheduler.run(files,
+            file -> {
+                if (file.equals(overflowing))
+                    throw new StackOverflowError();
+                return file;
+            }, file -> 1L);
+
+        for (final ParseOutcome<File> outcome: outcomes)
+            if (outcome.getFile().equals(overflowing)) {
+                assertFalse(outcome.isSuccess());
+                assertTrue(outcome.getFailure() instanceof StackOverflowError);
+            } else
+                assertTrue(outcome.toString(), outcome.isSuccess());
+    }
+
+    @Test
+    public void outOfMemoryErrorsAbortTheRun()
+        throws IOException
+    {
+        final List<File> files = createFiles();
+        final OutOfMemoryError error = new OutOfMemoryError();
+
+        try {
+            scheduler.run(files, file -> {
+                throw error;
+            }, file -> 1L);
+            fail("no error thrown");
+        } catch (OutOfMemoryError e) {
+            assertSame(error, e);
+        }
+    }
+
+    private List<File> createFiles()
+        throws IOException
+    {
+        final List<File> files = new ArrayList<>(NR_FILES);
+
+        File file;
+
+        for (int i = 0; i < NR_FILES; i++) {
+            file = folder.newFile("file" + i + ".src");
+            Files.write(file.toPath(), TestLanguage.source(i + 1)
+                .getBytes(StandardCharsets.UTF_8));
+            files.add(file);
+        }
+
+        return files;
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2016 Lite Solutions
+ *
+ *  This code is licensed under the Apache Software License version 2.
+ *  For more information, see the LICENSE file at the root of this package.
+ *
+ *  Should you not have the source code available, and the file above is
+ *  unavailable, you can obtain a copy of the license here:
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ */
+
+package org.litesolutions.sonar.grappa.listeners;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.Test;
+import org.litesolutions.sonar.grappa.GrappaSslrFactory;
+import org.litesolutions.sonar.grappa.GrappaSslrLexer;
+import org.litesolutions.sonar.grappa.TestLanguage;
+import org.litesolutions.sonar.grappa.TestLanguage.Rules;
+import org.litesolutions.sonar.grappa.TestParser;
+
+import com.github.fge.grappa.rules.Rule;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public final class WatchdogListenerTest
+{
+    private static final Duration THRESHOLD = Duration.ofMillis(100L);
+    private static final long WAIT_MILLIS = 500L;
+
+    /**
+     * A parser whose parses abort with an exception on the first number
+     */
+    public static class AbortingParser
+        extends TestParser
+    {
+        @Override
+        public Rule number()
+        {
+            return sequence(oneOrMore(charRange('0', '9')), abort());
+        }
+
+        public boolean abort()
+        {
+            throw new IllegalStateException("aborted");
+        }
+    }
+
+    @Test
+    public void abortedParsesAreNotReported()
+        throws InterruptedException
+    {
+        assertNoReportAfterAbort(false);
+    }
+
+    @Test
+    public void abortedParsesInArenasAreNotReported()
+        throws InterruptedException
+    {
+        assertNoReportAfterAbort(true);
+    }
+
+    private static void assertNoReportAfterAbort(final boolean arena)
+        throws InterruptedException
+    {
+        final List<SlowParseReport> reports = new CopyOnWriteArrayList<>();
+
+        final GrappaSslrFactory.Builder<AbortingParser> builder
+            = GrappaSslrFactory.withParserClass(AbortingParser.class)
+            .withMainRule(TestParser::file)
+            .withGrammarInjector(TestLanguage::injectInto)
+            .withEntryPoint(Rules.FILE)
+            .addListenerSupplier(new WatchdogListenerSupplier(THRESHOLD,
+                reports::add));
+
+        if (arena)
+            builder.withLexingArena();
+
+        final GrappaSslrLexer lexer = builder.build().getParser().getLexer();
+
+        try {
+            lexer.lex(TestLanguage.source(1));
+            fail("no exception thrown");
+        } catch (RuntimeException ignored) {
+            // expected
+        }
+
+        Thread.sleep(WAIT_MILLIS);
+        assertEquals(0, reports.size());
+    }
+}